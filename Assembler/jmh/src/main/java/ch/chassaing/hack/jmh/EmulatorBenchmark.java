@@ -0,0 +1,70 @@
+package ch.chassaing.hack.jmh;
+
+import ch.chassaing.hack.*;
+import ch.chassaing.hack.emulator.HackCpu;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an assembled program on the emulator. The executed instructions are
+ * reported as an additional counter, i.e. instructions per second.
+ * A program is restarted whenever it halts, Rect with 256 rows to draw,
+ * Multiply with 123 * -456.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmulatorBenchmark
+{
+    @Param({Programs.PONG, Programs.RECT, Programs.MULTIPLY})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean jit;
+
+    @Param("1000000")
+    public int cycles;
+
+    private final HackCpu cpu = new HackCpu();
+
+    @Setup
+    public void setUp()
+            throws IOException
+    {
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new HackAssembler(new ScanningParser(), new QuietFeedback())
+                .transform(List.ofAll(Programs.load(program, 0, 0)), binary, new QuietFeedback(), false);
+        short[] words = new short[binary.size() / Short.BYTES];
+        ByteBuffer.wrap(binary.toByteArray()).order(RomImage.BYTE_ORDER).asShortBuffer().get(words);
+        cpu.setCompileHotBlocks(jit);
+        cpu.load(RomImage.of(words));
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Instructions
+    {
+        public long instructions;
+    }
+
+    @Benchmark
+    public long run(Instructions counter)
+    {
+        if (cpu.isHalted()) {
+            cpu.reset();
+            cpu.poke(0, program.equals(Programs.RECT) ? 256 : 123);
+            cpu.poke(1, -456);
+        }
+        long executed = cpu.run(cycles);
+        counter.instructions += executed;
+        return executed;
+    }
+}
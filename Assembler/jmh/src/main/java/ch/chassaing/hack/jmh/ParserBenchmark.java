@@ -0,0 +1,52 @@
+package ch.chassaing.hack.jmh;
+
+import ch.chassaing.hack.Parser;
+import ch.chassaing.hack.ParserImpl;
+import ch.chassaing.hack.ScanningParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses one line per operation, so the score is in lines per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark
+{
+    @Param({"ParserImpl", "ScanningParser"})
+    public String parser;
+
+    @Param({Programs.PONG, Programs.RECT, Programs.GENERATED})
+    public String program;
+
+    @Param("1000000")
+    public int lines;
+
+    @Param("10000")
+    public int labels;
+
+    private Parser sut;
+    private String[] source;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        sut = "ParserImpl".equals(parser) ? new ParserImpl() : new ScanningParser();
+        source = Programs.load(program, lines, labels).toArray(String[]::new);
+        next = 0;
+    }
+
+    @Benchmark
+    public Object parseLine()
+    {
+        int lineNumber = next;
+        next = next + 1 == source.length ? 0 : next + 1;
+        return sut.parseLine(lineNumber, source[lineNumber]);
+    }
+}
@@ -0,0 +1,107 @@
+package ch.chassaing.hack.jmh;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The programs the benchmarks run on: the Pong and Rect programs of
+ * chapter 6, a generated program and the multiplication loop of Math.multiply.
+ */
+final class Programs
+{
+    private Programs() { /* dont instantiate */ }
+
+    static final String PONG = "pong";
+    static final String RECT = "rect";
+    static final String GENERATED = "generated";
+    static final String MULTIPLY = "multiply";
+
+    /**
+     * @param name one of {@link #PONG}, {@link #RECT}, {@link #GENERATED} or {@link #MULTIPLY}
+     * @param lines number of lines of the generated program
+     * @param labels number of labels in the generated program
+     */
+    static List<String> load(String name,
+                             int lines,
+                             int labels)
+    {
+        Path programs = Path.of(System.getProperty("hack.programs", "../../06"));
+        return switch (name) {
+            case PONG -> read(programs.resolve("pong/Pong.asm"));
+            case RECT -> read(programs.resolve("rect/Rect.asm"));
+            case GENERATED -> generate(lines, labels);
+            case MULTIPLY -> multiply();
+            default -> throw new IllegalArgumentException("Unknown program " + name);
+        };
+    }
+
+    private static List<String> read(Path file)
+    {
+        try {
+            return Files.readAllLines(file, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Set -Dhack.programs to the directory of chapter 6", e);
+        }
+    }
+
+    /**
+     * Generates a program that looks like the output of the VM translator:
+     * mostly stack manipulation with jumps to labels before and after the
+     * jump and a few variables. The same arguments always give the same program.
+     */
+    static List<String> generate(int lines,
+                                 int labels)
+    {
+        Random random = new Random(42);
+        List<String> program = new ArrayList<>(lines);
+        int linesPerLabel = Math.max(1, lines / Math.max(1, labels));
+        int label = 0;
+        while (program.size() < lines) {
+            int n = program.size();
+            if (n % linesPerLabel == 0 && label < labels) {
+                program.add("(L" + label++ + ")");
+                continue;
+            }
+            switch (random.nextInt(12)) {
+                case 0 -> program.add("// push constant " + random.nextInt(32768));
+                case 1 -> program.add("@" + random.nextInt(32768));
+                case 2 -> program.add("@SP");
+                case 3 -> program.add("AM=M-1");
+                case 4 -> program.add("D=M");
+                case 5 -> program.add("M=D+M    // add");
+                case 6 -> program.add("@var" + random.nextInt(100));
+                case 7 -> program.add("@L" + random.nextInt(Math.max(1, labels)));
+                case 8 -> program.add("D;JNE");
+                case 9 -> program.add("0;JMP");
+                case 10 -> program.add("");
+                default -> program.add("MD=M+1");
+            }
+        }
+        return program;
+    }
+
+    /**
+     * R2 = R0 * R1 with the shift and add loop of Math.multiply from
+     * chapter 12, repeated 30000 times.
+     */
+    static List<String> multiply()
+    {
+        return List.of("@30000", "D=A", "@n", "M=D",
+                       "(OUTER)",
+                       "@R0", "D=M", "@shifted", "M=D", "@sum", "M=0", "@mask", "M=1",
+                       "(BIT)",
+                       "@mask", "D=M", "@R1", "D=D&M", "@mask", "D=D-M", "@SKIP", "D;JNE",
+                       "@shifted", "D=M", "@sum", "M=D+M",
+                       "(SKIP)",
+                       "@shifted", "D=M", "M=D+M", "@mask", "D=M", "MD=D+M", "@BIT", "D;JNE",
+                       "@sum", "D=M", "@R2", "M=D", "@n", "MD=M-1", "@OUTER", "D;JGT",
+                       "(END)",
+                       "@END", "0;JMP");
+    }
+}
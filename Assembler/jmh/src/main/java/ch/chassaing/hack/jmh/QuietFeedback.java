@@ -0,0 +1,25 @@
+package ch.chassaing.hack.jmh;
+
+import ch.chassaing.hack.Feedback;
+
+/**
+ * Swallows all messages so that printing does not distort the measurements.
+ */
+final class QuietFeedback
+        implements Feedback
+{
+    @Override
+    public void onDebug(String text) {}
+
+    @Override
+    public void onInfo(String text) {}
+
+    @Override
+    public void onError(String text) {}
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return false;
+    }
+}
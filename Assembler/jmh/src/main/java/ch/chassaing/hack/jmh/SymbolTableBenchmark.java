@@ -0,0 +1,76 @@
+package ch.chassaing.hack.jmh;
+
+import ch.chassaing.hack.SymbolTable;
+import ch.chassaing.hack.SymbolTableImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves one symbol reference (@symbol) of the program per operation.
+ * All labels are in the table already, as after the first pass.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SymbolTableBenchmark
+{
+    @Param({Programs.PONG, Programs.GENERATED})
+    public String program;
+
+    @Param("1000000")
+    public int lines;
+
+    @Param("10000")
+    public int labels;
+
+    private SymbolTable symbolTable;
+    private String[] references;
+    private int next;
+
+    @Setup
+    public void setUp()
+    {
+        symbolTable = new SymbolTableImpl(new QuietFeedback());
+        List<String> refs = new ArrayList<>();
+        int address = 0;
+        for (String line : Programs.load(program, lines, labels)) {
+            String trimmed = line.strip();
+            if (trimmed.startsWith("(")) {
+                symbolTable.putAddress(trimmed.substring(1, trimmed.indexOf(')')), address);
+            } else if (trimmed.startsWith("@") && !Character.isDigit(trimmed.charAt(1))) {
+                refs.add(trimmed.substring(1));
+                address++;
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("//")) {
+                address++;
+            }
+        }
+        references = refs.toArray(String[]::new);
+        next = 0;
+    }
+
+    private String nextReference()
+    {
+        String reference = references[next];
+        next = next + 1 == references.length ? 0 : next + 1;
+        return reference;
+    }
+
+    @Benchmark
+    public int symbolAddress()
+    {
+        return symbolTable.symbolAddress(nextReference());
+    }
+
+    @Benchmark
+    public int findAddressOfSpan()
+    {
+        String reference = nextReference();
+        return symbolTable.findAddress(reference, 0, reference.length());
+    }
+}
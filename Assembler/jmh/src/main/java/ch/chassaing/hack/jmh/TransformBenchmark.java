@@ -0,0 +1,71 @@
+package ch.chassaing.hack.jmh;
+
+import ch.chassaing.hack.*;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Assembles the whole program per operation. The lines are reported as
+ * an additional counter, so the result contains lines per second as well.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransformBenchmark
+{
+    @Param({"HackAssembler", "StreamingAssembler", "ParallelAssembler"})
+    public String assembler;
+
+    @Param({"false", "true"})
+    public boolean ascii;
+
+    @Param({Programs.PONG, Programs.RECT, Programs.GENERATED})
+    public String program;
+
+    @Param("1000000")
+    public int lines;
+
+    @Param("10000")
+    public int labels;
+
+    private Assembler sut;
+    private Seq<String> source;
+    private final Feedback feedback = new QuietFeedback();
+
+    @Setup
+    public void setUp()
+    {
+        Parser parser = new ScanningParser();
+        sut = switch (assembler) {
+            case "HackAssembler" -> new HackAssembler(parser, feedback);
+            case "StreamingAssembler" -> new StreamingAssembler(parser);
+            case "ParallelAssembler" -> new ParallelAssembler(parser);
+            default -> throw new IllegalArgumentException("Unknown assembler " + assembler);
+        };
+        source = List.ofAll(Programs.load(program, lines, labels));
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Lines
+    {
+        public long lines;
+    }
+
+    @Benchmark
+    public boolean transform(Lines counter)
+            throws IOException
+    {
+        boolean success = sut.transform(source, OutputStream.nullOutputStream(), feedback, ascii);
+        counter.lines += source.size();
+        return success;
+    }
+}
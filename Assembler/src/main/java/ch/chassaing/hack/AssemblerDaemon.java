@@ -0,0 +1,272 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Long-running assembler process that accepts requests over a Unix domain
+ * socket. This saves the JVM startup, class loading and warm-up for every
+ * assembled file.
+ * <p>
+ * Protocol (all numbers and strings as written by {@link DataOutputStream}):
+ * <ul>
+ *     <li>request: number of arguments, then every argument. The arguments are
+ *     the same as on the command line, the paths must be absolute.</li>
+ *     <li>response: exit code, length of the output, the output of the assembler.</li>
+ * </ul>
+ * The default socket is in a directory of the user that only the user can
+ * access. A client only talks to a socket owned by the same user, so that
+ * no other user can answer in place of the daemon.
+ */
+public final class AssemblerDaemon
+{
+    public static final Path DEFAULT_SOCKET = Path.of(System.getProperty("java.io.tmpdir"),
+                                                      "hack-asm-" + System.getProperty("user.name"),
+                                                      "hack-asm.sock");
+    /** how long a client waits for the answer before it assembles itself */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(60);
+
+    private static final EnumSet<PosixFilePermission> OWNER_ONLY = EnumSet.of(PosixFilePermission.OWNER_READ,
+                                                                              PosixFilePermission.OWNER_WRITE,
+                                                                              PosixFilePermission.OWNER_EXECUTE);
+
+    private record Response(int exitCode, byte[] output) {}
+
+    private AssemblerDaemon() { /* dont instantiate */ }
+
+    /**
+     * Sends the request to a running daemon and waits {@link #DEFAULT_TIMEOUT} for the answer.
+     *
+     * @return the exit code or {@link Option.None} if there is no daemon
+     * which answered the request
+     */
+    public static Option<Integer> request(Path socket,
+                                          Seq<String> args)
+    {
+        return request(socket, args, DEFAULT_TIMEOUT, System.out);
+    }
+
+    /**
+     * Sends the request to a running daemon. The output of the daemon is
+     * only printed to out if it answered in time.
+     *
+     * @return the exit code or {@link Option.None} if there is no daemon
+     * of the current user which answered the request within the timeout
+     */
+    static Option<Integer> request(Path socket,
+                                   Seq<String> args,
+                                   Duration timeout,
+                                   PrintStream out)
+    {
+        requireNonNull(args);
+        requireNonNull(timeout);
+        requireNonNull(out);
+        if (!Files.exists(requireNonNull(socket)) || !isOwnedByUser(socket)) {
+            return Option.none();
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            FutureTask<Response> exchange = new FutureTask<>(() -> exchange(channel, args));
+            Thread thread = new Thread(exchange, "daemon-request");
+            thread.setDaemon(true);
+            thread.start();
+            Response response;
+            try {
+                response = exchange.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // closing the channel on return ends a read still blocked in the thread
+                return Option.none();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Option.none();
+            }
+            out.write(response.output());
+            out.flush();
+            return Option.some(response.exitCode());
+        } catch (IOException e) {
+            // no daemon or it went away, the caller will do the work itself
+            return Option.none();
+        }
+    }
+
+    private static Response exchange(SocketChannel channel,
+                                     Seq<String> args)
+            throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.writeInt(args.size());
+        for (String arg : args) {
+            out.writeUTF(arg);
+        }
+        out.flush();
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(channel)));
+        int exitCode = in.readInt();
+        return new Response(exitCode, in.readNBytes(in.readInt()));
+    }
+
+    private static boolean isOwnedByUser(Path path)
+    {
+        try {
+            UserPrincipal user = path.getFileSystem()
+                                     .getUserPrincipalLookupService()
+                                     .lookupPrincipalByName(System.getProperty("user.name"));
+            return Files.getOwner(path).equals(user);
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Accepts requests on the socket until the process is terminated.
+     * Requests are handled concurrently.
+     */
+    public static void serve(Path socket)
+    {
+        serve(socket, System.out);
+    }
+
+    /**
+     * Like {@link #serve(Path)}, but prints that it is listening to out.
+     */
+    static void serve(Path socket,
+                      PrintStream out)
+    {
+        requireNonNull(socket);
+        requireNonNull(out);
+        if (Files.exists(socket) && isAlive(socket)) {
+            System.err.println("Daemon is already running on " + socket);
+            System.exit(64);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            createPrivateDirectory(socket.toAbsolutePath().getParent());
+            Files.deleteIfExists(socket); // left over from a daemon that was killed
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignored) {
+                    // the next daemon will delete it
+                }
+            }));
+            out.println("Assembler daemon listening on " + socket);
+
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                SocketChannel channel = server.accept();
+                executor.execute(() -> handle(channel));
+            }
+        } catch (IOException e) {
+            System.err.println("Daemon failed on " + socket);
+            e.printStackTrace(System.err);
+            System.exit(128);
+        }
+    }
+
+    /**
+     * Creates the directory only accessible by the user, if it does not exist yet.
+     */
+    private static void createPrivateDirectory(Path directory)
+            throws IOException
+    {
+        if (Files.isDirectory(directory)) {
+            return;
+        }
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } else {
+            Files.createDirectories(directory);
+        }
+    }
+
+    private static void handle(SocketChannel channel)
+    {
+        try (channel) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int exitCode;
+            try (PrintStream printStream = new PrintStream(output, false, StandardCharsets.UTF_8)) {
+                try {
+                    exitCode = assemble(args, printStream);
+                } catch (RuntimeException e) {
+                    // like a run in the client, it gets the stack trace
+                    e.printStackTrace(printStream);
+                    exitCode = 128;
+                }
+            }
+
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(exitCode);
+            out.writeInt(output.size());
+            output.writeTo(out);
+            out.flush();
+        } catch (EOFException e) {
+            // connection closed without a request, e.g. by isAlive()
+        } catch (IOException e) {
+            // the client went away or falls back to assembling itself
+            System.err.println("Request failed: " + e.getMessage());
+        }
+    }
+
+    private static int assemble(String[] args,
+                                PrintStream out)
+    {
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(HackAssembler.options(), args);
+        } catch (ParseException e) {
+            out.println("Problem parsing command line");
+            return 64;
+        }
+        if (commandLine.getArgList().isEmpty()) {
+            out.println("No file given");
+            return 64;
+        }
+        return HackAssembler.run(commandLine, out);
+    }
+
+    private static boolean isAlive(Path socket)
+    {
+        try (SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            return channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
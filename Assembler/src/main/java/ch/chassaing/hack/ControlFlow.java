@@ -0,0 +1,125 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.Address;
+import ch.chassaing.hack.expression.CInstruction;
+import ch.chassaing.hack.expression.Computation;
+import ch.chassaing.hack.expression.Destination;
+import ch.chassaing.hack.expression.Expression;
+import ch.chassaing.hack.expression.Jump;
+import ch.chassaing.hack.expression.Label;
+import ch.chassaing.hack.expression.Symbol;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Facts about the control flow of a program that decide whether
+ * instructions may be moved.
+ */
+final class ControlFlow
+{
+    private ControlFlow() { /* dont instantiate */ }
+
+    /**
+     * True if the program may jump to a numeric ROM address, i.e. to an
+     * address that is not a label. Such a program breaks as soon as an
+     * instruction before the target is removed, because only labels get
+     * new addresses. Numeric addresses are constants and symbols that are
+     * not labels. A program is considered to jump to one
+     * <ul>
+     *     <li>directly, like {@code @133 / 0;JMP} or {@code @R0 / 0;JMP}, or</li>
+     *     <li>if it copies a numeric address out of A, like {@code @123 / D=A},
+     *     and also has a computed jump, whose target is not loaded right
+     *     before it, like {@code @R14 / A=M / 0;JMP}. The copied value may
+     *     be a return address that ends up in A later.</li>
+     * </ul>
+     * This assumes that a numeric address which never leaves A, e.g.
+     * {@code @5 / M=M+1}, is not a ROM address, and that the ROM is never
+     * read as data.
+     */
+    static boolean jumpsToNumericAddress(Iterable<Expression> expressions)
+    {
+        Set<String> labels = labels(expressions);
+        Address lastLoad = null;
+        boolean numericCopied = false;
+        boolean computedJump = false;
+        for (Expression expression : expressions) {
+            if (expression instanceof Label) {
+                // can be reached from anywhere, A is unknown
+                lastLoad = null;
+            } else if (expression instanceof Address address) {
+                lastLoad = address;
+            } else if (expression instanceof CInstruction c) {
+                boolean numeric = lastLoad != null
+                                  && !(lastLoad instanceof Symbol symbol && labels.contains(symbol.chars));
+                if (c.jump != Jump.NONE) {
+                    if (numeric) {
+                        return true;
+                    }
+                    computedJump |= lastLoad == null;
+                }
+                if (numeric && c.comp.readsA() && c.dest != Destination.NONE) {
+                    numericCopied = true;
+                }
+                if (c.dest.storesA()) {
+                    lastLoad = null;
+                }
+            }
+        }
+        return numericCopied && computedJump;
+    }
+
+    /**
+     * True if the program jumps to an address it computed, like the jump
+     * table {@code @TABLE / D=A / @i / A=D+M / 0;JMP}. The target is then
+     * an offset from a label, not the label itself. A jump target is
+     * computed unless it was loaded with {@code @} or copied unchanged with
+     * {@code A=M} or {@code A=D}, the copies only hold an address that was
+     * loaded before. This assumes that an address computed into RAM or D is
+     * not copied back into A for a jump.
+     */
+    static boolean jumpsToComputedAddress(Iterable<Expression> expressions)
+    {
+        boolean computed = false;
+        for (Expression expression : expressions) {
+            if (expression instanceof Label || expression instanceof Address) {
+                computed = false;
+            } else if (expression instanceof CInstruction c) {
+                // the jump goes to A before the instruction stores a new one
+                if (c.jump != Jump.NONE && computed) {
+                    return true;
+                }
+                if (c.dest.storesA()) {
+                    computed = c.comp != Computation.M && c.comp != Computation.D;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * True if a label is defined more than once. The first pass reports
+     * these, so they must not be removed before.
+     */
+    static boolean hasDuplicateLabels(Iterable<Expression> expressions)
+    {
+        Set<String> labels = new HashSet<>();
+        for (Expression expression : expressions) {
+            if (expression instanceof Label label && !labels.add(label.value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static Set<String> labels(Iterable<Expression> expressions)
+    {
+        Set<String> labels = new HashSet<>();
+        for (Expression expression : expressions) {
+            if (expression instanceof Label label) {
+                labels.add(label.value);
+            }
+        }
+        return labels;
+    }
+}
@@ -2,30 +2,124 @@ package ch.chassaing.hack;
 
 public interface Feedback
 {
+    /**
+     * What the assembler counts while it works, see {@link #onCount(Counter, long)}.
+     */
+    enum Counter
+    {
+        LINES_PARSED("linesParsed"),
+        INSTRUCTIONS_EMITTED("instructionsEmitted"),
+        SYMBOLS_ALLOCATED("symbolsAllocated"),
+        LABELS_DEFINED("labelsDefined"),
+        INSTRUCTIONS_REMOVED("instructionsRemoved"),
+        ERRORS("errors");
+
+        /** name of the counter in machine-readable output */
+        public final String key;
+
+        Counter(String key)
+        {
+            this.key = key;
+        }
+    }
+
     void onDebug(String text);
 
     void onInfo(String text);
 
     void onError(String text);
 
+    /**
+     * Allows callers to skip building debug messages which would not be
+     * shown anyway.
+     */
+    default boolean isDebugEnabled()
+    {
+        return true;
+    }
+
+    default boolean isInfoEnabled()
+    {
+        return true;
+    }
+
+    default boolean isErrorEnabled()
+    {
+        return true;
+    }
+
+    /**
+     * Adds amount to the counter. Ignored by default.
+     */
+    default void onCount(Counter counter, long amount) {}
+
+    /**
+     * Reports the wall-clock time a phase of the assembler took. Ignored by default.
+     */
+    default void onPhase(String phase, long nanos) {}
+
+    /**
+     * Reports the phase which started at startNanos ({@link System#nanoTime()})
+     * and returns the current time, i.e. the start of the next phase.
+     */
+    default long endPhase(String phase, long startNanos)
+    {
+        long now = System.nanoTime();
+        onPhase(phase, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Reports the source line of the instruction at the ROM address, once
+     * the address is known. Ignored by default.
+     */
+    default void onInstruction(int address, int lineNumber) {}
+
+    /**
+     * Reports the address of a label. Ignored by default.
+     */
+    default void onLabel(String label, int address) {}
+
+    // the line messages are only formatted if they will be shown
+
     default void onLineDebug(int lineNumber, String line, String details)
     {
-        onDebug(formatLine(lineNumber, line, details));
+        if (isDebugEnabled()) {
+            onDebug(formatLine(lineNumber, line, details));
+        }
     }
 
     default void onLineInfo(int lineNumber, String line, String details)
     {
-        onInfo(formatLine(lineNumber, line, details));
+        if (isInfoEnabled()) {
+            onInfo(formatLine(lineNumber, line, details));
+        }
     }
 
     default void onLineError(int lineNumber, String line, String details)
     {
-        onError(formatLine(lineNumber, line, details));
+        if (isErrorEnabled()) {
+            onError(formatLine(lineNumber, line, details));
+        }
     }
 
+    /**
+     * Same as String.format("Line %6d: %s - %s%n", ...) without parsing the format.
+     */
     default String formatLine(int lineNumber, String line, String details)
     {
-        return String.format("Line %6d: %s - %s%n", lineNumber, line, details);
+        String number = Integer.toString(lineNumber);
+        StringBuilder text = new StringBuilder(line.length() + details.length() + 20).append("Line ");
+        for (int i = number.length(); i < 6; i++) {
+            text.append(' ');
+        }
+        return text.append(number)
+                   .append(": ")
+                   .append(line)
+                   .append(" - ")
+                   .append(details)
+                   .append(System.lineSeparator())
+                   .toString();
     }
 
 }
@@ -0,0 +1,81 @@
+package ch.chassaing.hack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Records the positions of instructions that reference a symbol which
+ * was not yet known when the instruction was encoded. Every symbol is
+ * stored only once, positions are kept in primitive arrays.
+ * <p>
+ * NOT threadsafe
+ */
+final class FixupTable
+{
+    private final SymbolMap symbolIds = new SymbolMap();
+    /** symbols in the order of their first use */
+    private final List<String> symbols = new ArrayList<>();
+
+    private int[] positions = new int[64];
+    private int[] ids = new int[64];
+    private int size = 0;
+
+    void add(int position, String symbol)
+    {
+        requireNonNull(symbol);
+        int id = symbolIds.get(symbol);
+        if (id == -1) {
+            id = symbols.size();
+            symbolIds.put(symbol, id);
+            symbols.add(symbol);
+        }
+        add(position, id);
+    }
+
+    /**
+     * Same as {@link #add(int, String)} for the symbol formed by the characters
+     * from start (inclusive) to end (exclusive). The String is only created
+     * when the symbol is recorded for the first time.
+     */
+    void add(int position, CharSequence chars, int start, int end)
+    {
+        int id = symbolIds.get(chars, start, end);
+        if (id == -1) {
+            String symbol = chars.subSequence(start, end).toString();
+            id = symbols.size();
+            symbolIds.put(symbol, id);
+            symbols.add(symbol);
+        }
+        add(position, id);
+    }
+
+    private void add(int position, int id)
+    {
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        positions[size] = position;
+        ids[size] = id;
+        size++;
+    }
+
+    /**
+     * Resolve all recorded symbols and write their addresses into the
+     * ROM image. Symbols are resolved in the order of their first use so that
+     * variables get the same addresses as with a two pass assembler.
+     */
+    void patch(RomImage rom, SymbolTable symbolTable)
+    {
+        int[] addresses = new int[symbols.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = symbolTable.symbolAddress(symbols.get(i));
+        }
+        for (int i = 0; i < size; i++) {
+            rom.set(positions[i], addresses[ids[i]]);
+        }
+    }
+}
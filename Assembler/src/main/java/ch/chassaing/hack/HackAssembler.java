@@ -10,9 +10,14 @@ import org.apache.commons.cli.*;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
-import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.Objects.requireNonNull;
 
@@ -23,65 +28,317 @@ public final class HackAssembler
 
     private final Parser parser;
     private final Feedback feedback;
+    /** run in this order between parsing and the first pass */
+    private final Seq<Optimizer> optimizers;
 
     public HackAssembler(Parser parser, Feedback feedback)
+    {
+        this(parser, feedback, List.empty());
+    }
+
+    public HackAssembler(Parser parser,
+                         Feedback feedback,
+                         Seq<Optimizer> optimizers)
     {
         this.parser = parser;
         this.feedback = feedback;
+        this.optimizers = requireNonNull(optimizers);
     }
 
     public static void main(String[] args)
     {
         CommandLine commandLine;
-        Options options = new Options();
-        options.addOption("ascii", "Output binary instructions encoded in ASCII");
+        Options options = options();
         try {
             commandLine = new DefaultParser().parse(options, args);
         } catch (ParseException e) {
             System.err.println("Problem parsing command line");
             throw new RuntimeException(e);
         }
+        Path socket = Path.of(commandLine.getOptionValue("socket", AssemblerDaemon.DEFAULT_SOCKET.toString()));
+        if (commandLine.hasOption("daemon")) {
+            AssemblerDaemon.serve(socket);
+            return;
+        }
+
         Seq<String> remainingArgs = List.ofAll(commandLine.getArgList());
         if (remainingArgs.isEmpty()) {
-            new HelpFormatter().printHelp("Usage: java -jar asm.jar <asm file>", options);
+            new HelpFormatter().printHelp("Usage: java -jar asm.jar <asm files, directories or globs>", options);
             System.exit(64);
         }
 
-        String filename = remainingArgs.head();
-        if (!filename.endsWith(".asm")) {
-            System.out.println("Filename must have an .asm ending");
-            System.exit(64);
+        // let a running daemon do the work, the paths must be absolute for it
+        Seq<String> requestArgs = List.of(commandLine.getOptions())
+                .filter(option -> !option.getOpt().equals("socket"))
+                .flatMap(option -> !option.hasArg()
+                                   ? List.of("-" + option.getOpt())
+                                   : List.of("-" + option.getOpt(),
+                                             option.getOpt().equals("summary")
+                                             ? Path.of(option.getValue()).toAbsolutePath().toString()
+                                             : option.getValue()))
+                .appendAll(remainingArgs.map(arg -> Path.of(arg).toAbsolutePath().toString()));
+        int exitCode = commandLine.hasOption("nodaemon")
+                       ? run(commandLine, System.out)
+                       : AssemblerDaemon.request(socket, requestArgs)
+                                        .getOrElse(() -> run(commandLine, System.out));
+        if (exitCode != 0) {
+            System.exit(exitCode);
+        }
+    }
+
+    static Options options()
+    {
+        Options options = new Options();
+        options.addOption("ascii", "Output binary instructions encoded in ASCII");
+        options.addOption("stream", "Assemble in a single pass while reading the file");
+        options.addOption("parallel", "Parse and encode chunks of the file in parallel");
+        options.addOption("mapped", "Memory-map the file and assemble it in a single pass");
+        options.addOption("daemon", "Keep running and assemble the files requested by other invocations");
+        options.addOption("nodaemon", "Do not use a running daemon");
+        options.addOption("quiet", "Only print errors");
+        options.addOption("sourcemap", "Write the source line and label of every ROM address to a "
+                                       + SourceMap.EXTENSION + " file");
+        options.addOption("optimize", "Remove unreachable and redundant instructions, uses the two-pass assembler");
+        options.addOption(Option.builder("socket")
+                                  .hasArg()
+                                  .desc("Socket of the daemon, defaults to " + AssemblerDaemon.DEFAULT_SOCKET)
+                                  .build());
+        options.addOption(Option.builder("summary")
+                                  .hasArg()
+                                  .desc("Write counters and phase timings of the run as JSON to the given file, " +
+                                        "one line per assembled file")
+                                  .build());
+        options.addOption(Option.builder("jobs")
+                                  .hasArg()
+                                  .desc("Number of files assembled at the same time, " +
+                                        "defaults to the number of processors")
+                                  .build());
+        return options;
+    }
+
+    /**
+     * The outcome of assembling one file.
+     *
+     * @param summary the JSON summary or null if none was requested
+     */
+    private record FileResult(int exitCode, ByteArrayOutputStream output, String summary) {}
+
+    /**
+     * Assembles the files, directories and globs given in the command line.
+     * Several files are assembled concurrently. Their messages are collected
+     * and printed file by file, in the order of the arguments.
+     *
+     * @return the exit codes of all files combined with a bitwise or
+     */
+    static int run(CommandLine commandLine,
+                   PrintStream out)
+    {
+        Seq<Path> files;
+        int jobs;
+        try {
+            files = SourceFiles.expand(List.ofAll(commandLine.getArgList()));
+            jobs = commandLine.hasOption("jobs")
+                   ? Integer.parseInt(commandLine.getOptionValue("jobs"))
+                   : Runtime.getRuntime().availableProcessors();
+            if (jobs < 1) {
+                throw new IllegalArgumentException("jobs must be positive");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            out.println(e.getMessage());
+            return 64;
+        }
+
+        SoutFeedback.Level level = commandLine.hasOption("quiet") ? SoutFeedback.Level.ERROR : SoutFeedback.Level.DEBUG;
+        Seq<FileResult> results;
+        if (files.size() == 1) {
+            // print the messages as they come
+            results = List.of(assembleFile(commandLine,
+                                           files.head(),
+                                           new SoutFeedback(level, out)));
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(jobs, files.size()));
+            try {
+                Seq<Future<FileResult>> futures = files.map(file -> executor.submit(() -> {
+                    ByteArrayOutputStream output = new ByteArrayOutputStream();
+                    try (PrintStream printStream = new PrintStream(output, false, StandardCharsets.UTF_8)) {
+                        FileResult result = assembleFile(commandLine,
+                                                         file,
+                                                         new SoutFeedback(level, printStream));
+                        return new FileResult(result.exitCode(), output, result.summary());
+                    }
+                }));
+                results = files.zip(futures).map(fileAndFuture -> {
+                    FileResult result = await(fileAndFuture._2);
+                    out.println("==> " + fileAndFuture._1 + " <==");
+                    out.writeBytes(result.output().toByteArray());
+                    out.flush();
+                    return result;
+                });
+            } finally {
+                executor.shutdown();
+            }
+        }
+
+        int exitCode = results.foldLeft(0, (code, result) -> code | result.exitCode());
+        if (commandLine.hasOption("summary")) {
+            String summary = commandLine.getOptionValue("summary");
+            try {
+                Files.writeString(Path.of(summary),
+                                  results.map(result -> result.summary() + System.lineSeparator()).mkString(),
+                                  StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                out.println("Problem writing summary to " + summary);
+                exitCode |= 128;
+            }
+        }
+        return exitCode;
+    }
+
+    private static FileResult await(Future<FileResult> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            e.getCause().printStackTrace(new PrintStream(output, true, StandardCharsets.UTF_8));
+            return new FileResult(128, output, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new FileResult(128, new ByteArrayOutputStream(), null);
+        }
+    }
+
+    private static FileResult assembleFile(CommandLine commandLine,
+                                           Path file,
+                                           Feedback feedback)
+    {
+        if (!commandLine.hasOption("summary")) {
+            return new FileResult(assemble(commandLine, file.toString(), feedback), null, null);
+        }
+
+        MetricsFeedback metrics = new MetricsFeedback(feedback);
+        int exitCode = assemble(commandLine, file.toString(), metrics);
+        return new FileResult(exitCode, null, metrics.toJson(file.toString(), exitCode));
+    }
+
+    private static int assemble(CommandLine commandLine,
+                                String filename,
+                                Feedback feedback)
+    {
+        if (!commandLine.hasOption("sourcemap")) {
+            return assembleWith(commandLine, filename, feedback);
         }
 
-        Feedback feedback = new SoutFeedback(SoutFeedback.Level.DEBUG);
+        SourceMapFeedback sourceMapFeedback = new SourceMapFeedback(feedback);
+        int exitCode = assembleWith(commandLine, filename, sourceMapFeedback);
+        if (exitCode != 0) {
+            return exitCode;
+        }
+        String mapFilename = filename.replace(".asm", SourceMap.EXTENSION);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(mapFilename, false))) {
+            sourceMapFeedback.sourceMap().writeTo(os);
+        } catch (IOException e) {
+            feedback.onError("Problem writing source map " + mapFilename);
+            return 128;
+        }
+        return 0;
+    }
 
-        new HackAssembler(new ParserImpl(), feedback)
-                .process(filename, commandLine.hasOption("ascii"));
+    private static int assembleWith(CommandLine commandLine,
+                                    String filename,
+                                    Feedback feedback)
+    {
+        boolean ascii = commandLine.hasOption("ascii");
+        if (commandLine.hasOption("optimize")) {
+            // only the two-pass assembler sees the whole program before the labels get their addresses
+            HackAssembler assembler = new HackAssembler(new ScanningParser(),
+                                                        feedback,
+                                                        List.of(new UnreachableCodeEliminator(),
+                                                                new PeepholeOptimizer()));
+            return assembler.process(filename, ascii, assembler);
+        }
+
+        HackAssembler assembler = new HackAssembler(new ScanningParser(), feedback);
+        if (commandLine.hasOption("stream") || commandLine.hasOption("mapped")) {
+            return assembler.processStreaming(filename, ascii, commandLine.hasOption("mapped"));
+        } else if (commandLine.hasOption("parallel")) {
+            return assembler.process(filename, ascii, new ParallelAssembler(assembler.parser));
+        } else {
+            return assembler.process(filename, ascii, assembler);
+        }
     }
 
-    private void process(String filename,
-                         boolean ascii)
+    private int process(String filename,
+                        boolean ascii,
+                        Assembler assembler)
     {
-        Seq<String> lines = readFile(filename);
+        Seq<String> lines;
+        try {
+            long start = System.nanoTime();
+            lines = readFile(filename);
+            feedback.endPhase("read", start);
+        } catch (IOException e) {
+            feedback.onError("Problem reading file: " + e.getMessage());
+            return 64;
+        }
 
         String outFilename = filename.replace(".asm", ".hack");
         try (FileOutputStream fos = new FileOutputStream(outFilename, false)) {
-            boolean success = transform(lines,
-                                        fos,
-                                        feedback,
-                                        ascii);
+            boolean success = assembler.transform(lines,
+                                                  fos,
+                                                  feedback,
+                                                  ascii);
 
             if (!success) {
                 feedback.onError("Generation of hack file failed.");
-                System.exit(32);
+                return 32;
             }
 
         } catch (IOException e) {
-            feedback.onError("Error processing " + filename);
-            // TODO remove System.err and replace with feedback
-            e.printStackTrace(System.err);
-            System.exit(128);
+            feedback.onError("Error processing " + filename + ": " + e.getMessage());
+            return 128;
         }
+        return 0;
+    }
+
+    /**
+     * Like {@link #process(String, boolean, Assembler)} but the lines are read one by one
+     * and assembled in a single pass by the {@link StreamingAssembler}. If mapped is true,
+     * the file is memory-mapped and the bytes are scanned without decoding them.
+     */
+    private int processStreaming(String filename,
+                                 boolean ascii,
+                                 boolean mapped)
+    {
+        String outFilename = filename.replace(".asm", ".hack");
+        StreamingAssembler assembler = new StreamingAssembler(parser);
+        try (FileOutputStream os = new FileOutputStream(outFilename, false)) {
+            boolean success;
+            if (mapped) {
+                success = assembler.transform(MappedAsciiInput.map(Path.of(filename)),
+                                              os,
+                                              feedback,
+                                              ascii);
+            } else {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(filename), ENCODING))) {
+                    success = assembler.transform(reader.lines().iterator(),
+                                                  os,
+                                                  feedback,
+                                                  ascii);
+                }
+            }
+
+            if (!success) {
+                feedback.onError("Generation of hack file failed.");
+                return 32;
+            }
+
+        } catch (IOException | UncheckedIOException e) {
+            feedback.onError("Error processing " + filename + ": " + e.getMessage());
+            return 128;
+        }
+        return 0;
     }
 
     @Override
@@ -91,16 +348,25 @@ public final class HackAssembler
                              boolean ascii)
             throws IOException
     {
-        SymbolTable symbolTable = new SymbolTableImpl();
+        long start = System.nanoTime();
+        SymbolTable symbolTable = new SymbolTableImpl(feedback);
         Seq<Expression> expressions = translate(lines);
+        feedback.onCount(Feedback.Counter.LINES_PARSED, lines.size());
+        start = feedback.endPhase("parse", start);
+
+        // errors are reported by the first pass, the optimizers only see valid programs
+        if (!optimizers.isEmpty()
+            && !expressions.exists(expression -> expression instanceof MalformedExpression)
+            && !ControlFlow.hasDuplicateLabels(expressions)) {
+            for (Optimizer optimizer : optimizers) {
+                expressions = optimizer.optimize(expressions, feedback);
+            }
+            start = feedback.endPhase("optimize", start);
+        }
 
         // In the first pass, labels are handled. That means that
         // duplicate labels are detected and the address of the labels
         // are determined and put into the symbol table
-
-        feedback.onInfo("==============================================");
-        feedback.onInfo("============== Start first pass ==============");
-        feedback.onInfo("==============================================");
         boolean hasErrors = false;
         int address = 0; // address points to the next instruction
         for (Expression expression : expressions) {
@@ -112,63 +378,44 @@ public final class HackAssembler
                     hasErrors = true;
                     feedback.onLineError(label.lineNumber, label.line, "Duplicate label");
                 } else {
-                    symbolTable.putAddress(label.value, BigInteger.valueOf(address));
+                    symbolTable.putAddress(label.value, address);
+                    feedback.onLabel(label.value, address);
                 }
             } else if (expression instanceof Instruction) {
                 address++;
             }
         }
-        feedback.onInfo("==============================================");
-        feedback.onInfo("==============  End first pass  ==============");
-        feedback.onInfo("==============================================");
+        start = feedback.endPhase("first pass", start);
 
         if (hasErrors) {
             return false;
         }
 
         // second pass: generate machine code
+        RomImage rom = new RomImage(address);
         for (Expression expression : expressions) {
             if (expression instanceof Instruction instruction) {
-
-                if (ascii) {
-                    String s = instruction.toAsciiInstruction(symbolTable);
-                    machineCodeOutput.write(s.getBytes(ENCODING));
-                    machineCodeOutput.write(System.lineSeparator().getBytes(ENCODING));
-                } else {
-                    MachineInstruction machineInstruction = instruction.toMachineInstruction(symbolTable);
-                    // low byte first = little endian
-                    // high byte first = big endian
-                    machineCodeOutput.write(machineInstruction.loByte());
-                    machineCodeOutput.write(machineInstruction.hiByte());
-                }
+                feedback.onInstruction(rom.add(instruction.toWord(symbolTable)), instruction.lineNumber);
             }
         }
+        feedback.onCount(Feedback.Counter.INSTRUCTIONS_EMITTED, rom.size());
+        start = feedback.endPhase("second pass", start);
 
-        feedback.onInfo("==============================================");
-        feedback.onInfo("============== Generation done  ==============");
-        feedback.onInfo("==============================================");
-
+        rom.writeTo(machineCodeOutput, ascii);
         machineCodeOutput.flush();
+        feedback.endPhase("write", start);
 
         return true;
     }
 
     /**
-     * Read the contents of the file as a sequence of lines. Will terminate the process if
-     * there is a problem reading the file.
+     * Read the contents of the file as a sequence of lines.
      */
-    private Seq<String> readFile(String file)
+    private static Seq<String> readFile(String file)
+            throws IOException
     {
-
-        try {
-            BufferedInputStream is = new BufferedInputStream(new FileInputStream(file));
+        try (BufferedInputStream is = new BufferedInputStream(new FileInputStream(file))) {
             return List.ofAll(IOUtils.readLines(is, StandardCharsets.UTF_8));
-        } catch (IOException e) {
-            feedback.onError("Problem reading file.");
-            // TODO replace with feedback
-            e.printStackTrace(System.err);
-            System.exit(64);
-            return List.empty(); // the compiler doesn't seem to know that System.exit() terminates the process
         }
     }
 
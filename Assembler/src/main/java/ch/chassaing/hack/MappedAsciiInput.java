@@ -0,0 +1,132 @@
+package ch.chassaing.hack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Memory-mapped assembly file which is read line by line without decoding
+ * it into Strings. The current line is exposed as a {@link CharSequence}
+ * view on the mapped bytes, every byte is one character. Lines end with
+ * \n, \r or \r\n, like with {@link java.io.BufferedReader#readLine()}.
+ * <p>
+ * NOT threadsafe
+ */
+public final class MappedAsciiInput
+{
+    private final ByteBuffer bytes;
+    private final Line line = new Line();
+
+    private int lineNumber = -1;
+    /** where the next line starts */
+    private int position = 0;
+
+    MappedAsciiInput(ByteBuffer bytes)
+    {
+        this.bytes = requireNonNull(bytes);
+    }
+
+    public static MappedAsciiInput map(Path file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File is too large to be mapped: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            return new MappedAsciiInput(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Advances to the next line.
+     *
+     * @return false if there are no more lines
+     */
+    public boolean nextLine()
+    {
+        int limit = bytes.limit();
+        if (position >= limit) {
+            return false;
+        }
+        int end = position;
+        while (end < limit && bytes.get(end) != '\n' && bytes.get(end) != '\r') {
+            end++;
+        }
+        line.start = position;
+        line.length = end - position;
+        lineNumber++;
+
+        if (end < limit) {
+            boolean crlf = bytes.get(end) == '\r' && end + 1 < limit && bytes.get(end + 1) == '\n';
+            end += crlf ? 2 : 1;
+        }
+        position = end;
+        return true;
+    }
+
+    /**
+     * The zero based number of the current line.
+     */
+    public int lineNumber()
+    {
+        return lineNumber;
+    }
+
+    /**
+     * The current line. The returned view is reused for the next line.
+     */
+    public CharSequence line()
+    {
+        return line;
+    }
+
+    private final class Line
+            implements CharSequence
+    {
+        private int start;
+        private int length;
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index)
+        {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return (char) (bytes.get(start + index) & 0xFF);
+        }
+
+        /**
+         * Other than the line itself, the returned sequence is a String and
+         * can be kept.
+         */
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (bytes.get(this.start + start + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String toString()
+        {
+            return (String) subSequence(0, length);
+        }
+    }
+}
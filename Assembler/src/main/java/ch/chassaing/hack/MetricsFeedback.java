@@ -0,0 +1,154 @@
+package ch.chassaing.hack;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Passes all messages on to another {@link Feedback} and collects the
+ * counters and phase timings of a run. Errors reported for a line are
+ * counted as {@link Counter#ERRORS}, labels as {@link Counter#LABELS_DEFINED}. At the end of the run the collected
+ * data can be written as JSON with {@link #toJson(String, int)}.
+ * <p>
+ * NOT threadsafe
+ */
+final class MetricsFeedback
+        implements Feedback
+{
+    private final Feedback delegate;
+    private final long startNanos = System.nanoTime();
+
+    private final Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+    /** in the order the phases were first reported */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    MetricsFeedback(Feedback delegate)
+    {
+        this.delegate = requireNonNull(delegate);
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, 0L);
+        }
+    }
+
+    @Override
+    public void onDebug(String text)
+    {
+        delegate.onDebug(text);
+    }
+
+    @Override
+    public void onInfo(String text)
+    {
+        delegate.onInfo(text);
+    }
+
+    @Override
+    public void onError(String text)
+    {
+        delegate.onError(text);
+    }
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled()
+    {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled()
+    {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override
+    public void onLineError(int lineNumber, String line, String details)
+    {
+        onCount(Counter.ERRORS, 1);
+        delegate.onLineError(lineNumber, line, details);
+    }
+
+    @Override
+    public void onCount(Counter counter, long amount)
+    {
+        counters.merge(counter, amount, Long::sum);
+        delegate.onCount(counter, amount);
+    }
+
+    @Override
+    public void onPhase(String phase, long nanos)
+    {
+        phases.merge(phase, nanos, Long::sum);
+        delegate.onPhase(phase, nanos);
+    }
+
+    @Override
+    public void onInstruction(int address, int lineNumber)
+    {
+        delegate.onInstruction(address, lineNumber);
+    }
+
+    @Override
+    public void onLabel(String label, int address)
+    {
+        onCount(Counter.LABELS_DEFINED, 1);
+        delegate.onLabel(label, address);
+    }
+
+    /**
+     * The summary of the run, all times in nanoseconds:
+     * <pre>
+     * {"file":"Pong.asm","exitCode":0,"totalNanos":1234,
+     *  "counters":{"linesParsed":28374,...},
+     *  "phaseNanos":{"read":123,"parse":456,...}}
+     * </pre>
+     */
+    String toJson(String file,
+                  int exitCode)
+    {
+        StringBuilder json = new StringBuilder(256).append('{');
+        appendString(json, "file").append(':');
+        appendString(json, file);
+        json.append(",\"exitCode\":").append(exitCode)
+            .append(",\"totalNanos\":").append(System.nanoTime() - startNanos)
+            .append(",\"counters\":{");
+        String separator = "";
+        for (Map.Entry<Counter, Long> counter : counters.entrySet()) {
+            json.append(separator);
+            appendString(json, counter.getKey().key).append(':').append(counter.getValue());
+            separator = ",";
+        }
+        json.append("},\"phaseNanos\":{");
+        separator = "";
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            json.append(separator);
+            appendString(json, phase.getKey()).append(':').append(phase.getValue());
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder json,
+                                              String value)
+    {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,19 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.Expression;
+import io.vavr.collection.Seq;
+
+/**
+ * A pass over the parsed program that runs before the labels get their
+ * addresses. It may remove or replace instructions, but must keep the
+ * behaviour of the program.
+ */
+public interface Optimizer
+{
+    /**
+     * @param expressions the parsed program, without {@link ch.chassaing.hack.expression.MalformedExpression}s
+     * @return the optimized program
+     */
+    Seq<Expression> optimize(Seq<Expression> expressions,
+                             Feedback feedback);
+}
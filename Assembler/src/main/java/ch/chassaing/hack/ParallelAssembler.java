@@ -0,0 +1,239 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.Expression;
+import ch.chassaing.hack.expression.Instruction;
+import ch.chassaing.hack.expression.Label;
+import ch.chassaing.hack.expression.MalformedExpression;
+import ch.chassaing.hack.expression.Symbol;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An {@link Assembler} that parses and encodes chunks of lines in parallel
+ * on a {@link ForkJoinPool}. The output is identical to the one of
+ * {@link HackAssembler}:
+ * <ol>
+ *     <li>The chunks are parsed in parallel, every chunk counts its instructions.</li>
+ *     <li>The start address of every chunk is the prefix sum of the instruction
+ *     counts of the chunks before it. With it the labels are put into the
+ *     symbol table in source order.</li>
+ *     <li>Variables are allocated in the order of their first use, chunk by chunk.</li>
+ *     <li>The chunks are encoded in parallel, each into its own range of the
+ *     ROM image. The symbol table is only read in this step.</li>
+ * </ol>
+ */
+public final class ParallelAssembler
+        implements Assembler
+{
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private final Parser parser;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * @param parser must be threadsafe
+     * @param chunkSize the number of lines per chunk
+     */
+    public ParallelAssembler(Parser parser,
+                             ForkJoinPool pool,
+                             int chunkSize)
+    {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.parser = requireNonNull(parser);
+        this.pool = requireNonNull(pool);
+        this.chunkSize = chunkSize;
+    }
+
+    public ParallelAssembler(Parser parser)
+    {
+        this(parser, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    @Override
+    public boolean transform(Seq<String> lines,
+                             OutputStream machineCodeOutput,
+                             Feedback feedback,
+                             boolean ascii)
+            throws IOException
+    {
+        long start = System.nanoTime();
+        String[] lineArray = lines.toJavaArray(String[]::new);
+        Chunk[] chunks = new Chunk[(lineArray.length + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(i * chunkSize, Math.min(lineArray.length, (i + 1) * chunkSize));
+        }
+
+        forEachChunk(chunks.length, i -> chunks[i].parse(lineArray, parser));
+        feedback.onCount(Feedback.Counter.LINES_PARSED, lineArray.length);
+        start = feedback.endPhase("parse", start);
+
+        // labels and errors in source order
+        SymbolTable symbolTable = new SymbolTableImpl(feedback);
+        boolean hasErrors = false;
+        int address = 0;
+        for (Chunk chunk : chunks) {
+            chunk.base = address;
+            for (Positioned positioned : chunk.labelsAndErrors) {
+                Expression expression = positioned.expression();
+                if (expression instanceof MalformedExpression malformed) {
+                    hasErrors = true;
+                    feedback.onLineError(malformed.lineNumber, malformed.line, malformed.details);
+                } else if (expression instanceof Label label) {
+                    if (symbolTable.hasSymbol(label.value)) {
+                        hasErrors = true;
+                        feedback.onLineError(label.lineNumber, label.line, "Duplicate label");
+                    } else {
+                        symbolTable.putAddress(label.value, chunk.base + positioned.offset());
+                        feedback.onLabel(label.value, chunk.base + positioned.offset());
+                    }
+                }
+            }
+            address += chunk.instructionCount;
+        }
+        start = feedback.endPhase("labels", start);
+
+        if (hasErrors) {
+            return false;
+        }
+
+        // variables in the order of their first use
+        for (Chunk chunk : chunks) {
+            for (String symbol : chunk.symbols) {
+                symbolTable.symbolAddress(symbol);
+            }
+        }
+        start = feedback.endPhase("variables", start);
+
+        short[] words = new short[address];
+        forEachChunk(chunks.length, i -> chunks[i].encode(words, symbolTable));
+        for (Chunk chunk : chunks) {
+            chunk.reportInstructions(feedback);
+        }
+        feedback.onCount(Feedback.Counter.INSTRUCTIONS_EMITTED, words.length);
+        start = feedback.endPhase("encode", start);
+
+        RomImage.of(words).writeTo(machineCodeOutput, ascii);
+        machineCodeOutput.flush();
+        feedback.endPhase("write", start);
+
+        return true;
+    }
+
+    private void forEachChunk(int count, IntConsumer action)
+    {
+        pool.invoke(new ChunkAction(0, count, action));
+    }
+
+    /**
+     * Splits the range of chunks in halves until only one chunk is left.
+     */
+    private static final class ChunkAction
+            extends RecursiveAction
+    {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        private ChunkAction(int from, int to, IntConsumer action)
+        {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= 1) {
+                if (from < to) {
+                    action.accept(from);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkAction(from, middle, action),
+                          new ChunkAction(middle, to, action));
+            }
+        }
+    }
+
+    /**
+     * An expression together with the number of instructions in its
+     * chunk before it.
+     */
+    private record Positioned(Expression expression, int offset) {}
+
+    private static final class Chunk
+    {
+        private final int firstLine;
+        private final int endLine;
+
+        private final List<Instruction> instructions = new ArrayList<>();
+        private final List<Positioned> labelsAndErrors = new ArrayList<>();
+        /** the referenced symbols in the order of their first use */
+        private final Set<String> symbols = new LinkedHashSet<>();
+
+        private int instructionCount = 0;
+        private int base = 0;
+
+        private Chunk(int firstLine, int endLine)
+        {
+            this.firstLine = firstLine;
+            this.endLine = endLine;
+        }
+
+        private void parse(String[] lines, Parser parser)
+        {
+            for (int i = firstLine; i < endLine; i++) {
+                Option<Expression> parsed = parser.parseLine(i, lines[i]);
+                if (parsed.isEmpty()) {
+                    continue;
+                }
+                Expression expression = parsed.get();
+                if (expression instanceof Label || expression instanceof MalformedExpression) {
+                    labelsAndErrors.add(new Positioned(expression, instructionCount));
+                } else if (expression instanceof Instruction instruction) {
+                    if (instruction instanceof Symbol symbol) {
+                        symbols.add(symbol.chars);
+                    }
+                    instructions.add(instruction);
+                    instructionCount++;
+                }
+            }
+        }
+
+        private void encode(short[] words, SymbolTable symbolTable)
+        {
+            int address = base;
+            for (Instruction instruction : instructions) {
+                words[address++] = (short) instruction.toWord(symbolTable);
+            }
+        }
+
+        private void reportInstructions(Feedback feedback)
+        {
+            int address = base;
+            for (Instruction instruction : instructions) {
+                feedback.onInstruction(address++, instruction.lineNumber);
+            }
+        }
+    }
+}
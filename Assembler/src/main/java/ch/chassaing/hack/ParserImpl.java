@@ -140,8 +140,11 @@ public final class ParserImpl
 
     private Either<String, Destination> getDestination(String line)
     {
+        if (!line.contains("=")) {
+            return Either.right(Destination.NONE);
+        }
         for (Destination dest : Destination.values()) {
-            if (dest.match.test(line)) {
+            if (dest != Destination.NONE && line.startsWith(dest.name() + "=")) {
                 return Either.right(dest);
             }
         }
@@ -151,8 +154,11 @@ public final class ParserImpl
 
     private Either<String, Jump> getJump(String line)
     {
+        if (!line.contains(";")) {
+            return Either.right(Jump.NONE);
+        }
         for (Jump jump : Jump.values()) {
-            if (jump.matches.test(line)) {
+            if (jump != Jump.NONE && line.endsWith(";" + jump.name())) {
                 return Either.right(jump);
             }
         }
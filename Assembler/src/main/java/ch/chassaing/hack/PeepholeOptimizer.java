@@ -0,0 +1,220 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.*;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+
+import java.util.ArrayList;
+
+/**
+ * Removes instructions that have no effect, like the reload of the
+ * A register with the value it already holds or {@code M=M+1} directly
+ * followed by {@code M=M-1}. The rules only look at one basic block at a
+ * time. A block ends before every label and after every jump, so nothing
+ * is known about the registers at its start.
+ * <p>
+ * Programs that jump to numeric ROM addresses are returned unchanged,
+ * see {@link ControlFlow#jumpsToNumericAddress(Iterable)}. Variables may get other
+ * addresses than without optimization, because they are allocated in the
+ * order of their first use and a removed load might have been the first.
+ */
+public final class PeepholeOptimizer
+        implements Optimizer
+{
+    /**
+     * A rewrite of the instructions at and after an index of a block.
+     */
+    enum Rule
+    {
+        /** @X when A already holds X */
+        REDUNDANT_LOAD {
+            @Override
+            int apply(java.util.List<Instruction> block, int index)
+            {
+                if (!(block.get(index) instanceof Address load)) {
+                    return 0;
+                }
+                for (int i = index - 1; i >= 0; i--) {
+                    Instruction previous = block.get(i);
+                    if (previous instanceof Address previousLoad) {
+                        return sameAddress(previousLoad, load) ? remove(block, index, 1) : 0;
+                    }
+                    if (((CInstruction) previous).dest.storesA()) {
+                        return 0;
+                    }
+                }
+                return 0;
+            }
+        },
+        /** @X directly followed by @Y, the value of X is never used */
+        DEAD_LOAD {
+            @Override
+            int apply(java.util.List<Instruction> block, int index)
+            {
+                return index + 1 < block.size()
+                       && block.get(index) instanceof Address
+                       && block.get(index + 1) instanceof Address
+                       ? remove(block, index, 1)
+                       : 0;
+            }
+        },
+        /** D=D, A=A and M=M */
+        SELF_ASSIGNMENT {
+            @Override
+            int apply(java.util.List<Instruction> block, int index)
+            {
+                if (!(block.get(index) instanceof CInstruction c) || c.jump != Jump.NONE) {
+                    return 0;
+                }
+                boolean noOp = (c.dest == Destination.D && c.comp == Computation.D)
+                               || (c.dest == Destination.A && c.comp == Computation.A)
+                               || (c.dest == Destination.M && c.comp == Computation.M);
+                return noOp ? remove(block, index, 1) : 0;
+            }
+        },
+        /** the same computation twice, when it does not read what it writes, e.g. D=M / D=M */
+        DUPLICATE {
+            @Override
+            int apply(java.util.List<Instruction> block, int index)
+            {
+                if (index + 1 >= block.size()
+                    || !(block.get(index) instanceof CInstruction first)
+                    || !(block.get(index + 1) instanceof CInstruction second)
+                    || first.jump != Jump.NONE
+                    || second.jump != Jump.NONE
+                    || first.dest != second.dest
+                    || first.comp != second.comp) {
+                    return 0;
+                }
+                Destination dest = first.dest;
+                Computation comp = first.comp;
+                boolean idempotent = !dest.storesA()
+                                     && !(dest.storesD() && comp.readsD())
+                                     && !(dest.storesM() && comp.readsM());
+                return idempotent ? remove(block, index + 1, 1) : 0;
+            }
+        },
+        /** X=X+1 directly followed by X=X-1 or the other way round */
+        INCREMENT_DECREMENT {
+            @Override
+            int apply(java.util.List<Instruction> block, int index)
+            {
+                if (index + 1 >= block.size()
+                    || !(block.get(index) instanceof CInstruction first)
+                    || !(block.get(index + 1) instanceof CInstruction second)
+                    || first.jump != Jump.NONE
+                    || second.jump != Jump.NONE
+                    || first.dest != second.dest) {
+                    return 0;
+                }
+                Computation plus;
+                Computation minus;
+                switch (first.dest) {
+                    case D -> {
+                        plus = Computation.D_PLUS_ONE;
+                        minus = Computation.D_MINUS_ONE;
+                    }
+                    case A -> {
+                        plus = Computation.A_PLUS_ONE;
+                        minus = Computation.A_MINUS_ONE;
+                    }
+                    case M -> {
+                        plus = Computation.M_PLUS_ONE;
+                        minus = Computation.M_MINUS_ONE;
+                    }
+                    default -> {
+                        return 0;
+                    }
+                }
+                boolean cancels = (first.comp == plus && second.comp == minus)
+                                  || (first.comp == minus && second.comp == plus);
+                return cancels ? remove(block, index, 2) : 0;
+            }
+        };
+
+        /**
+         * Rewrites the block if the rule matches at the index.
+         *
+         * @return the number of removed instructions
+         */
+        abstract int apply(java.util.List<Instruction> block, int index);
+
+        private static int remove(java.util.List<Instruction> block, int index, int count)
+        {
+            block.subList(index, index + count).clear();
+            return count;
+        }
+
+        private static boolean sameAddress(Address a, Address b)
+        {
+            if (a instanceof Constant ca && b instanceof Constant cb) {
+                return ca.value == cb.value;
+            }
+            return a instanceof Symbol sa && b instanceof Symbol sb && sa.chars.equals(sb.chars);
+        }
+    }
+
+    @Override
+    public Seq<Expression> optimize(Seq<Expression> expressions,
+                                    Feedback feedback)
+    {
+        if (ControlFlow.jumpsToNumericAddress(expressions)) {
+            feedback.onInfo("Peephole optimization skipped, the program jumps to numeric addresses");
+            return expressions;
+        }
+
+        int[] removedByRule = new int[Rule.values().length];
+        java.util.List<Expression> optimized = new ArrayList<>(expressions.size());
+        java.util.List<Instruction> block = new ArrayList<>();
+        for (Expression expression : expressions) {
+            if (expression instanceof Instruction instruction) {
+                block.add(instruction);
+                if (instruction instanceof CInstruction c && c.jump != Jump.NONE) {
+                    optimizeBlock(block, removedByRule);
+                    optimized.addAll(block);
+                    block.clear();
+                }
+            } else {
+                optimizeBlock(block, removedByRule);
+                optimized.addAll(block);
+                block.clear();
+                optimized.add(expression);
+            }
+        }
+        optimizeBlock(block, removedByRule);
+        optimized.addAll(block);
+
+        int removed = 0;
+        for (Rule rule : Rule.values()) {
+            removed += removedByRule[rule.ordinal()];
+            if (feedback.isDebugEnabled()) {
+                feedback.onDebug(rule + " removed " + removedByRule[rule.ordinal()] + " instructions");
+            }
+        }
+        feedback.onCount(Feedback.Counter.INSTRUCTIONS_REMOVED, removed);
+        feedback.onInfo("Peephole optimization removed " + removed + " instructions");
+        return List.ofAll(optimized);
+    }
+
+    /**
+     * Applies the rules until none matches anymore.
+     */
+    private static void optimizeBlock(java.util.List<Instruction> block,
+                                      int[] removedByRule)
+    {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < block.size(); i++) {
+                for (Rule rule : Rule.values()) {
+                    int removed = rule.apply(block, i);
+                    if (removed > 0) {
+                        removedByRule[rule.ordinal()] += removed;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package ch.chassaing.hack;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The encoded instructions of a program, one 16 bit word per ROM address.
+ * The image is written with a single bulk write, either as binary words
+ * or as lines of '0' and '1' characters.
+ * <p>
+ * NOT threadsafe
+ */
+public final class RomImage
+{
+    /** Number of words in the ROM of the Hack computer */
+    public static final int ROM_SIZE = 32768;
+
+    /** The binary format stores the low byte first */
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int ASCII_DIGITS = 16;
+
+    private short[] words;
+    private int size = 0;
+
+    public RomImage()
+    {
+        this(ROM_SIZE);
+    }
+
+    public RomImage(int capacity)
+    {
+        words = new short[capacity];
+    }
+
+    /**
+     * Creates an image that uses the given words, without copying them.
+     */
+    public static RomImage of(short[] words)
+    {
+        RomImage rom = new RomImage(0);
+        rom.words = words;
+        rom.size = words.length;
+        return rom;
+    }
+
+    /**
+     * Reads a file written by {@link #writeTo(OutputStream, boolean)}. The
+     * format is detected from the content: a file of only '0', '1' and line
+     * separators is read as ASCII, everything else as binary.
+     */
+    public static RomImage read(Path file)
+            throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file);
+        return isAscii(bytes) ? fromAscii(bytes, file) : fromBinary(bytes, file);
+    }
+
+    private static boolean isAscii(byte[] bytes)
+    {
+        for (byte b : bytes) {
+            if (b != '0' && b != '1' && b != '\n' && b != '\r') {
+                return false;
+            }
+        }
+        return bytes.length > 0;
+    }
+
+    private static RomImage fromAscii(byte[] bytes, Path file)
+            throws IOException
+    {
+        RomImage rom = new RomImage(bytes.length / (ASCII_DIGITS + 1) + 1);
+        int word = 0;
+        int digits = 0;
+        // the end of the file ends the last line, too
+        for (int i = 0; i <= bytes.length; i++) {
+            byte b = i < bytes.length ? bytes[i] : (byte) '\n';
+            if (b == '0' || b == '1') {
+                word = word << 1 | (b - '0');
+                digits++;
+            } else if (digits != 0) {
+                if (digits != ASCII_DIGITS) {
+                    throw new IOException(file + ": line " + rom.size() + " does not have " + ASCII_DIGITS + " digits");
+                }
+                rom.add(word);
+                word = 0;
+                digits = 0;
+            }
+        }
+        return rom;
+    }
+
+    private static RomImage fromBinary(byte[] bytes, Path file)
+            throws IOException
+    {
+        if (bytes.length % Short.BYTES != 0) {
+            throw new IOException(file + ": odd number of bytes");
+        }
+        short[] words = new short[bytes.length / Short.BYTES];
+        ByteBuffer.wrap(bytes).order(BYTE_ORDER).asShortBuffer().get(words);
+        return of(words);
+    }
+
+    /**
+     * Appends the word and returns its address.
+     */
+    public int add(int word)
+    {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, Math.max(16, size * 2));
+        }
+        words[size] = (short) word;
+        return size++;
+    }
+
+    public void set(int address, int word)
+    {
+        if (address >= size) {
+            throw new IndexOutOfBoundsException(address);
+        }
+        words[address] = (short) word;
+    }
+
+    public int get(int address)
+    {
+        if (address >= size) {
+            throw new IndexOutOfBoundsException(address);
+        }
+        return words[address] & 0xFFFF;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void writeTo(OutputStream out,
+                        boolean ascii)
+            throws IOException
+    {
+        ByteBuffer buffer = ascii ? toAscii() : toBinary();
+        // a FileOutputStream is written through its channel directly,
+        // other streams receive the whole buffer in one write()
+        WritableByteChannel channel = out instanceof FileOutputStream fos
+                                      ? fos.getChannel()
+                                      : Channels.newChannel(out);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private ByteBuffer toBinary()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(size * Short.BYTES).order(BYTE_ORDER);
+        buffer.asShortBuffer().put(words, 0, size);
+        return buffer;
+    }
+
+    private ByteBuffer toAscii()
+    {
+        byte[] separator = System.lineSeparator().getBytes(HackAssembler.ENCODING);
+        int lineLength = ASCII_DIGITS + separator.length;
+        byte[] bytes = new byte[size * lineLength];
+        int pos = 0;
+        for (int i = 0; i < size; i++) {
+            int word = words[i];
+            for (int bit = ASCII_DIGITS - 1; bit >= 0; bit--) {
+                bytes[pos++] = (byte) ('0' + (word >>> bit & 1));
+            }
+            for (byte b : separator) {
+                bytes[pos++] = b;
+            }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+}
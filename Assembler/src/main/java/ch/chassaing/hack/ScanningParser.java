@@ -0,0 +1,314 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.*;
+import io.vavr.control.Option;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A {@link Parser} that scans the line character by character. Instead of
+ * creating trimmed copies and substrings it works with offsets into the
+ * original line, so only the resulting {@link Expression} (and the name of
+ * a symbol or label) is allocated. Produces the same results and error
+ * messages as {@link ParserImpl}. The mnemonics are looked up in the
+ * tables of {@link Destination}, {@link Computation} and {@link Jump}.
+ * <p>
+ * The scanner itself works on any {@link CharSequence} and reports what it
+ * found to a {@link Handler}, see {@link #scan(int, CharSequence, Handler)}.
+ */
+public final class ScanningParser
+        implements Parser
+{
+    private static final int MAX_ADDRESS = (1 << ParserImpl.MAX_ADDRESS_BITS) - 1;
+
+    /**
+     * Receives the parts of a scanned line. All offsets point into the
+     * scanned line. lineEnd is the end of the line without the comment,
+     * i.e. the part of the line which is reported in errors.
+     * <p>
+     * The line may be a view that is reused for the next line, so it must not
+     * be kept after the method returns.
+     */
+    public interface Handler<T>
+    {
+        T onConstant(int lineNumber, CharSequence line, int lineEnd, int value);
+
+        T onSymbol(int lineNumber, CharSequence line, int lineEnd, int start, int end);
+
+        T onLabel(int lineNumber, CharSequence line, int lineEnd, int start, int end);
+
+        T onCInstruction(int lineNumber, CharSequence line, int lineEnd,
+                         Destination dest, Computation comp, Jump jump);
+
+        T onMalformed(int lineNumber, CharSequence line, int lineEnd, String details);
+    }
+
+    /**
+     * Creates the same expressions as {@link ParserImpl}.
+     */
+    private static final Handler<Expression> EXPRESSIONS = new Handler<>()
+    {
+        @Override
+        public Expression onConstant(int lineNumber, CharSequence line, int lineEnd, int value)
+        {
+            return new Constant(lineNumber, cut(line, lineEnd), value);
+        }
+
+        @Override
+        public Expression onSymbol(int lineNumber, CharSequence line, int lineEnd, int start, int end)
+        {
+            return new Symbol(lineNumber, cut(line, lineEnd), line.subSequence(start, end).toString());
+        }
+
+        @Override
+        public Expression onLabel(int lineNumber, CharSequence line, int lineEnd, int start, int end)
+        {
+            return new Label(lineNumber, cut(line, lineEnd), line.subSequence(start, end).toString());
+        }
+
+        @Override
+        public Expression onCInstruction(int lineNumber, CharSequence line, int lineEnd,
+                                         Destination dest, Computation comp, Jump jump)
+        {
+            return new CInstruction(lineNumber, cut(line, lineEnd), dest, comp, jump);
+        }
+
+        @Override
+        public Expression onMalformed(int lineNumber, CharSequence line, int lineEnd, String details)
+        {
+            return new MalformedExpression(lineNumber, cut(line, lineEnd), details);
+        }
+    };
+
+    @Override
+    public Option<Expression> parseLine(int lineNumber,
+                                        String line)
+    {
+        return Option.of(scan(lineNumber, requireNonNull(line), EXPRESSIONS));
+    }
+
+    /**
+     * Scans the line and passes the result to the handler.
+     *
+     * @return the value of the handler or null if the line is empty or a comment
+     */
+    public static <T> T scan(int lineNumber,
+                             CharSequence line,
+                             Handler<T> handler)
+    {
+        int comment = indexOfComment(line);
+        if (comment == 0) {
+            return null;
+        }
+        // the line as it will be reported, i.e. without the comment
+        int lineEnd = comment > 0 ? comment : line.length();
+
+        int start = 0;
+        int end = lineEnd;
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (isBlank(line, start, end)) {
+            return null;
+        }
+
+        return switch (line.charAt(start)) {
+            case '@' -> scanAInstruction(lineNumber, line, lineEnd, start + 1, end, handler);
+            case '(' -> scanLInstruction(lineNumber, line, lineEnd, start + 1, end, handler);
+            default -> scanCInstruction(lineNumber, line, lineEnd, start, end, handler);
+        };
+    }
+
+    private static <T> T scanAInstruction(int lineNumber,
+                                          CharSequence line,
+                                          int lineEnd,
+                                          int start,
+                                          int end,
+                                          Handler<T> handler)
+    {
+        if (isNumeric(line, start, end)) {
+            int value = 0;
+            for (int i = start; i < end && value <= MAX_ADDRESS; i++) {
+                value = value * 10 + Character.digit(line.charAt(i), 10);
+            }
+            if (value > MAX_ADDRESS) {
+                return handler.onMalformed(lineNumber, line, lineEnd,
+                                           "Only values from 0 to 32767 are allowed");
+            }
+            return handler.onConstant(lineNumber, line, lineEnd, value);
+        }
+
+        if (!isSymbol(line, start, end)) {
+            return handler.onMalformed(lineNumber, line, lineEnd,
+                                       "Symbols must not start with a digit");
+        }
+        return handler.onSymbol(lineNumber, line, lineEnd, start, end);
+    }
+
+    private static <T> T scanLInstruction(int lineNumber,
+                                          CharSequence line,
+                                          int lineEnd,
+                                          int start,
+                                          int end,
+                                          Handler<T> handler)
+    {
+        // like ParserImpl, the closing parenthesis must be the last character
+        // before the comment, even whitespace is not allowed
+        if (line.charAt(lineEnd - 1) != ')') {
+            return handler.onMalformed(lineNumber, line, lineEnd,
+                                       "Malformed loop expression");
+        }
+
+        return handler.onLabel(lineNumber, line, lineEnd, start, end - 1);
+    }
+
+    private static <T> T scanCInstruction(int lineNumber,
+                                          CharSequence line,
+                                          int lineEnd,
+                                          int start,
+                                          int end,
+                                          Handler<T> handler)
+    {
+        // find the spans of ddd=ccc;jjj
+        // but ddd= and ;jjj are both optional
+        int equals = -1;
+        int semicolon = -1;
+        for (int i = start; i < end && (equals == -1 || semicolon == -1); i++) {
+            char c = line.charAt(i);
+            if (c == '=' && equals == -1) {
+                equals = i;
+            } else if (c == ';' && semicolon == -1) {
+                semicolon = i;
+            }
+        }
+        if (equals == -1 && semicolon == -1) {
+            return handler.onMalformed(lineNumber, line, lineEnd,
+                                       "Line contains neither destination nor jump");
+        }
+
+        Destination dest = equals == -1
+                           ? Destination.NONE
+                           : Destination.fromMnemonic(line, start, equals);
+        Computation comp = Computation.fromMnemonic(line,
+                                                    equals == -1 ? start : equals + 1,
+                                                    semicolon == -1 ? end : semicolon);
+        Jump jump = semicolon == -1
+                    ? Jump.NONE
+                    : findJump(line, start, end);
+
+        if (dest == null || comp == null || jump == null) {
+            StringBuilder errors = new StringBuilder();
+            appendError(errors, dest == null, "Cannot determine destination");
+            appendError(errors, comp == null, "Cannot determine computation");
+            appendError(errors, jump == null, "Malformed jump part");
+            return handler.onMalformed(lineNumber, line, lineEnd, errors.toString());
+        }
+
+        return handler.onCInstruction(lineNumber, line, lineEnd, dest, comp, jump);
+    }
+
+    /**
+     * The jump is always the suffix ";Jxx" of the instruction.
+     */
+    private static Jump findJump(CharSequence line,
+                                 int start,
+                                 int end)
+    {
+        if (end - start < 4 || line.charAt(end - 4) != ';') {
+            return null;
+        }
+        return Jump.fromMnemonic(line, end - 3, end);
+    }
+
+    private static void appendError(StringBuilder errors,
+                                    boolean isError,
+                                    String error)
+    {
+        if (isError) {
+            if (!errors.isEmpty()) {
+                errors.append(" & ");
+            }
+            errors.append(error);
+        }
+    }
+
+    private static int indexOfComment(CharSequence line)
+    {
+        if (line instanceof String s) {
+            return s.indexOf("//");
+        }
+        for (int i = 0; i < line.length() - 1; i++) {
+            if (line.charAt(i) == '/' && line.charAt(i + 1) == '/') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBlank(CharSequence line,
+                                   int start,
+                                   int end)
+    {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNumeric(CharSequence line,
+                                     int start,
+                                     int end)
+    {
+        if (start == end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (!Character.isDigit(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same character classes as {@link ParserImpl#SYMBOL_PATTERN}.
+     */
+    private static boolean isSymbol(CharSequence line,
+                                    int start,
+                                    int end)
+    {
+        if (start == end || !isSymbolStart(line.charAt(start))) {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            char c = line.charAt(i);
+            if (!isSymbolStart(c) && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSymbolStart(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'z')
+               || c == '_' || c == '.' || c == '$' || c == ':';
+    }
+
+    /**
+     * The reported part of the line as a String.
+     */
+    static String cut(CharSequence line,
+                      int lineEnd)
+    {
+        if (line instanceof String s && lineEnd == s.length()) {
+            return s;
+        }
+        return line.subSequence(0, lineEnd).toString();
+    }
+}
@@ -0,0 +1,108 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.stream.Stream;
+
+/**
+ * Turns the file arguments of the command line into the list of assembly
+ * files. An argument can be
+ * <ul>
+ *     <li>an .asm file,</li>
+ *     <li>a directory, all .asm files in it and its subdirectories are taken, or</li>
+ *     <li>a glob like {@code 06/*}{@code /*.asm} or {@code 06/**.asm}, for shells that
+ *     do not expand it or when it is quoted.</li>
+ * </ul>
+ */
+final class SourceFiles
+{
+    private static final String EXTENSION = ".asm";
+    private static final String GLOB_CHARS = "*?[{";
+
+    private SourceFiles() { /* dont instantiate */ }
+
+    /**
+     * @return the files in the order of the arguments, directories and globs sorted by name
+     * @throws IllegalArgumentException if an argument is not an .asm file or matches no files
+     */
+    static Seq<Path> expand(Seq<String> args)
+            throws IOException
+    {
+        List<Path> files = List.empty();
+        for (String arg : args) {
+            Seq<Path> expanded;
+            if (isGlob(arg)) {
+                expanded = glob(arg);
+            } else if (Files.isDirectory(Path.of(arg))) {
+                expanded = walk(Path.of(arg), Integer.MAX_VALUE, path -> true);
+            } else if (arg.endsWith(EXTENSION)) {
+                expanded = List.of(Path.of(arg));
+            } else {
+                throw new IllegalArgumentException("Filename must have an .asm ending: " + arg);
+            }
+            if (expanded.isEmpty()) {
+                throw new IllegalArgumentException("No .asm files found for " + arg);
+            }
+            files = files.appendAll(expanded);
+        }
+        return files.distinct();
+    }
+
+    private static boolean isGlob(String arg)
+    {
+        for (int i = 0; i < arg.length(); i++) {
+            if (GLOB_CHARS.indexOf(arg.charAt(i)) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Walks the directory before the first name with a glob character and
+     * matches the complete paths against the glob.
+     */
+    private static Seq<Path> glob(String arg)
+            throws IOException
+    {
+        Path pattern = Path.of(arg);
+        Path base = pattern.getRoot();
+        int depth = 0;
+        for (int i = 0; i < pattern.getNameCount(); i++) {
+            String name = pattern.getName(i).toString();
+            if (isGlob(name)) {
+                depth = arg.contains("**") ? Integer.MAX_VALUE : pattern.getNameCount() - i;
+                break;
+            }
+            base = base == null ? Path.of(name) : base.resolve(name);
+        }
+        if (base == null) {
+            base = Path.of("");
+        }
+        if (!Files.isDirectory(base)) {
+            return List.empty();
+        }
+
+        PathMatcher matcher = base.getFileSystem().getPathMatcher("glob:" + arg);
+        return walk(base, depth, matcher);
+    }
+
+    private static Seq<Path> walk(Path directory,
+                                  int depth,
+                                  PathMatcher matcher)
+            throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory, depth)) {
+            return List.ofAll(paths
+                                      .filter(path -> path.toString().endsWith(EXTENSION))
+                                      .filter(Files::isRegularFile)
+                                      .filter(matcher::matches)
+                                      .sorted());
+        }
+    }
+}
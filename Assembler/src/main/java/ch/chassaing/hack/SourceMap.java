@@ -0,0 +1,305 @@
+package ch.chassaing.hack;
+
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Maps every ROM address of an assembled program to the (zero based) number
+ * of its source line and to the nearest label at or before it. It is
+ * written next to the .hack file as a .hackmap file, see {@link Builder}.
+ * <p>
+ * The file is read through a memory mapping, every lookup is O(1):
+ * the addresses are grouped into blocks of 2<sup>blockShift</sup>
+ * addresses. For every block the smallest line number and label index are
+ * stored as int, for every address the difference to these as unsigned
+ * 16 bit value.
+ * <p>
+ * File layout, all numbers in {@link RomImage#BYTE_ORDER}:
+ * <pre>
+ * int     magic "HSM1", romSize, blockShift, labelCount
+ * int     lineAnchors[blocks], labelAnchors[blocks]
+ * short   lineDeltas[romSize], labelDeltas[romSize], padded to a multiple of 4 bytes
+ * int     labelAddresses[labelCount], nameOffsets[labelCount + 1]
+ * byte    names of the labels in US-ASCII
+ * </pre>
+ * The label index is stored plus one, 0 means that there is no label before
+ * the address.
+ */
+public final class SourceMap
+{
+    public static final String EXTENSION = ".hackmap";
+
+    private static final int MAGIC = 'H' | 'S' << 8 | 'M' << 16 | '1' << 24;
+    private static final int HEADER_INTS = 4;
+    private static final int MAX_BLOCK_SHIFT = 8;
+    private static final int MAX_DELTA = 0xFFFF;
+
+    private final ByteBuffer buffer;
+    private final int romSize;
+    private final int blockShift;
+    private final int labelCount;
+    private final int lineAnchors;
+    private final int labelAnchors;
+    private final int lineDeltas;
+    private final int labelDeltas;
+    private final int labelAddresses;
+    private final int nameOffsets;
+    private final int names;
+
+    SourceMap(ByteBuffer buffer)
+            throws IOException
+    {
+        this.buffer = requireNonNull(buffer).order(RomImage.BYTE_ORDER);
+        if (buffer.limit() < HEADER_INTS * Integer.BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a source map");
+        }
+        romSize = buffer.getInt(4);
+        blockShift = buffer.getInt(8);
+        labelCount = buffer.getInt(12);
+        int blocks = blocks(romSize, blockShift);
+        lineAnchors = HEADER_INTS * Integer.BYTES;
+        labelAnchors = lineAnchors + blocks * Integer.BYTES;
+        lineDeltas = labelAnchors + blocks * Integer.BYTES;
+        labelDeltas = lineDeltas + romSize * Short.BYTES;
+        labelAddresses = align(labelDeltas + romSize * Short.BYTES);
+        nameOffsets = labelAddresses + labelCount * Integer.BYTES;
+        names = nameOffsets + (labelCount + 1) * Integer.BYTES;
+        if (names > buffer.limit()
+            || names + buffer.getInt(nameOffsets + labelCount * Integer.BYTES) > buffer.limit()) {
+            throw new IOException("Source map is truncated");
+        }
+    }
+
+    /**
+     * Maps the file read-only.
+     */
+    public static SourceMap map(Path file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new SourceMap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * The source map of the .hack file, if there is one next to it.
+     */
+    public static Option<SourceMap> forHackFile(Path hackFile)
+            throws IOException
+    {
+        String name = hackFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        Path file = hackFile.resolveSibling((dot == -1 ? name : name.substring(0, dot)) + EXTENSION);
+        return Files.exists(file) ? Option.some(map(file)) : Option.none();
+    }
+
+    /**
+     * The number of ROM addresses in the map.
+     */
+    public int size()
+    {
+        return romSize;
+    }
+
+    /**
+     * The zero based number of the source line of the instruction at the address.
+     */
+    public int lineNumber(int address)
+    {
+        checkAddress(address);
+        return buffer.getInt(lineAnchors + (address >>> blockShift) * Integer.BYTES)
+               + (buffer.getShort(lineDeltas + address * Short.BYTES) & MAX_DELTA);
+    }
+
+    /**
+     * The index of the nearest label at or before the address or -1 if there is none.
+     */
+    public int labelIndex(int address)
+    {
+        checkAddress(address);
+        return buffer.getInt(labelAnchors + (address >>> blockShift) * Integer.BYTES)
+               + (buffer.getShort(labelDeltas + address * Short.BYTES) & MAX_DELTA)
+               - 1;
+    }
+
+    /**
+     * The nearest label at or before the address.
+     */
+    public Option<String> label(int address)
+    {
+        int index = labelIndex(address);
+        return index == -1 ? Option.none() : Option.some(labelName(index));
+    }
+
+    public int labelCount()
+    {
+        return labelCount;
+    }
+
+    public String labelName(int index)
+    {
+        int start = buffer.getInt(nameOffsets + index * Integer.BYTES);
+        int end = buffer.getInt(nameOffsets + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        buffer.get(names + start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    public int labelAddress(int index)
+    {
+        return buffer.getInt(labelAddresses + index * Integer.BYTES);
+    }
+
+    private void checkAddress(int address)
+    {
+        if (address < 0 || address >= romSize) {
+            throw new IndexOutOfBoundsException(address);
+        }
+    }
+
+    private static int blocks(int romSize, int blockShift)
+    {
+        return (romSize + (1 << blockShift) - 1) >>> blockShift;
+    }
+
+    private static int align(int offset)
+    {
+        return (offset + Integer.BYTES - 1) & -Integer.BYTES;
+    }
+
+    /**
+     * Collects the line numbers of the instructions and the labels while a
+     * program is assembled.
+     * <p>
+     * NOT threadsafe
+     */
+    public static final class Builder
+    {
+        private int[] lines = new int[1024];
+        private int size = 0;
+        private final List<String> labelNames = new ArrayList<>();
+        private final List<Integer> labelAddresses = new ArrayList<>();
+
+        public void instruction(int address, int lineNumber)
+        {
+            if (address >= lines.length) {
+                lines = Arrays.copyOf(lines, Math.max(address + 1, lines.length * 2));
+            }
+            lines[address] = lineNumber;
+            size = Math.max(size, address + 1);
+        }
+
+        /**
+         * Labels must be added in the order of their addresses.
+         */
+        public void label(String name, int address)
+        {
+            labelNames.add(requireNonNull(name));
+            labelAddresses.add(address);
+        }
+
+        public void writeTo(OutputStream out)
+                throws IOException
+        {
+            int[] labels = labelsByAddress();
+            // the largest block whose deltas all fit into 16 bits
+            int blockShift = MAX_BLOCK_SHIFT;
+            while (blockShift > 0 && (!fits(lines, blockShift) || !fits(labels, blockShift))) {
+                blockShift--;
+            }
+            int[] lineAnchors = anchors(lines, blockShift);
+            int[] labelAnchors = anchors(labels, blockShift);
+
+            byte[][] names = new byte[labelNames.size()][];
+            int namesLength = 0;
+            for (int i = 0; i < names.length; i++) {
+                names[i] = labelNames.get(i).getBytes(StandardCharsets.US_ASCII);
+                namesLength += names[i].length;
+            }
+
+            int length = align(Integer.BYTES * (HEADER_INTS + 2 * lineAnchors.length) + 2 * Short.BYTES * size)
+                         + Integer.BYTES * (2 * names.length + 1)
+                         + namesLength;
+            ByteBuffer buffer = ByteBuffer.allocate(length).order(RomImage.BYTE_ORDER);
+            buffer.putInt(MAGIC).putInt(size).putInt(blockShift).putInt(names.length);
+            buffer.asIntBuffer().put(lineAnchors).put(labelAnchors);
+            buffer.position(buffer.position() + Integer.BYTES * 2 * lineAnchors.length);
+            putDeltas(buffer, lines, lineAnchors, blockShift);
+            putDeltas(buffer, labels, labelAnchors, blockShift);
+            buffer.position(align(buffer.position()));
+            for (Integer address : labelAddresses) {
+                buffer.putInt(address);
+            }
+            int offset = 0;
+            for (byte[] name : names) {
+                buffer.putInt(offset);
+                offset += name.length;
+            }
+            buffer.putInt(offset);
+            for (byte[] name : names) {
+                buffer.put(name);
+            }
+            out.write(buffer.array());
+        }
+
+        /**
+         * For every address the index of the nearest label plus one.
+         */
+        private int[] labelsByAddress()
+        {
+            int[] labels = new int[size];
+            int next = 0;
+            for (int address = 0; address < size; address++) {
+                while (next < labelAddresses.size() && labelAddresses.get(next) <= address) {
+                    next++;
+                }
+                labels[address] = next;
+            }
+            return labels;
+        }
+
+        /**
+         * The smallest value of every block, only the first size values of the array are used.
+         */
+        private int[] anchors(int[] values, int blockShift)
+        {
+            int[] anchors = new int[blocks(size, blockShift)];
+            Arrays.fill(anchors, Integer.MAX_VALUE);
+            for (int i = 0; i < size; i++) {
+                anchors[i >>> blockShift] = Math.min(anchors[i >>> blockShift], values[i]);
+            }
+            return anchors;
+        }
+
+        private boolean fits(int[] values, int blockShift)
+        {
+            int[] anchors = anchors(values, blockShift);
+            for (int i = 0; i < size; i++) {
+                if (values[i] - anchors[i >>> blockShift] > MAX_DELTA) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void putDeltas(ByteBuffer buffer, int[] values, int[] anchors, int blockShift)
+        {
+            for (int i = 0; i < size; i++) {
+                buffer.putShort((short) (values[i] - anchors[i >>> blockShift]));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ch.chassaing.hack;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Passes all messages on to another {@link Feedback} and collects the
+ * instructions and labels into a {@link SourceMap.Builder}.
+ * <p>
+ * NOT threadsafe
+ */
+final class SourceMapFeedback
+        implements Feedback
+{
+    private final Feedback delegate;
+    private final SourceMap.Builder sourceMap = new SourceMap.Builder();
+
+    SourceMapFeedback(Feedback delegate)
+    {
+        this.delegate = requireNonNull(delegate);
+    }
+
+    SourceMap.Builder sourceMap()
+    {
+        return sourceMap;
+    }
+
+    @Override
+    public void onDebug(String text)
+    {
+        delegate.onDebug(text);
+    }
+
+    @Override
+    public void onInfo(String text)
+    {
+        delegate.onInfo(text);
+    }
+
+    @Override
+    public void onError(String text)
+    {
+        delegate.onError(text);
+    }
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return delegate.isDebugEnabled();
+    }
+
+    @Override
+    public boolean isInfoEnabled()
+    {
+        return delegate.isInfoEnabled();
+    }
+
+    @Override
+    public boolean isErrorEnabled()
+    {
+        return delegate.isErrorEnabled();
+    }
+
+    @Override
+    public void onLineError(int lineNumber, String line, String details)
+    {
+        delegate.onLineError(lineNumber, line, details);
+    }
+
+    @Override
+    public void onCount(Counter counter, long amount)
+    {
+        delegate.onCount(counter, amount);
+    }
+
+    @Override
+    public void onPhase(String phase, long nanos)
+    {
+        delegate.onPhase(phase, nanos);
+    }
+
+    @Override
+    public void onInstruction(int address, int lineNumber)
+    {
+        sourceMap.instruction(address, lineNumber);
+        delegate.onInstruction(address, lineNumber);
+    }
+
+    @Override
+    public void onLabel(String label, int address)
+    {
+        sourceMap.label(label, address);
+        delegate.onLabel(label, address);
+    }
+}
@@ -1,5 +1,7 @@
 package ch.chassaing.hack;
 
+import java.io.PrintStream;
+
 class SoutFeedback implements Feedback
 {
     enum Level
@@ -8,16 +10,49 @@ class SoutFeedback implements Feedback
     }
 
     private final Level level;
+    private final PrintStream out;
 
     SoutFeedback(Level level)
+    {
+        this(level, System.out);
+    }
+
+    SoutFeedback(Level level, PrintStream out)
     {
         this.level = level;
+        this.out = out;
+    }
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return level == Level.DEBUG;
+    }
+
+    @Override
+    public boolean isInfoEnabled()
+    {
+        return level.ordinal() <= Level.INFO.ordinal();
+    }
+
+    @Override
+    public boolean isErrorEnabled()
+    {
+        return level.ordinal() <= Level.ERROR.ordinal();
+    }
+
+    @Override
+    public void onPhase(String phase, long nanos)
+    {
+        if (isDebugEnabled()) {
+            doSout("DEBUG", String.format("%s took %.3f ms", phase, nanos / 1e6));
+        }
     }
 
     @Override
     public void onDebug(String text)
     {
-        if (level.ordinal() <= Level.DEBUG.ordinal()) {
+        if (isDebugEnabled()) {
             doSout("DEBUG", text);
         }
     }
@@ -25,7 +60,7 @@ class SoutFeedback implements Feedback
     @Override
     public void onInfo(String text)
     {
-        if (level.ordinal() <= Level.INFO.ordinal()) {
+        if (isInfoEnabled()) {
             doSout("INFO", text);
         }
     }
@@ -33,13 +68,13 @@ class SoutFeedback implements Feedback
     @Override
     public void onError(String text)
     {
-        if (level.ordinal() <= Level.ERROR.ordinal()) {
+        if (isErrorEnabled()) {
             doSout("ERROR", text);
         }
     }
 
     private void doSout(String tag, String text)
     {
-        System.out.printf("%6s %s%n", tag, text);
+        out.printf("%6s %s%n", tag, text);
     }
 }
@@ -0,0 +1,217 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.*;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An {@link Assembler} that reads the program only once. Every line is
+ * encoded as soon as it is parsed. Symbols which are not known at that
+ * moment (forward references to labels and variables) are recorded in a
+ * {@link FixupTable} and patched after the last line has been read.
+ * <p>
+ * Only the encoded {@link RomImage} is kept in memory, neither the lines
+ * nor the parsed expressions.
+ */
+public final class StreamingAssembler
+        implements Assembler
+{
+    private final Parser parser;
+
+    public StreamingAssembler(Parser parser)
+    {
+        this.parser = requireNonNull(parser);
+    }
+
+    @Override
+    public boolean transform(Seq<String> lines,
+                             OutputStream machineCodeOutput,
+                             Feedback feedback,
+                             boolean ascii)
+            throws IOException
+    {
+        return transform(lines.iterator(), machineCodeOutput, feedback, ascii);
+    }
+
+    /**
+     * Same as {@link #transform(Seq, OutputStream, Feedback, boolean)} but
+     * the lines are consumed one by one from the {@link Iterator}.
+     */
+    public boolean transform(Iterator<String> lines,
+                             OutputStream machineCodeOutput,
+                             Feedback feedback,
+                             boolean ascii)
+            throws IOException
+    {
+        requireNonNull(lines);
+        long start = System.nanoTime();
+        Encoder encoder = new Encoder(feedback);
+        int lineNumber = 0;
+        while (lines.hasNext()) {
+            Option<Expression> parsed = parser.parseLine(lineNumber++, lines.next());
+            if (parsed.isEmpty()) {
+                continue;
+            }
+            Expression expression = parsed.get();
+            if (expression instanceof MalformedExpression malformed) {
+                encoder.error(malformed.lineNumber, malformed.line, malformed.line.length(), malformed.details);
+            } else if (expression instanceof Label label) {
+                encoder.label(label.value, 0, label.value.length(),
+                              label.lineNumber, label.line, label.line.length());
+            } else if (expression instanceof Symbol symbol) {
+                encoder.symbol(symbol.chars, 0, symbol.chars.length(), symbol.lineNumber);
+            } else if (expression instanceof Instruction instruction) {
+                encoder.word(instruction.toWord(encoder.symbolTable), instruction.lineNumber);
+            }
+        }
+        feedback.onCount(Feedback.Counter.LINES_PARSED, lineNumber);
+
+        return encoder.finish(machineCodeOutput, ascii, start);
+    }
+
+    /**
+     * Same as {@link #transform(Seq, OutputStream, Feedback, boolean)} but
+     * the bytes of the mapped file are scanned directly by
+     * {@link ScanningParser#scan(int, CharSequence, ScanningParser.Handler)}.
+     * No {@link Expression}s are created. Strings are only created for
+     * labels, symbols that are not yet in the symbol table and errors.
+     * The {@link Parser} of this assembler is not used.
+     */
+    public boolean transform(MappedAsciiInput input,
+                             OutputStream machineCodeOutput,
+                             Feedback feedback,
+                             boolean ascii)
+            throws IOException
+    {
+        requireNonNull(input);
+        long start = System.nanoTime();
+        Encoder encoder = new Encoder(feedback);
+        while (input.nextLine()) {
+            ScanningParser.scan(input.lineNumber(), input.line(), encoder);
+        }
+        feedback.onCount(Feedback.Counter.LINES_PARSED, input.lineNumber() + 1);
+
+        return encoder.finish(machineCodeOutput, ascii, start);
+    }
+
+    /**
+     * Encodes the instructions as they arrive. Symbols are given as spans
+     * of characters so that they can be looked up without a String.
+     */
+    private static final class Encoder
+            implements ScanningParser.Handler<Void>
+    {
+        private final Feedback feedback;
+        private final SymbolTable symbolTable;
+        private final FixupTable fixups = new FixupTable();
+        private final RomImage rom = new RomImage();
+        private boolean hasErrors = false;
+
+        private Encoder(Feedback feedback)
+        {
+            this.feedback = requireNonNull(feedback);
+            this.symbolTable = new SymbolTableImpl(feedback);
+        }
+
+        private void error(int lineNumber, CharSequence line, int lineEnd, String details)
+        {
+            hasErrors = true;
+            feedback.onLineError(lineNumber, ScanningParser.cut(line, lineEnd), details);
+        }
+
+        private void label(CharSequence chars, int start, int end,
+                           int lineNumber, CharSequence line, int lineEnd)
+        {
+            if (symbolTable.findAddress(chars, start, end) != -1) {
+                error(lineNumber, line, lineEnd, "Duplicate label");
+            } else {
+                String name = chars.subSequence(start, end).toString();
+                symbolTable.putAddress(name, rom.size());
+                feedback.onLabel(name, rom.size());
+            }
+        }
+
+        private void symbol(CharSequence chars, int start, int end, int lineNumber)
+        {
+            int address = hasErrors ? 0 : symbolTable.findAddress(chars, start, end);
+            if (address == -1) {
+                // label further down or a variable, can only be decided at the end
+                int position = rom.add(0);
+                fixups.add(position, chars, start, end);
+                feedback.onInstruction(position, lineNumber);
+            } else {
+                feedback.onInstruction(rom.add(address), lineNumber);
+            }
+        }
+
+        private void word(int word, int lineNumber)
+        {
+            // after an error the output will be discarded, only count the instruction
+            feedback.onInstruction(rom.add(hasErrors ? 0 : word), lineNumber);
+        }
+
+        /**
+         * @param start when the assembler started to read the lines
+         */
+        private boolean finish(OutputStream machineCodeOutput, boolean ascii, long start)
+                throws IOException
+        {
+            start = feedback.endPhase("assemble", start);
+            if (hasErrors) {
+                return false;
+            }
+
+            fixups.patch(rom, symbolTable);
+            feedback.onCount(Feedback.Counter.INSTRUCTIONS_EMITTED, rom.size());
+            start = feedback.endPhase("patch", start);
+
+            rom.writeTo(machineCodeOutput, ascii);
+            machineCodeOutput.flush();
+            feedback.endPhase("write", start);
+
+            return true;
+        }
+
+        @Override
+        public Void onConstant(int lineNumber, CharSequence line, int lineEnd, int value)
+        {
+            word(value, lineNumber);
+            return null;
+        }
+
+        @Override
+        public Void onSymbol(int lineNumber, CharSequence line, int lineEnd, int start, int end)
+        {
+            symbol(line, start, end, lineNumber);
+            return null;
+        }
+
+        @Override
+        public Void onLabel(int lineNumber, CharSequence line, int lineEnd, int start, int end)
+        {
+            label(line, start, end, lineNumber, line, lineEnd);
+            return null;
+        }
+
+        @Override
+        public Void onCInstruction(int lineNumber, CharSequence line, int lineEnd,
+                                   Destination dest, Computation comp, Jump jump)
+        {
+            word(CInstruction.encode(dest, comp, jump), lineNumber);
+            return null;
+        }
+
+        @Override
+        public Void onMalformed(int lineNumber, CharSequence line, int lineEnd, String details)
+        {
+            error(lineNumber, line, lineEnd, details);
+            return null;
+        }
+    }
+}
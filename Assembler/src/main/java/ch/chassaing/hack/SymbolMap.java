@@ -0,0 +1,128 @@
+package ch.chassaing.hack;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Open addressing hash map (linear probing) from symbols to int values.
+ * Symbols, their hashes and their values are kept in parallel arrays, so
+ * there is no object per entry. The hash is the same as
+ * {@link String#hashCode()}, which allows lookups of a span of characters
+ * without creating a String first.
+ * <p>
+ * NOT threadsafe
+ */
+final class SymbolMap
+{
+    private static final int INITIAL_CAPACITY = 64; // must be a power of two
+
+    private String[] symbols = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int[] values = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * The value of the symbol or -1 if there is none.
+     */
+    int get(String symbol)
+    {
+        int slot = slot(symbol, 0, symbol.length(), symbol.hashCode());
+        return symbols[slot] != null ? values[slot] : -1;
+    }
+
+    /**
+     * The value of the symbol formed by the characters from start (inclusive)
+     * to end (exclusive) or -1 if there is none.
+     */
+    int get(CharSequence chars, int start, int end)
+    {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int slot = slot(chars, start, end, hash);
+        return symbols[slot] != null ? values[slot] : -1;
+    }
+
+    /**
+     * Adds the symbol with its value, which must not be negative.
+     *
+     * @return false if the symbol was already present, the old value is kept then
+     */
+    boolean put(String symbol, int value)
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value");
+        }
+        int hash = symbol.hashCode();
+        int slot = slot(symbol, 0, symbol.length(), hash);
+        if (symbols[slot] != null) {
+            return false;
+        }
+        symbols[slot] = symbol;
+        hashes[slot] = hash;
+        values[slot] = value;
+        size++;
+        if (size * 2 > symbols.length) {
+            grow();
+        }
+        return true;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * The slot which contains the symbol or the empty slot where it
+     * would have to be inserted.
+     */
+    private int slot(CharSequence chars, int start, int end, int hash)
+    {
+        requireNonNull(chars);
+        int mask = symbols.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (symbols[slot] != null) {
+            if (hashes[slot] == hash && equals(symbols[slot], chars, start, end)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        String[] oldSymbols = symbols;
+        int[] oldHashes = hashes;
+        int[] oldValues = values;
+        symbols = new String[oldSymbols.length * 2];
+        hashes = new int[symbols.length];
+        values = new int[symbols.length];
+        int mask = symbols.length - 1;
+        for (int i = 0; i < oldSymbols.length; i++) {
+            if (oldSymbols[i] != null) {
+                int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+                while (symbols[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                symbols[slot] = oldSymbols[i];
+                hashes[slot] = oldHashes[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static boolean equals(String symbol, CharSequence chars, int start, int end)
+    {
+        if (symbol.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
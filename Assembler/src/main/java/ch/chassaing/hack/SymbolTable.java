@@ -1,12 +1,21 @@
 package ch.chassaing.hack;
 
-import java.math.BigInteger;
-
 public interface SymbolTable
 {
-    void putAddress(String symbol, BigInteger address);
+    void putAddress(String symbol, int address);
+
+    /**
+     * The address of the symbol. If the symbol is unknown, it is treated as
+     * a variable and the next free RAM address is assigned to it.
+     */
+    int symbolAddress(String symbol);
 
-    BigInteger symbolAddress(String symbol);
+    /**
+     * The address of the symbol formed by the characters from start (inclusive)
+     * to end (exclusive) or -1 if there is no such symbol. Other than
+     * {@link #symbolAddress(String)} this never assigns an address.
+     */
+    int findAddress(CharSequence chars, int start, int end);
 
     boolean hasSymbol(String symbol);
 }
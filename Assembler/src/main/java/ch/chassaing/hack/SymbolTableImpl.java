@@ -1,82 +1,98 @@
 package ch.chassaing.hack;
 
-import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
-
-import static java.lang.System.out;
-import static java.util.Objects.isNull;
 import static java.util.Objects.requireNonNull;
 
 /**
+ * Keeps the addresses in a {@link SymbolMap}, so there is no object
+ * per symbol and symbols can be looked up without creating a String.
+ * <p>
  * NOT threadsafe
  */
 public final class SymbolTableImpl
     implements SymbolTable
 {
-    private final Map<String, BigInteger> symbolMap = new HashMap<>();
-    private long nextFree = 16;
+    public static final int SCREEN_ADDRESS = 16384;
+
+    public static final int KEYBOARD_ADDRESS = SCREEN_ADDRESS + 8192;
 
-    public static final long SCREEN_ADDRESS = 16384L;
+    private final Feedback feedback;
 
-    public static final long KEYBOARD_ADDRESS = SCREEN_ADDRESS + 8192;
+    private final SymbolMap symbols = new SymbolMap();
+    private int nextFree = 16;
 
+    public SymbolTableImpl(Feedback feedback)
     {
-        putAddress("R0", BigInteger.ZERO);
-        putAddress("R1", BigInteger.ONE);
-        putAddress("R2", BigInteger.valueOf(2));
-        putAddress("R3", BigInteger.valueOf(3));
-        putAddress("R4", BigInteger.valueOf(4));
-        putAddress("R5", BigInteger.valueOf(5));
-        putAddress("R6", BigInteger.valueOf(6));
-        putAddress("R7", BigInteger.valueOf(7));
-        putAddress("R8", BigInteger.valueOf(8));
-        putAddress("R9", BigInteger.valueOf(9));
-        putAddress("R10", BigInteger.valueOf(10));
-        putAddress("R11", BigInteger.valueOf(11));
-        putAddress("R12", BigInteger.valueOf(12));
-        putAddress("R13", BigInteger.valueOf(13));
-        putAddress("R14", BigInteger.valueOf(14));
-        putAddress("R15", BigInteger.valueOf(15));
+        this.feedback = requireNonNull(feedback);
+
+        putAddress("R0", 0);
+        putAddress("R1", 1);
+        putAddress("R2", 2);
+        putAddress("R3", 3);
+        putAddress("R4", 4);
+        putAddress("R5", 5);
+        putAddress("R6", 6);
+        putAddress("R7", 7);
+        putAddress("R8", 8);
+        putAddress("R9", 9);
+        putAddress("R10", 10);
+        putAddress("R11", 11);
+        putAddress("R12", 12);
+        putAddress("R13", 13);
+        putAddress("R14", 14);
+        putAddress("R15", 15);
 
-        putAddress("SP", BigInteger.valueOf(0));
-        putAddress("LCL", BigInteger.valueOf(1));
-        putAddress("ARG", BigInteger.valueOf(2));
-        putAddress("THIS", BigInteger.valueOf(3));
-        putAddress("THAT", BigInteger.valueOf(4));
+        putAddress("SP", 0);
+        putAddress("LCL", 1);
+        putAddress("ARG", 2);
+        putAddress("THIS", 3);
+        putAddress("THAT", 4);
 
-        putAddress("SCREEN", BigInteger.valueOf(SCREEN_ADDRESS));
-        putAddress("KBD", BigInteger.valueOf(KEYBOARD_ADDRESS));
+        putAddress("SCREEN", SCREEN_ADDRESS);
+        putAddress("KBD", KEYBOARD_ADDRESS);
     }
 
     @Override
-    public void putAddress(String symbol, BigInteger address)
+    public void putAddress(String symbol, int address)
     {
-        requireNonNull(address);
-        if (symbolMap.containsKey(requireNonNull(symbol))) {
+        if (!symbols.put(symbol, address)) {
             throw new IllegalStateException("Duplicate symbol");
         }
-        symbolMap.put(symbol, address);
-        out.printf("%s got address %d%n", symbol, address.longValue());
+        logAddress(symbol, address);
     }
 
     @Override
-    public BigInteger symbolAddress(String symbol)
+    public int symbolAddress(String symbol)
     {
-        BigInteger result = symbolMap.get(requireNonNull(symbol));
-        if (isNull(result)) {
-            if (nextFree >= SCREEN_ADDRESS) {
-                throw new IllegalStateException("Too many symbols");
-            }
-            result = BigInteger.valueOf(nextFree++);
-            putAddress(symbol, result);
+        int address = symbols.get(symbol);
+        if (address != -1) {
+            return address;
         }
-        return result;
+        if (nextFree >= SCREEN_ADDRESS) {
+            throw new IllegalStateException("Too many symbols");
+        }
+        address = nextFree++;
+        symbols.put(symbol, address);
+        feedback.onCount(Feedback.Counter.SYMBOLS_ALLOCATED, 1);
+        logAddress(symbol, address);
+        return address;
+    }
+
+    @Override
+    public int findAddress(CharSequence chars, int start, int end)
+    {
+        return symbols.get(chars, start, end);
     }
 
     @Override
     public boolean hasSymbol(String symbol)
     {
-        return symbolMap.containsKey(requireNonNull(symbol));
+        return symbols.get(symbol) != -1;
+    }
+
+    private void logAddress(String symbol, int address)
+    {
+        if (feedback.isDebugEnabled()) {
+            feedback.onDebug(symbol + " got address " + address);
+        }
     }
 }
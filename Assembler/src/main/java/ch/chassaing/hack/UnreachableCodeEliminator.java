@@ -0,0 +1,176 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.*;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the basic blocks which cannot be reached from address 0. The
+ * labels of the remaining blocks get their new addresses in the first
+ * pass, as usual.
+ * <p>
+ * A block starts at every label and after every jump. From a reachable
+ * block the execution continues
+ * <ul>
+ *     <li>with the next block, unless the jump is always taken,</li>
+ *     <li>at the label loaded into A before the jump, unless the jump is never taken, and</li>
+ *     <li>at every label whose address the block loads for another purpose than
+ *     a jump, e.g. the return address of a function call. This covers the
+ *     computed jumps like {@code @R14 / A=M / 0;JMP}, which can only go to an
+ *     address that was loaded before.</li>
+ * </ul>
+ * Programs that jump to numeric ROM addresses or to computed addresses
+ * are returned unchanged, see {@link ControlFlow#jumpsToNumericAddress(Iterable)}
+ * and {@link ControlFlow#jumpsToComputedAddress(Iterable)}.
+ */
+public final class UnreachableCodeEliminator
+        implements Optimizer
+{
+    private static final class Block
+    {
+        private final java.util.List<Expression> expressions = new ArrayList<>();
+        /** labels in the block which are jumped to */
+        private final java.util.List<String> targets = new ArrayList<>();
+        /** labels in the block whose address is used otherwise */
+        private final java.util.List<String> addressesTaken = new ArrayList<>();
+        private boolean fallsThrough = true;
+        private int instructionCount = 0;
+        private boolean reachable = false;
+    }
+
+    @Override
+    public Seq<Expression> optimize(Seq<Expression> expressions,
+                                    Feedback feedback)
+    {
+        if (ControlFlow.jumpsToNumericAddress(expressions)) {
+            feedback.onInfo("Unreachable code elimination skipped, the program jumps to numeric addresses");
+            return expressions;
+        }
+        if (ControlFlow.jumpsToComputedAddress(expressions)) {
+            feedback.onInfo("Unreachable code elimination skipped, the program jumps to computed addresses");
+            return expressions;
+        }
+
+        Set<String> labels = ControlFlow.labels(expressions);
+        java.util.List<Block> blocks = new ArrayList<>();
+        Map<String, Integer> blockOfLabel = new HashMap<>();
+        Block block = new Block();
+        Symbol lastLoad = null;
+        for (Expression expression : expressions) {
+            if (expression instanceof Label label) {
+                // e.g. @LOOP directly before (OTHER), LOOP is used without a jump
+                takeAddress(block, lastLoad);
+                if (!block.expressions.isEmpty()) {
+                    blocks.add(block);
+                    block = new Block();
+                }
+                blockOfLabel.put(label.value, blocks.size());
+                lastLoad = null;
+                block.expressions.add(label);
+                continue;
+            }
+
+            block.expressions.add(expression);
+            block.instructionCount++;
+            if (expression instanceof Address address) {
+                // a label that is loaded but not jumped to has its address taken
+                takeAddress(block, lastLoad);
+                lastLoad = address instanceof Symbol symbol && labels.contains(symbol.chars) ? symbol : null;
+            } else if (expression instanceof CInstruction c) {
+                if (c.comp.readsA()) {
+                    // e.g. D=A, the address ends up somewhere else
+                    takeAddress(block, lastLoad);
+                }
+                if (c.jump != Jump.NONE) {
+                    boolean always = c.jump == Jump.JMP || (isConstant(c.comp) && c.jump.test(valueOf(c.comp)));
+                    boolean never = isConstant(c.comp) && !c.jump.test(valueOf(c.comp));
+                    if (lastLoad != null && !never) {
+                        block.targets.add(lastLoad.chars);
+                    } else {
+                        takeAddress(block, lastLoad);
+                    }
+                    block.fallsThrough = !always;
+                    blocks.add(block);
+                    block = new Block();
+                    lastLoad = null;
+                } else if (c.dest.storesA()) {
+                    takeAddress(block, lastLoad);
+                    lastLoad = null;
+                }
+            }
+        }
+        takeAddress(block, lastLoad);
+        blocks.add(block);
+
+        markReachable(blocks, blockOfLabel);
+
+        java.util.List<Expression> reachable = new ArrayList<>(expressions.size());
+        int removedInstructions = 0;
+        int removedBlocks = 0;
+        for (Block b : blocks) {
+            if (b.reachable) {
+                reachable.addAll(b.expressions);
+            } else {
+                removedInstructions += b.instructionCount;
+                removedBlocks += b.instructionCount > 0 ? 1 : 0;
+            }
+        }
+        feedback.onCount(Feedback.Counter.INSTRUCTIONS_REMOVED, removedInstructions);
+        feedback.onInfo("Unreachable code elimination removed " + removedInstructions
+                        + " instructions in " + removedBlocks + " blocks");
+        return List.ofAll(reachable);
+    }
+
+    private static void takeAddress(Block block, Symbol load)
+    {
+        if (load != null) {
+            block.addressesTaken.add(load.chars);
+        }
+    }
+
+    private static void markReachable(java.util.List<Block> blocks,
+                                      Map<String, Integer> blockOfLabel)
+    {
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(0);
+        while (!work.isEmpty()) {
+            int index = work.pop();
+            Block block = blocks.get(index);
+            if (block.reachable) {
+                continue;
+            }
+            block.reachable = true;
+            if (block.fallsThrough && index + 1 < blocks.size()) {
+                work.push(index + 1);
+            }
+            for (String label : block.targets) {
+                work.push(blockOfLabel.get(label));
+            }
+            for (String label : block.addressesTaken) {
+                work.push(blockOfLabel.get(label));
+            }
+        }
+    }
+
+    private static boolean isConstant(Computation comp)
+    {
+        return comp == Computation.ZERO || comp == Computation.ONE || comp == Computation.MINUS_ONE;
+    }
+
+    private static int valueOf(Computation comp)
+    {
+        return switch (comp) {
+            case ZERO -> 0;
+            case ONE -> 1;
+            case MINUS_ONE -> -1;
+            default -> throw new IllegalArgumentException(comp + " is not a constant");
+        };
+    }
+}
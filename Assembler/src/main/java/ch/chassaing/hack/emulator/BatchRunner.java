@@ -0,0 +1,247 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs many programs concurrently on a work-stealing pool, each on its own
+ * {@link HackCpu}, and checks their RAM afterwards. A program that is run by
+ * several tasks is read once, the tasks share its {@link RomImage}.
+ * <p>
+ * The batch file has one task per line, blank lines and lines starting
+ * with # are ignored:
+ * <pre>
+ * &lt;hack file&gt; &lt;cycles&gt; [&lt;address&gt;:=&lt;value&gt;]... [&lt;address&gt;=&lt;value&gt;]...
+ * </pre>
+ * The := words are written to the RAM before the run, the = words are
+ * expected in the RAM after it. The addresses must be within the RAM, 0 to
+ * 32767. The run ends when the program halts or the cycles are used up.
+ * Files are relative to the batch file.
+ */
+public final class BatchRunner
+{
+    /**
+     * A word of the RAM.
+     */
+    public record Assignment(int address, int value) {}
+
+    public record Task(Path file, long cycles, Seq<Assignment> inputs, Seq<Assignment> expected) {}
+
+    /**
+     * @param failures the assertions that did not hold, empty if the task passed
+     */
+    public record Result(Task task, boolean halted, long cycles, long nanos, Seq<String> failures)
+    {
+        public boolean passed()
+        {
+            return failures.isEmpty();
+        }
+    }
+
+    private BatchRunner() { /* dont instantiate */ }
+
+    public static void main(String[] args)
+    {
+        Options options = new Options();
+        options.addOption(Option.builder("jobs")
+                                  .hasArg()
+                                  .desc("Number of programs run at the same time, " +
+                                        "defaults to the number of processors")
+                                  .build());
+        options.addOption("jit", "Compile hot basic blocks to JVM bytecode");
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Problem parsing command line");
+            throw new RuntimeException(e);
+        }
+        if (commandLine.getArgList().size() != 1) {
+            new HelpFormatter().printHelp("Usage: java -cp asm.jar " + BatchRunner.class.getName()
+                                          + " <batch file>", options);
+            System.exit(64);
+        }
+
+        Seq<Task> tasks;
+        int jobs;
+        try {
+            tasks = parse(Path.of(commandLine.getArgList().get(0)));
+            jobs = Integer.parseInt(commandLine.getOptionValue(
+                    "jobs", Integer.toString(Runtime.getRuntime().availableProcessors())));
+            if (jobs < 1) {
+                throw new IllegalArgumentException("jobs must be positive");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Seq<Result> results = run(tasks, jobs, commandLine.hasOption("jit"));
+        report(results, System.nanoTime() - start, System.out);
+        if (results.exists(result -> !result.passed())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Reads the tasks of a batch file.
+     */
+    public static Seq<Task> parse(Path batchFile)
+            throws IOException
+    {
+        Path directory = batchFile.toAbsolutePath().getParent();
+        Seq<String> lines = List.ofAll(Files.readAllLines(batchFile, StandardCharsets.UTF_8));
+        return lines.zipWithIndex()
+                    .filter(line -> !line._1.isBlank() && !line._1.strip().startsWith("#"))
+                    .map(line -> parseTask(directory, line._1.strip(), line._2 + 1));
+    }
+
+    private static Task parseTask(Path directory, String line, int lineNumber)
+    {
+        String[] words = line.split("\\s+");
+        if (words.length < 2) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": file and cycles expected");
+        }
+        Seq<Assignment> inputs = List.empty();
+        Seq<Assignment> expected = List.empty();
+        try {
+            for (int i = 2; i < words.length; i++) {
+                String word = words[i];
+                int equals = word.indexOf('=');
+                if (equals < 1) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": invalid assignment " + word);
+                }
+                boolean input = word.charAt(equals - 1) == ':';
+                int address = Integer.parseInt(word.substring(0, input ? equals - 1 : equals));
+                if (address < 0 || address >= HackCpu.RAM_SIZE) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": address " + address
+                                                       + " is outside the RAM");
+                }
+                Assignment assignment = new Assignment(address, Integer.parseInt(word.substring(equals + 1)));
+                if (input) {
+                    inputs = inputs.append(assignment);
+                } else {
+                    expected = expected.append(assignment);
+                }
+            }
+            return new Task(directory.resolve(words[0]), Long.parseLong(words[1]), inputs, expected);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Runs the tasks on jobs threads.
+     *
+     * @return the results in the order of the tasks
+     */
+    public static Seq<Result> run(Seq<Task> tasks,
+                                  int jobs,
+                                  boolean compileHotBlocks)
+    {
+        Map<Path, RomImage> programs = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newWorkStealingPool(jobs);
+        try {
+            Seq<Future<Result>> futures = tasks.map(task -> executor.submit(
+                    () -> run(task, programs, compileHotBlocks)));
+            return futures.map(BatchRunner::await);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Result run(Task task,
+                              Map<Path, RomImage> programs,
+                              boolean compileHotBlocks)
+    {
+        RomImage program;
+        try {
+            program = programs.computeIfAbsent(task.file(), BatchRunner::read);
+        } catch (IllegalStateException e) {
+            return new Result(task, false, 0, 0, List.of(e.getMessage()));
+        }
+
+        long start = System.nanoTime();
+        HackCpu cpu = new HackCpu();
+        cpu.setCompileHotBlocks(compileHotBlocks);
+        cpu.load(program);
+        for (Assignment input : task.inputs()) {
+            cpu.poke(input.address(), input.value());
+        }
+        cpu.run(task.cycles());
+        long nanos = System.nanoTime() - start;
+
+        Seq<String> failures = task.expected()
+                                   .filter(expected -> cpu.peek(expected.address()) != (short) expected.value())
+                                   .map(expected -> "RAM[" + expected.address() + "] is "
+                                                    + cpu.peek(expected.address())
+                                                    + ", expected " + expected.value());
+        return new Result(task, cpu.isHalted(), cpu.cycles(), nanos, failures);
+    }
+
+    /**
+     * Reads the program, the map of the shared images does not take checked exceptions.
+     */
+    private static RomImage read(Path file)
+    {
+        try {
+            return RomImage.read(requireNonNull(file));
+        } catch (IOException e) {
+            throw new IllegalStateException("Problem reading " + file + ": " + e, e);
+        }
+    }
+
+    private static Result await(Future<Result> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void report(Seq<Result> results,
+                              long wallNanos,
+                              PrintStream out)
+    {
+        for (Result result : results) {
+            out.printf("%s %-40s %12d cycles %s %8.1f M/s %10.3f ms%n",
+                       result.passed() ? "PASS" : "FAIL",
+                       result.task().file().getFileName(),
+                       result.cycles(),
+                       result.halted() ? "halted " : "stopped",
+                       result.cycles() * 1e3 / Math.max(1, result.nanos()),
+                       result.nanos() / 1e6);
+            for (String failure : result.failures()) {
+                out.println("     " + failure);
+            }
+        }
+        int failed = results.count(result -> !result.passed());
+        out.printf("%d passed, %d failed, %d cycles in %.3f ms%n",
+                   results.size() - failed,
+                   failed,
+                   results.map(Result::cycles).sum().longValue(),
+                   wallNanos / 1e6);
+    }
+}
@@ -0,0 +1,366 @@
+package ch.chassaing.hack.emulator;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+
+import static ch.chassaing.hack.emulator.MicroOps.*;
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Compiles the hot basic blocks of the ROM to JVM bytecode. A block starts
+ * at an address the {@link HackCpu} arrives at after a jump instruction and
+ * ends with the next jump instruction, so it runs straight through. Every
+ * block becomes a hidden class which works directly on the RAM array, A and
+ * D are kept in local variables.
+ * <p>
+ * The blocks are looked up by their first address only. A jump into the
+ * middle of a block is interpreted, until that address gets hot itself.
+ * Blocks which run past the program, loop forever or use a computation
+ * without mnemonic are never compiled.
+ * <p>
+ * NOT threadsafe
+ */
+final class BlockCompiler
+{
+    /** entries into an address before its block is compiled */
+    static final int THRESHOLD = 1000;
+    /** keeps the methods small enough for the JIT of the JVM */
+    static final int MAX_LENGTH = 256;
+
+    private static final String INTERFACE = Type.getInternalName(CompiledBlock.class);
+    private static final String FRAMEBUFFER = Type.getInternalName(Framebuffer.class);
+    private static final String PACKAGE = INTERFACE.substring(0, INTERFACE.lastIndexOf('/') + 1);
+    private static final int JUMP_MASK = JLT | JEQ | JGT;
+
+    // local variables of the generated method
+    private static final int RAM = 1;
+    private static final int REGISTERS = 2;
+    private static final int DIRTY = 3;
+    private static final int A_REGISTER = 4;
+    private static final int D_REGISTER = 5;
+    private static final int OUT = 6;
+    private static final int TARGET = 7;
+
+    private final MicroOps microOps;
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private final CompiledBlock[] blocks = new CompiledBlock[HackCpu.ROM_SIZE];
+    private final int[] lengths = new int[HackCpu.ROM_SIZE];
+    private final int[] entries = new int[HackCpu.ROM_SIZE];
+    private int programSize = 0;
+    private int compiled = 0;
+
+    BlockCompiler(MicroOps microOps)
+    {
+        this.microOps = microOps;
+    }
+
+    /**
+     * Drops all blocks, the ROM has changed.
+     */
+    void reset(int programSize)
+    {
+        this.programSize = programSize;
+        Arrays.fill(blocks, null);
+        Arrays.fill(lengths, 0);
+        Arrays.fill(entries, 0);
+        compiled = 0;
+    }
+
+    /**
+     * The block starting at the address or null if it is not compiled (yet).
+     */
+    CompiledBlock block(int address)
+    {
+        return blocks[address];
+    }
+
+    /**
+     * The number of instructions of the block starting at the address.
+     */
+    int length(int address)
+    {
+        return lengths[address];
+    }
+
+    int compiledBlocks()
+    {
+        return compiled;
+    }
+
+    /**
+     * Counts an entry into the address and compiles its block when it became hot.
+     */
+    void enter(int address)
+    {
+        if (++entries[address] != THRESHOLD) {
+            return;
+        }
+        int length = blockLength(address);
+        if (length > 0) {
+            blocks[address] = compile(address, length);
+            lengths[address] = length;
+            compiled++;
+        }
+    }
+
+    /**
+     * The number of instructions up to and including the next jump or 0 if
+     * the block cannot be compiled.
+     */
+    private int blockLength(int start)
+    {
+        for (int address = start; address < programSize; address++) {
+            int op = microOps.ops[address];
+            if (op == END || op == ALU) {
+                return 0;
+            }
+            int jump = microOps.jumps[address];
+            if (!isLoad(op) && jump != 0) {
+                return (jump & SELF_LOOP) != 0 ? 0 : address - start + 1;
+            }
+            if (address - start + 1 == MAX_LENGTH || address == HackCpu.ADDRESS_MASK) {
+                return address - start + 1;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isLoad(int op)
+    {
+        return op == LOAD || op >= PAIR;
+    }
+
+    private CompiledBlock compile(int start, int length)
+    {
+        String name = PACKAGE + "Block" + start;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V17, ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object", new String[]{INTERFACE});
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "execute", "([S[I[J)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, REGISTERS);
+        mv.visitInsn(ICONST_0);
+        mv.visitInsn(IALOAD);
+        mv.visitVarInsn(ISTORE, A_REGISTER);
+        mv.visitVarInsn(ALOAD, REGISTERS);
+        mv.visitInsn(ICONST_1);
+        mv.visitInsn(IALOAD);
+        mv.visitVarInsn(ISTORE, D_REGISTER);
+
+        int end = start + length - 1;
+        for (int address = start; address <= end; address++) {
+            int op = microOps.ops[address];
+            if (isLoad(op)) {
+                pushInt(mv, microOps.immediates[address]);
+                mv.visitVarInsn(ISTORE, A_REGISTER);
+                continue;
+            }
+            computation(mv, op);
+            mv.visitInsn(I2S);
+            mv.visitVarInsn(ISTORE, OUT);
+            int dest = microOps.dests[address];
+            if ((dest & STORE_M) != 0) {
+                ram(mv);
+                mv.visitVarInsn(ILOAD, OUT);
+                mv.visitInsn(SASTORE);
+                mv.visitVarInsn(ALOAD, DIRTY);
+                a(mv);
+                pushInt(mv, HackCpu.ADDRESS_MASK);
+                mv.visitInsn(IAND);
+                mv.visitMethodInsn(INVOKESTATIC, FRAMEBUFFER, "mark", "([JI)V", false);
+            }
+            if (address == end) {
+                mv.visitVarInsn(ILOAD, A_REGISTER);
+                mv.visitVarInsn(ISTORE, TARGET);
+            }
+            if ((dest & STORE_D) != 0) {
+                mv.visitVarInsn(ILOAD, OUT);
+                mv.visitVarInsn(ISTORE, D_REGISTER);
+            }
+            if ((dest & STORE_A) != 0) {
+                mv.visitVarInsn(ILOAD, OUT);
+                mv.visitVarInsn(ISTORE, A_REGISTER);
+            }
+        }
+
+        mv.visitVarInsn(ALOAD, REGISTERS);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ILOAD, A_REGISTER);
+        mv.visitInsn(IASTORE);
+        mv.visitVarInsn(ALOAD, REGISTERS);
+        mv.visitInsn(ICONST_1);
+        mv.visitVarInsn(ILOAD, D_REGISTER);
+        mv.visitInsn(IASTORE);
+
+        int jump = isLoad(microOps.ops[end]) ? 0 : microOps.jumps[end] & JUMP_MASK;
+        int next = (end + 1) & HackCpu.ADDRESS_MASK;
+        if (jump == 0) {
+            pushInt(mv, next);
+            mv.visitInsn(IRETURN);
+        } else if (jump == JUMP_MASK) {
+            target(mv);
+        } else {
+            Label taken = new Label();
+            mv.visitVarInsn(ILOAD, OUT);
+            mv.visitJumpInsn(condition(jump), taken);
+            pushInt(mv, next);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(taken);
+            target(mv);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+
+        try {
+            Class<?> block = lookup.defineHiddenClass(cw.toByteArray(), true).lookupClass();
+            return (CompiledBlock) block.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot compile the block at " + start, e);
+        }
+    }
+
+    /**
+     * Pushes the result of the computation, not yet truncated to 16 bits.
+     */
+    private static void computation(MethodVisitor mv, int op)
+    {
+        switch (op) {
+            case ZERO -> mv.visitInsn(ICONST_0);
+            case ONE -> mv.visitInsn(ICONST_1);
+            case MINUS_ONE -> mv.visitInsn(ICONST_M1);
+            case D -> d(mv);
+            case A -> a(mv);
+            case M -> m(mv);
+            case NOT_D, NOT_A, NOT_M -> {
+                operand(mv, op == NOT_D ? D : op == NOT_A ? A : M);
+                mv.visitInsn(ICONST_M1);
+                mv.visitInsn(IXOR);
+            }
+            case MINUS_D, MINUS_A, MINUS_M -> {
+                operand(mv, op == MINUS_D ? D : op == MINUS_A ? A : M);
+                mv.visitInsn(INEG);
+            }
+            case D_PLUS_ONE, A_PLUS_ONE, M_PLUS_ONE -> {
+                operand(mv, op == D_PLUS_ONE ? D : op == A_PLUS_ONE ? A : M);
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(IADD);
+            }
+            case D_MINUS_ONE, A_MINUS_ONE, M_MINUS_ONE -> {
+                operand(mv, op == D_MINUS_ONE ? D : op == A_MINUS_ONE ? A : M);
+                mv.visitInsn(ICONST_1);
+                mv.visitInsn(ISUB);
+            }
+            case D_PLUS_A, D_PLUS_M -> binary(mv, D, op == D_PLUS_A ? A : M, IADD);
+            case D_MINUS_A, D_MINUS_M -> binary(mv, D, op == D_MINUS_A ? A : M, ISUB);
+            case A_MINUS_D, M_MINUS_D -> binary(mv, op == A_MINUS_D ? A : M, D, ISUB);
+            case D_AND_A, D_AND_M -> binary(mv, D, op == D_AND_A ? A : M, IAND);
+            case D_OR_A, D_OR_M -> binary(mv, D, op == D_OR_A ? A : M, IOR);
+            default -> throw new IllegalArgumentException("Operation " + op + " is no computation");
+        }
+    }
+
+    private static void binary(MethodVisitor mv, int left, int right, int opcode)
+    {
+        operand(mv, left);
+        operand(mv, right);
+        mv.visitInsn(opcode);
+    }
+
+    /**
+     * @param register one of the operations {@link MicroOps#D}, {@link MicroOps#A} or {@link MicroOps#M}
+     */
+    private static void operand(MethodVisitor mv, int register)
+    {
+        switch (register) {
+            case D -> d(mv);
+            case A -> a(mv);
+            default -> m(mv);
+        }
+    }
+
+    private static void d(MethodVisitor mv)
+    {
+        mv.visitVarInsn(ILOAD, D_REGISTER);
+    }
+
+    private static void a(MethodVisitor mv)
+    {
+        mv.visitVarInsn(ILOAD, A_REGISTER);
+    }
+
+    private static void m(MethodVisitor mv)
+    {
+        ram(mv);
+        mv.visitInsn(SALOAD);
+    }
+
+    /**
+     * Pushes the RAM array and the address in A.
+     */
+    private static void ram(MethodVisitor mv)
+    {
+        mv.visitVarInsn(ALOAD, RAM);
+        mv.visitVarInsn(ILOAD, A_REGISTER);
+        pushInt(mv, HackCpu.ADDRESS_MASK);
+        mv.visitInsn(IAND);
+    }
+
+    /**
+     * Returns the address the jump goes to, A before the last instruction.
+     */
+    private static void target(MethodVisitor mv)
+    {
+        mv.visitVarInsn(ILOAD, TARGET);
+        pushInt(mv, HackCpu.ADDRESS_MASK);
+        mv.visitInsn(IAND);
+        mv.visitInsn(IRETURN);
+    }
+
+    /**
+     * The bytecode that branches if the j bits are true for the value on the stack.
+     */
+    private static int condition(int jump)
+    {
+        if (jump == JGT) {
+            return IFGT;
+        } else if (jump == JEQ) {
+            return IFEQ;
+        } else if (jump == (JGT | JEQ)) {
+            return IFGE;
+        } else if (jump == JLT) {
+            return IFLT;
+        } else if (jump == (JLT | JGT)) {
+            return IFNE;
+        } else if (jump == (JLT | JEQ)) {
+            return IFLE;
+        }
+        throw new IllegalArgumentException("Not a conditional jump " + jump);
+    }
+
+    private static void pushInt(MethodVisitor mv, int value)
+    {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ch.chassaing.hack.emulator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A chip of a test script, see {@link TestScript}. The variables are the
+ * pins and the internal parts of the chip, like {@code reset},
+ * {@code DRegister[]} or {@code RAM16K[3]}. A clock cycle is a tick, which
+ * computes and latches the new state, followed by a tock, which makes it
+ * visible at the outputs.
+ */
+interface Chip
+{
+    /**
+     * @throws IllegalArgumentException if the chip has no such input or part
+     */
+    void set(String variable, int value);
+
+    /**
+     * @throws IllegalArgumentException if the chip has no such pin or part
+     */
+    int get(String variable);
+
+    void tick();
+
+    void tock();
+
+    /**
+     * Loads a file into a part of the chip, e.g. a program into the {@code ROM32K}.
+     *
+     * @throws IllegalArgumentException if the part can not be loaded
+     */
+    void load(String part, Path file)
+            throws IOException;
+
+    /**
+     * The name of the variable without the index, {@code RAM16K} for {@code RAM16K[3]}.
+     */
+    static String part(String variable)
+    {
+        int bracket = variable.indexOf('[');
+        return bracket == -1 ? variable : variable.substring(0, bracket);
+    }
+
+    /**
+     * The index of the variable, 3 for {@code RAM16K[3]}, 0 if it has none.
+     */
+    static int index(String variable)
+    {
+        int bracket = variable.indexOf('[');
+        if (bracket == -1 || !variable.endsWith("]")) {
+            return 0;
+        }
+        String index = variable.substring(bracket + 1, variable.length() - 1);
+        try {
+            return index.isEmpty() ? 0 : Integer.parseInt(index);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid index in " + variable, e);
+        }
+    }
+}
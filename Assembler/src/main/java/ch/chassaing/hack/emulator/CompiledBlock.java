@@ -0,0 +1,16 @@
+package ch.chassaing.hack.emulator;
+
+/**
+ * A basic block of the ROM compiled to JVM bytecode by the {@link BlockCompiler}.
+ */
+interface CompiledBlock
+{
+    /**
+     * Executes all instructions of the block.
+     *
+     * @param registers A at index 0 and D at index 1, read at the start and written at the end
+     * @param dirty the screen words written, see {@link Framebuffer#mark(long[], int)}
+     * @return the address of the next instruction
+     */
+    int execute(short[] ram, int[] registers, long[] dirty);
+}
@@ -0,0 +1,104 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The Computer chip of chapter 5 on the {@link HackCpu}, one instruction per
+ * clock cycle. Unlike the emulator, the chip never halts: the endless loop at
+ * the end of a program keeps running, and the ROM after the program is full
+ * of {@code @0} instructions. With reset set, the instruction is executed and
+ * the PC goes to 0 afterwards.
+ * <p>
+ * NOT threadsafe
+ */
+final class ComputerChip
+        implements Chip
+{
+    private static final int RAM16K_SIZE = 16384;
+    private static final int SCREEN = 16384;
+    private static final int SCREEN_SIZE = 8192;
+    private static final int KEYBOARD = 24576;
+
+    private final HackCpu cpu = new HackCpu();
+    private boolean reset = false;
+
+    ComputerChip()
+    {
+        cpu.restore(HackCpu.ROM_SIZE, 0, 0, 0, 0, false);
+    }
+
+    @Override
+    public void set(String variable, int value)
+    {
+        switch (Chip.part(variable)) {
+            case "reset" -> reset = value != 0;
+            case "RAM16K" -> cpu.poke(address(variable, 0, RAM16K_SIZE), value);
+            case "Screen" -> cpu.poke(address(variable, SCREEN, SCREEN_SIZE), value);
+            case "Keyboard" -> cpu.poke(KEYBOARD, value);
+            default -> throw new IllegalArgumentException("Computer has no input " + variable);
+        }
+    }
+
+    @Override
+    public int get(String variable)
+    {
+        return switch (Chip.part(variable)) {
+            case "reset" -> reset ? 1 : 0;
+            case "ARegister" -> cpu.a();
+            case "DRegister" -> cpu.d();
+            case "PC" -> cpu.pc();
+            case "RAM16K" -> cpu.peek(address(variable, 0, RAM16K_SIZE));
+            case "Screen" -> cpu.peek(address(variable, SCREEN, SCREEN_SIZE));
+            case "Keyboard" -> cpu.peek(KEYBOARD);
+            case "ROM32K" -> cpu.rom()[address(variable, 0, HackCpu.ROM_SIZE)];
+            default -> throw new IllegalArgumentException("Computer has no part " + variable);
+        };
+    }
+
+    @Override
+    public void tick()
+    {
+        cpu.run(1);
+        // clears the halted flag as well, the chip loops on
+        cpu.jump(reset ? 0 : cpu.pc());
+    }
+
+    @Override
+    public void tock()
+    {
+        // the emulator shows the new state right after the instruction
+    }
+
+    /**
+     * Replaces the ROM, the registers and the RAM keep their content.
+     */
+    @Override
+    public void load(String part, Path file)
+            throws IOException
+    {
+        if (!part.equals("ROM32K")) {
+            throw new IllegalArgumentException("Computer has no part " + part + " to load");
+        }
+        RomImage program = RomImage.read(file);
+        if (program.size() > HackCpu.ROM_SIZE) {
+            throw new IllegalArgumentException(file + " does not fit into the ROM");
+        }
+        short[] rom = cpu.rom();
+        for (int address = 0; address < HackCpu.ROM_SIZE; address++) {
+            rom[address] = address < program.size() ? (short) program.get(address) : 0;
+        }
+        cpu.restore(HackCpu.ROM_SIZE, cpu.a(), cpu.d(), cpu.pc(), cpu.cycles(), false);
+    }
+
+    private static int address(String variable, int base, int size)
+    {
+        int index = Chip.index(variable);
+        if (index < 0 || index >= size) {
+            throw new IllegalArgumentException("Index out of range in " + variable);
+        }
+        return base + index;
+    }
+}
@@ -0,0 +1,100 @@
+package ch.chassaing.hack.emulator;
+
+import java.nio.file.Path;
+
+/**
+ * The CPU chip of chapter 5 on its own, the instruction and inM come from the
+ * test script. The tick computes the next A, D and PC, which the internal
+ * parts {@code ARegister[]}, {@code DRegister[]} and {@code PC[]} show at once;
+ * the outputs only change with the tock. outM, writeM and addressM are
+ * computed from the current instruction, inM and the outputs of the registers.
+ * <p>
+ * NOT threadsafe
+ */
+final class CpuChip
+        implements Chip
+{
+    private static final int C_INSTRUCTION = 1 << 15;
+    private static final int A_BIT = 1 << 12;
+
+    private int inM = 0;
+    private int instruction = 0;
+    private boolean reset = false;
+    private int a = 0;
+    private int d = 0;
+    private int pc = 0;
+    private int nextA = 0;
+    private int nextD = 0;
+    private int nextPc = 0;
+
+    @Override
+    public void set(String variable, int value)
+    {
+        switch (Chip.part(variable)) {
+            case "inM" -> inM = (short) value;
+            case "instruction" -> instruction = value & 0xFFFF;
+            case "reset" -> reset = value != 0;
+            default -> throw new IllegalArgumentException("CPU has no input " + variable);
+        }
+    }
+
+    @Override
+    public int get(String variable)
+    {
+        return switch (Chip.part(variable)) {
+            case "inM" -> inM;
+            case "instruction" -> instruction;
+            case "reset" -> reset ? 1 : 0;
+            case "outM" -> aluOut();
+            case "writeM" -> isC() && (instruction & MicroOps.STORE_M << 3) != 0 ? 1 : 0;
+            case "addressM" -> a & HackCpu.ADDRESS_MASK;
+            case "pc" -> pc;
+            case "ARegister" -> nextA;
+            case "DRegister" -> nextD;
+            case "PC" -> nextPc;
+            default -> throw new IllegalArgumentException("CPU has no pin " + variable);
+        };
+    }
+
+    @Override
+    public void tick()
+    {
+        if (isC()) {
+            int out = aluOut();
+            int dest = instruction >>> 3;
+            nextA = (dest & MicroOps.STORE_A) != 0 ? out : a;
+            nextD = (dest & MicroOps.STORE_D) != 0 ? out : d;
+            nextPc = HackCpu.taken(out, instruction & 7) ? a & HackCpu.ADDRESS_MASK : pc + 1;
+        } else {
+            nextA = instruction;
+            nextD = d;
+            nextPc = pc + 1;
+        }
+        nextPc = reset ? 0 : nextPc & HackCpu.ADDRESS_MASK;
+    }
+
+    @Override
+    public void tock()
+    {
+        a = nextA;
+        d = nextD;
+        pc = nextPc;
+    }
+
+    @Override
+    public void load(String part, Path file)
+    {
+        throw new IllegalArgumentException("CPU has no part " + part + " to load");
+    }
+
+    private boolean isC()
+    {
+        return (instruction & C_INSTRUCTION) != 0;
+    }
+
+    private int aluOut()
+    {
+        int y = (instruction & A_BIT) != 0 ? inM : a;
+        return (short) HackCpu.alu(instruction >>> 6, d, y);
+    }
+}
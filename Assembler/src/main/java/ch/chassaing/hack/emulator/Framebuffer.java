@@ -0,0 +1,121 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.SymbolTableImpl;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The screen of a {@link HackCpu} as a 512x256 image with 1 bit per pixel.
+ * The CPU marks every screen word it writes in a bitset, {@link #update()}
+ * only converts these words instead of the whole screen memory.
+ * <p>
+ * The pixels are packed like the raw export and the PNG: 64 bytes per row,
+ * the leftmost pixel in the highest bit, 1 is black. In the screen memory
+ * the leftmost pixel of a word is its lowest bit.
+ * <p>
+ * NOT threadsafe
+ */
+public final class Framebuffer
+{
+    public static final int WIDTH = 512;
+    public static final int HEIGHT = 256;
+    /** the first word of the screen memory */
+    public static final int SCREEN = SymbolTableImpl.SCREEN_ADDRESS;
+    /** the number of words of the screen memory */
+    public static final int WORDS = SymbolTableImpl.KEYBOARD_ADDRESS - SCREEN;
+    /** the size of a raw frame */
+    public static final int RAW_BYTES = WIDTH * HEIGHT / Byte.SIZE;
+
+    private final HackCpu cpu;
+    private final BufferedImage image;
+    private final byte[] pixels;
+
+    /**
+     * Converts the whole screen of the CPU once, afterwards only the words written.
+     */
+    public Framebuffer(HackCpu cpu)
+    {
+        this.cpu = cpu;
+        byte[] colors = {(byte) 0xFF, 0};
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY,
+                                  new IndexColorModel(1, 2, colors, colors, colors));
+        pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Arrays.fill(cpu.dirty(), -1L);
+        update();
+    }
+
+    /**
+     * Marks the word at the RAM address as written if it is part of the screen.
+     */
+    static void mark(long[] dirty, int address)
+    {
+        int word = address - SCREEN;
+        if (word >= 0 && word < WORDS) {
+            dirty[word >>> 6] |= 1L << word;
+        }
+    }
+
+    /**
+     * Converts the words written since the last update.
+     *
+     * @return the number of converted words, 0 if the frame did not change
+     */
+    public int update()
+    {
+        long[] dirty = cpu.dirty();
+        int converted = 0;
+        for (int i = 0; i < dirty.length; i++) {
+            long bits = dirty[i];
+            if (bits == 0) {
+                continue;
+            }
+            dirty[i] = 0;
+            while (bits != 0) {
+                int word = i << 6 | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                // reversed, the leftmost pixel is in bit 15
+                int reversed = Integer.reverse(cpu.peek(SCREEN + word)) >>> 16;
+                pixels[word << 1] = (byte) (reversed >>> 8);
+                pixels[word << 1 | 1] = (byte) reversed;
+                converted++;
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * The frame as of the last update, it changes with the next update.
+     */
+    public BufferedImage image()
+    {
+        return image;
+    }
+
+    public boolean isBlack(int x, int y)
+    {
+        return (pixels[y * (WIDTH / Byte.SIZE) + x / Byte.SIZE] & 0x80 >>> (x % Byte.SIZE)) != 0;
+    }
+
+    public void writePng(OutputStream out)
+            throws IOException
+    {
+        if (!ImageIO.write(image, "png", out)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    /**
+     * Writes the {@link #RAW_BYTES} of the frame, row by row.
+     */
+    public void writeRaw(OutputStream out)
+            throws IOException
+    {
+        out.write(pixels);
+    }
+}
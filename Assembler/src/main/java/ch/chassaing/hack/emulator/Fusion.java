@@ -0,0 +1,53 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.expression.CInstruction;
+import ch.chassaing.hack.expression.Computation;
+import ch.chassaing.hack.expression.Destination;
+import ch.chassaing.hack.expression.Jump;
+
+/**
+ * The pairs of an A-instruction and the following C-instruction which the
+ * {@link HackCpu} executes as one superinstruction. They are the most
+ * frequent pairs in the output of the VM translator.
+ */
+public enum Fusion
+{
+    LOAD_D_M("@X / D=M", Destination.D, Computation.M, Jump.NONE),
+    LOAD_D_A("@X / D=A", Destination.D, Computation.A, Jump.NONE),
+    LOAD_M_D("@X / M=D", Destination.M, Computation.D, Jump.NONE),
+    LOAD_A_M("@X / A=M", Destination.A, Computation.M, Jump.NONE),
+    POP("@X / AM=M-1", Destination.AM, Computation.M_MINUS_ONE, Jump.NONE),
+    INCREMENT("@X / M=M+1", Destination.M, Computation.M_PLUS_ONE, Jump.NONE),
+    JUMP("@X / 0;JMP", Destination.NONE, Computation.ZERO, Jump.JMP),
+    /** any jump on D, the condition is kept in the jump bits */
+    JUMP_D("@X / D;J..", Destination.NONE, Computation.D, null);
+
+    /** the C-instruction without its two unused bits */
+    private static final int FIELDS = 0x9FFF;
+    private static final int JUMP_BITS = Jump.JMP.code;
+
+    public final String pattern;
+    private final int word;
+    private final boolean anyJump;
+
+    Fusion(String pattern,
+           Destination dest,
+           Computation comp,
+           Jump jump)
+    {
+        this.pattern = pattern;
+        this.anyJump = jump == null;
+        this.word = CInstruction.encode(dest, comp, anyJump ? Jump.NONE : jump) & FIELDS;
+    }
+
+    /**
+     * True if the C-instruction word is the second instruction of the pair.
+     */
+    boolean matches(int instruction)
+    {
+        if (anyJump) {
+            return (instruction & FIELDS & ~JUMP_BITS) == word && (instruction & JUMP_BITS) != 0;
+        }
+        return (instruction & FIELDS) == word;
+    }
+}
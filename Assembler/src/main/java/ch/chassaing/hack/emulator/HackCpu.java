@@ -0,0 +1,617 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.expression.Computation;
+import ch.chassaing.hack.expression.Destination;
+import ch.chassaing.hack.expression.Jump;
+
+import java.util.Arrays;
+
+import static ch.chassaing.hack.emulator.MicroOps.*;
+
+/**
+ * The Hack CPU with its ROM and RAM, without screen and keyboard devices.
+ * The screen and keyboard are just words of the RAM.
+ * <p>
+ * The instructions are decoded with the bit layouts of {@link Computation},
+ * {@link Destination} and {@link Jump} once, when the program is loaded,
+ * see {@link MicroOps}. The loop in {@link #run(long)} only works on the
+ * arrays and local variables, it allocates nothing. The {@link Fusion}
+ * pairs are executed in one step, {@link #hits(Fusion)} tells how often.
+ * Every write to the screen memory is marked for the {@link Framebuffer}.
+ * <p>
+ * A program halts when it reaches the usual endless loop {@code (END) @END / 0;JMP},
+ * i.e. a jump that is taken to the instruction before it, which loads its own
+ * address and does not store anything. It halts as well when it runs past
+ * its last instruction.
+ * <p>
+ * NOT threadsafe
+ */
+public final class HackCpu
+{
+    public static final int ROM_SIZE = RomImage.ROM_SIZE;
+    public static final int RAM_SIZE = 32768;
+    /** the RAM and the ROM are addressed with the lower 15 bits */
+    public static final int ADDRESS_MASK = 0x7FFF;
+
+    /** the ALU control bits zx, nx, zy, ny, f and no, from msb to lsb, below the a bit */
+    private static final int A_BIT = 1 << 6;
+    private static final int ZX = 1 << 5;
+    private static final int NX = 1 << 4;
+    private static final int ZY = 1 << 3;
+    private static final int NY = 1 << 2;
+    private static final int F = 1 << 1;
+    private static final int NO = 1;
+
+    private final short[] rom = new short[ROM_SIZE];
+    private final short[] ram = new short[RAM_SIZE];
+    private final MicroOps microOps = new MicroOps(ROM_SIZE);
+    private final long[] fusionHits = new long[Fusion.values().length];
+    /** A and D while compiled blocks run */
+    private final int[] registers = new int[2];
+    /** the screen words written since the last {@link Framebuffer#update()} */
+    private final long[] dirty = new long[Framebuffer.WORDS / Long.SIZE];
+    /** null if hot blocks are not compiled */
+    private BlockCompiler blockCompiler = null;
+    /** null if not profiling */
+    private Profile profile = null;
+    /** null if KBD is only changed by poke */
+    private Keyboard keyboard = null;
+    /** null if not tracing */
+    private TraceWriter trace = null;
+    private int programSize = 0;
+    private int a = 0;
+    private int d = 0;
+    private int pc = 0;
+    private long cycles = 0;
+    private boolean halted = false;
+
+    /**
+     * Replaces the ROM with the program, clears the RAM and resets the CPU.
+     */
+    public void load(RomImage program)
+    {
+        if (program.size() > ROM_SIZE) {
+            throw new IllegalArgumentException("Program has " + program.size() + " words, the ROM only " + ROM_SIZE);
+        }
+        Arrays.fill(rom, (short) 0);
+        for (int address = 0; address < program.size(); address++) {
+            rom[address] = (short) program.get(address);
+        }
+        programSize = program.size();
+        romChanged();
+        Arrays.fill(ram, (short) 0);
+        Arrays.fill(dirty, -1L);
+        reset();
+    }
+
+    private void romChanged()
+    {
+        microOps.decode(rom, programSize, profile == null && trace == null);
+        if (blockCompiler != null) {
+            blockCompiler.reset(programSize);
+        }
+    }
+
+    /**
+     * Takes over the state of a {@link Snapshot}, ROM and RAM are already in place.
+     */
+    void restore(int programSize, int a, int d, int pc, long cycles, boolean halted)
+    {
+        this.programSize = programSize;
+        romChanged();
+        reset();
+        Arrays.fill(dirty, -1L);
+        this.a = a;
+        this.d = d;
+        this.pc = pc & ADDRESS_MASK;
+        this.cycles = cycles;
+        this.halted = halted;
+    }
+
+    /**
+     * Continues with the instruction at the address, also after the program
+     * halted. A, D and the RAM keep their content.
+     */
+    void jump(int address)
+    {
+        pc = address & ADDRESS_MASK;
+        halted = false;
+    }
+
+    /**
+     * Starts the program again at address 0, the RAM keeps its content.
+     */
+    public void reset()
+    {
+        a = 0;
+        d = 0;
+        pc = 0;
+        cycles = 0;
+        halted = false;
+        Arrays.fill(fusionHits, 0);
+    }
+
+    /**
+     * Compiles the hot basic blocks of the program to JVM bytecode, see
+     * {@link BlockCompiler}. The pairs executed by compiled blocks are not
+     * counted in {@link #hits(Fusion)}.
+     */
+    public void setCompileHotBlocks(boolean enabled)
+    {
+        if (enabled && blockCompiler == null) {
+            blockCompiler = new BlockCompiler(microOps);
+            blockCompiler.reset(programSize);
+        } else if (!enabled) {
+            blockCompiler = null;
+        }
+    }
+
+    /**
+     * Counts the executions of every address and the taken and not taken
+     * jumps into the profile, null stops profiling. While profiling, no
+     * pairs are fused and no blocks are compiled, so every instruction is
+     * counted at its own address.
+     */
+    public void setProfile(Profile profile)
+    {
+        this.profile = profile;
+        microOps.decode(rom, programSize, profile == null && trace == null);
+    }
+
+    /**
+     * Writes every executed instruction to the trace, null stops tracing.
+     * While tracing, the instructions are executed one by one, without
+     * fused pairs, compiled blocks or profiling.
+     */
+    public void setTrace(TraceWriter trace)
+    {
+        this.trace = trace;
+        microOps.decode(rom, programSize, profile == null && trace == null);
+    }
+
+    /**
+     * The number of blocks compiled since the program was loaded.
+     */
+    public int compiledBlocks()
+    {
+        return blockCompiler == null ? 0 : blockCompiler.compiledBlocks();
+    }
+
+    /**
+     * Stores the keys of the keyboard into KBD at the cycles of its events,
+     * null detaches it.
+     */
+    public void setKeyboard(Keyboard keyboard)
+    {
+        this.keyboard = keyboard;
+    }
+
+    /**
+     * Executes instructions until the program halts or maxCycles instructions
+     * were executed. With a keyboard, the instructions are executed up to the
+     * next event, so that the loop itself does not look at the keyboard.
+     *
+     * @return the number of executed instructions
+     */
+    public long run(long maxCycles)
+    {
+        if (keyboard == null) {
+            return execute(maxCycles);
+        }
+        long executed = 0;
+        while (executed < maxCycles && !halted) {
+            keyboard.apply(this);
+            executed += execute(Math.min(maxCycles - executed, keyboard.next(cycles) - cycles));
+        }
+        return executed;
+    }
+
+    private long execute(long maxCycles)
+    {
+        if (trace != null) {
+            return traceSteps(maxCycles);
+        }
+        if (blockCompiler == null || profile != null) {
+            return interpret(maxCycles, false);
+        }
+
+        final BlockCompiler blockCompiler = this.blockCompiler;
+        final short[] ram = this.ram;
+        final int[] registers = this.registers;
+        final long[] dirty = this.dirty;
+        long executed = 0;
+        while (executed < maxCycles && !halted) {
+            int start = pc;
+            CompiledBlock block = blockCompiler.block(start);
+            int length = blockCompiler.length(start);
+            if (block != null && maxCycles - executed >= length) {
+                registers[0] = a;
+                registers[1] = d;
+                pc = block.execute(ram, registers, dirty);
+                a = registers[0];
+                d = registers[1];
+                executed += length;
+                cycles += length;
+            } else {
+                blockCompiler.enter(start);
+                executed += interpret(maxCycles - executed, true);
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * The interpreter, it stops after the first jump instruction if stopAfterJump is true.
+     */
+    private long interpret(long maxCycles, boolean stopAfterJump)
+    {
+        if (halted) {
+            return 0;
+        }
+        final short[] ram = this.ram;
+        final long[] dirty = this.dirty;
+        final byte[] ops = microOps.ops;
+        final byte[] dests = microOps.dests;
+        final byte[] jumps = microOps.jumps;
+        final short[] immediates = microOps.immediates;
+        final long[] fusionHits = this.fusionHits;
+        final long[] executions = profile == null ? null : profile.executions;
+        final long[] takenJumps = profile == null ? null : profile.taken;
+        final long[] notTakenJumps = profile == null ? null : profile.notTaken;
+        int a = this.a;
+        int d = this.d;
+        int pc = this.pc;
+        long executed = 0;
+        loop:
+        while (executed < maxCycles) {
+            int op = ops[pc];
+            if (op >= PAIR && executed + 1 == maxCycles) {
+                // no room for both instructions, only execute the load
+                op = LOAD;
+            }
+            int out;
+            switch (op) {
+                case LOAD -> {
+                    if (executions != null) {
+                        executions[pc]++;
+                    }
+                    a = immediates[pc];
+                    pc = (pc + 1) & ADDRESS_MASK;
+                    executed++;
+                    continue;
+                }
+                case END -> {
+                    halted = true;
+                    break loop;
+                }
+                case LOOP -> {
+                    a = immediates[pc];
+                    pc = a;
+                    executed += 2;
+                    halted = true;
+                    break loop;
+                }
+                case LOAD_D_M -> {
+                    a = immediates[pc];
+                    d = ram[a];
+                    fusionHits[LOAD_D_M - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case LOAD_D_A -> {
+                    a = immediates[pc];
+                    d = a;
+                    fusionHits[LOAD_D_A - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case LOAD_M_D -> {
+                    a = immediates[pc];
+                    ram[a] = (short) d;
+                    Framebuffer.mark(dirty, a);
+                    fusionHits[LOAD_M_D - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case LOAD_A_M -> {
+                    a = ram[immediates[pc]];
+                    fusionHits[LOAD_A_M - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case POP -> {
+                    int x = immediates[pc];
+                    a = (short) (ram[x] - 1);
+                    ram[x] = (short) a;
+                    Framebuffer.mark(dirty, x);
+                    fusionHits[POP - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case INCREMENT -> {
+                    a = immediates[pc];
+                    ram[a] = (short) (ram[a] + 1);
+                    Framebuffer.mark(dirty, a);
+                    fusionHits[INCREMENT - LOAD_D_M]++;
+                    pc = (pc + 2) & ADDRESS_MASK;
+                    executed += 2;
+                    continue;
+                }
+                case JUMP -> {
+                    a = immediates[pc];
+                    fusionHits[JUMP - LOAD_D_M]++;
+                    pc = a;
+                    executed += 2;
+                    if (stopAfterJump) {
+                        break loop;
+                    }
+                    continue;
+                }
+                case JUMP_D -> {
+                    a = immediates[pc];
+                    fusionHits[JUMP_D - LOAD_D_M]++;
+                    executed += 2;
+                    if (!taken(d, jumps[pc])) {
+                        pc = (pc + 2) & ADDRESS_MASK;
+                        if (stopAfterJump) {
+                            break loop;
+                        }
+                        continue;
+                    }
+                    if (a == pc) {
+                        // (X) @X / D;JGT loops with the same D forever
+                        halted = true;
+                        break loop;
+                    }
+                    pc = a;
+                    if (stopAfterJump) {
+                        break loop;
+                    }
+                    continue;
+                }
+                case ZERO -> out = 0;
+                case ONE -> out = 1;
+                case MINUS_ONE -> out = -1;
+                case D -> out = d;
+                case A -> out = a;
+                case M -> out = ram[a & ADDRESS_MASK];
+                case NOT_D -> out = ~d;
+                case NOT_A -> out = ~a;
+                case NOT_M -> out = ~ram[a & ADDRESS_MASK];
+                case MINUS_D -> out = -d;
+                case MINUS_A -> out = -a;
+                case MINUS_M -> out = -ram[a & ADDRESS_MASK];
+                case D_PLUS_ONE -> out = d + 1;
+                case A_PLUS_ONE -> out = a + 1;
+                case M_PLUS_ONE -> out = ram[a & ADDRESS_MASK] + 1;
+                case D_MINUS_ONE -> out = d - 1;
+                case A_MINUS_ONE -> out = a - 1;
+                case M_MINUS_ONE -> out = ram[a & ADDRESS_MASK] - 1;
+                case D_PLUS_A -> out = d + a;
+                case D_PLUS_M -> out = d + ram[a & ADDRESS_MASK];
+                case D_MINUS_A -> out = d - a;
+                case D_MINUS_M -> out = d - ram[a & ADDRESS_MASK];
+                case A_MINUS_D -> out = a - d;
+                case M_MINUS_D -> out = ram[a & ADDRESS_MASK] - d;
+                case D_AND_A -> out = d & a;
+                case D_AND_M -> out = d & ram[a & ADDRESS_MASK];
+                case D_OR_A -> out = d | a;
+                case D_OR_M -> out = d | ram[a & ADDRESS_MASK];
+                case ALU -> out = alu(immediates[pc], d, a, ram);
+                default -> throw new IllegalStateException("Unknown operation " + op + " at " + pc);
+            }
+            out = (short) out;
+            executed++;
+            if (executions != null) {
+                executions[pc]++;
+            }
+
+            int dest = dests[pc];
+            if ((dest & STORE_M) != 0) {
+                ram[a & ADDRESS_MASK] = (short) out;
+                Framebuffer.mark(dirty, a & ADDRESS_MASK);
+            }
+            if ((dest & STORE_D) != 0) {
+                d = out;
+            }
+            int target = a;
+            if ((dest & STORE_A) != 0) {
+                a = out;
+            }
+
+            int jump = jumps[pc];
+            if (jump == 0) {
+                pc = (pc + 1) & ADDRESS_MASK;
+            } else if (taken(out, jump)) {
+                if (takenJumps != null) {
+                    takenJumps[pc]++;
+                }
+                int next = target & ADDRESS_MASK;
+                if ((jump & SELF_LOOP) != 0 && next == pc - 1) {
+                    halted = true;
+                    pc = next;
+                    break;
+                }
+                pc = next;
+                if (stopAfterJump) {
+                    break;
+                }
+            } else {
+                if (notTakenJumps != null) {
+                    notTakenJumps[pc]++;
+                }
+                pc = (pc + 1) & ADDRESS_MASK;
+                if (stopAfterJump) {
+                    break;
+                }
+            }
+        }
+        this.a = a;
+        this.d = d;
+        this.pc = pc;
+        cycles += executed;
+        return executed;
+    }
+
+    /**
+     * Executes the instructions one by one and hands each to the trace.
+     */
+    private long traceSteps(long maxCycles)
+    {
+        final TraceWriter trace = this.trace;
+        final byte[] ops = microOps.ops;
+        final byte[] dests = microOps.dests;
+        final byte[] jumps = microOps.jumps;
+        final short[] immediates = microOps.immediates;
+        long executed = 0;
+        while (executed < maxCycles && !halted) {
+            int address = pc;
+            int op = ops[address];
+            if (op == END) {
+                halted = true;
+                break;
+            }
+            executed++;
+            cycles++;
+            if (op == LOAD) {
+                a = immediates[address];
+                pc = (address + 1) & ADDRESS_MASK;
+                trace.step(address, a, d, false, 0);
+                continue;
+            }
+
+            int out = (short) alu(immediates[address], d, a, ram);
+            int dest = dests[address];
+            int target = a;
+            if ((dest & STORE_M) != 0) {
+                ram[a & ADDRESS_MASK] = (short) out;
+                Framebuffer.mark(dirty, a & ADDRESS_MASK);
+            }
+            if ((dest & STORE_D) != 0) {
+                d = out;
+            }
+            if ((dest & STORE_A) != 0) {
+                a = out;
+            }
+            int jump = jumps[address];
+            pc = (address + 1) & ADDRESS_MASK;
+            if (jump != 0 && taken(out, jump)) {
+                pc = target & ADDRESS_MASK;
+                halted = (jump & SELF_LOOP) != 0 && pc == address - 1;
+            }
+            trace.step(address, a, d, (dest & STORE_M) != 0, out);
+        }
+        return executed;
+    }
+
+    static boolean taken(int value, int jump)
+    {
+        return ((value < 0 ? JLT : value == 0 ? JEQ : JGT) & jump) != 0;
+    }
+
+    /**
+     * The ALU as built in chapter 2, for the combinations of c bits which
+     * have no mnemonic.
+     */
+    private static int alu(int comp, int x, int a, short[] ram)
+    {
+        return alu(comp, x, (comp & A_BIT) != 0 ? ram[a & ADDRESS_MASK] : a);
+    }
+
+    /**
+     * The ALU with y already selected by the a bit of comp.
+     */
+    static int alu(int comp, int x, int y)
+    {
+        if ((comp & ZX) != 0) {
+            x = 0;
+        }
+        if ((comp & NX) != 0) {
+            x = ~x;
+        }
+        if ((comp & ZY) != 0) {
+            y = 0;
+        }
+        if ((comp & NY) != 0) {
+            y = ~y;
+        }
+        int out = (comp & F) != 0 ? x + y : x & y;
+        return (comp & NO) != 0 ? ~out : out;
+    }
+
+    public boolean isHalted()
+    {
+        return halted;
+    }
+
+    public int a()
+    {
+        return a;
+    }
+
+    public int d()
+    {
+        return d;
+    }
+
+    public int pc()
+    {
+        return pc;
+    }
+
+    /**
+     * The number of instructions executed since the last reset.
+     */
+    public long cycles()
+    {
+        return cycles;
+    }
+
+    /**
+     * How often the pair was executed as one step since the last reset.
+     */
+    public long hits(Fusion fusion)
+    {
+        return fusionHits[MicroOps.opOf(fusion) - LOAD_D_M];
+    }
+
+    public int programSize()
+    {
+        return programSize;
+    }
+
+    /**
+     * The signed value of the RAM word.
+     */
+    public int peek(int address)
+    {
+        return ram[address & ADDRESS_MASK];
+    }
+
+    public void poke(int address, int value)
+    {
+        ram[address & ADDRESS_MASK] = (short) value;
+        Framebuffer.mark(dirty, address & ADDRESS_MASK);
+    }
+
+    short[] rom()
+    {
+        return rom;
+    }
+
+    long[] dirty()
+    {
+        return dirty;
+    }
+
+    short[] ram()
+    {
+        return ram;
+    }
+}
@@ -0,0 +1,353 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.SourceMap;
+import org.apache.commons.cli.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs a .hack file, binary or ASCII, or continues a {@link Snapshot} on
+ * the {@link HackCpu} and prints the registers and the requested RAM words
+ * afterwards. With -profile, the hot spots are reported by the labels of
+ * the source map next to the file. The screen can be written as PNG or raw
+ * bits after the run or, with -frames, whenever it changed. Keys are
+ * pressed from a script, a recorded log or stdin. With -trace, every
+ * instruction is written to a compact trace file.
+ */
+public final class HackEmulator
+{
+    private static final long DEFAULT_CYCLES = 1_000_000_000L;
+    private static final long DEFAULT_FRAME_CYCLES = 1_000_000L;
+    private static final long DEFAULT_HOLD_CYCLES = 100_000L;
+    private static final int NEWLINE = 128;
+
+    private HackEmulator() { /* dont instantiate */ }
+
+    public static void main(String[] args)
+    {
+        Options options = options();
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Problem parsing command line");
+            throw new RuntimeException(e);
+        }
+        if (commandLine.getArgList().size() != 1) {
+            new HelpFormatter().printHelp("Usage: java -cp asm.jar " + HackEmulator.class.getName()
+                                          + " <hack or " + Snapshot.EXTENSION + " file>", options);
+            System.exit(64);
+        }
+
+        long maxCycles;
+        int[] ram;
+        RomImage program = null;
+        Path file = Path.of(commandLine.getArgList().get(0));
+        ProfileReport.Grouping grouping = null;
+        int top;
+        long frameCycles;
+        Keyboard keyboard = null;
+        io.vavr.control.Option<SourceMap> sourceMap = io.vavr.control.Option.none();
+        try {
+            maxCycles = Long.parseLong(commandLine.getOptionValue("cycles", Long.toString(DEFAULT_CYCLES)));
+            ram = range(commandLine.getOptionValue("ram", "0-15"));
+            if (!file.toString().endsWith(Snapshot.EXTENSION)) {
+                program = RomImage.read(file);
+            }
+            top = Integer.parseInt(commandLine.getOptionValue("top", "20"));
+            frameCycles = Long.parseLong(commandLine.getOptionValue("interval", Long.toString(DEFAULT_FRAME_CYCLES)));
+            if (frameCycles < 1) {
+                throw new IllegalArgumentException("interval must be positive");
+            }
+            if (commandLine.hasOption("keys")) {
+                keyboard = Keyboard.script(Path.of(commandLine.getOptionValue("keys")));
+            } else if (commandLine.hasOption("replay")) {
+                keyboard = Keyboard.replay(Path.of(commandLine.getOptionValue("replay")));
+            } else if (commandLine.hasOption("type")) {
+                keyboard = Keyboard.live(Long.parseLong(commandLine.getOptionValue("hold",
+                                                                                   Long.toString(DEFAULT_HOLD_CYCLES))));
+                typeFromStdin(keyboard);
+            } else if (commandLine.hasOption("record")) {
+                throw new IllegalArgumentException("-record needs -keys, -replay or -type");
+            }
+            if (commandLine.hasOption("profile")) {
+                grouping = ProfileReport.Grouping.valueOf(commandLine.getOptionValue("profile").toUpperCase());
+                sourceMap = SourceMap.forHackFile(file);
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+            return;
+        }
+
+        HackCpu cpu = new HackCpu();
+        cpu.setCompileHotBlocks(commandLine.hasOption("jit"));
+        try {
+            if (program == null) {
+                Snapshot.restore(cpu, file);
+            } else {
+                cpu.load(program);
+            }
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+        }
+        Profile profile = grouping == null ? null : new Profile();
+        cpu.setProfile(profile);
+        try {
+            for (String assignment : commandLine.getOptionValues("set") == null
+                                     ? new String[0]
+                                     : commandLine.getOptionValues("set")) {
+                int equals = assignment.indexOf('=');
+                if (equals == -1) {
+                    throw new IllegalArgumentException("Invalid assignment " + assignment);
+                }
+                cpu.poke(Integer.parseInt(assignment.substring(0, equals)),
+                         Integer.parseInt(assignment.substring(equals + 1)));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+        }
+        String screen = commandLine.getOptionValue("screen");
+        String frames = commandLine.getOptionValue("frames");
+        Framebuffer framebuffer = screen == null && frames == null ? null : new Framebuffer(cpu);
+        cpu.setKeyboard(keyboard);
+        TraceWriter trace = null;
+        if (commandLine.hasOption("trace")) {
+            try {
+                trace = TraceWriter.open(Path.of(commandLine.getOptionValue("trace")), cpu,
+                                         TraceWriter.DEFAULT_INTERVAL);
+            } catch (IOException e) {
+                System.out.println("Problem writing trace " + commandLine.getOptionValue("trace"));
+                System.exit(128);
+            }
+            cpu.setTrace(trace);
+        }
+        long start = System.nanoTime();
+        try {
+            if (frames == null) {
+                cpu.run(maxCycles);
+            } else {
+                int written = runFrames(cpu, framebuffer, maxCycles, frameCycles, Path.of(frames),
+                                        commandLine.hasOption("raw"));
+                System.out.printf("%d frames written to %s%n", written, frames);
+            }
+        } catch (IOException e) {
+            System.out.println("Problem writing frames to " + frames + ": " + e.getMessage());
+            System.exit(128);
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("%s after %d instructions in %.3f ms (%.1f M instructions/s)%n",
+                          cpu.isHalted() ? "Halted" : "Stopped",
+                          cpu.cycles(),
+                          nanos / 1e6,
+                          cpu.cycles() * 1e3 / Math.max(1, nanos));
+        System.out.printf("A=%d D=%d PC=%d%n", cpu.a(), cpu.d(), cpu.pc());
+        if (commandLine.hasOption("jit")) {
+            System.out.printf("%d blocks compiled%n", cpu.compiledBlocks());
+        }
+        for (Fusion fusion : Fusion.values()) {
+            System.out.printf("%-12s executed %d times as one step%n", fusion.pattern, cpu.hits(fusion));
+        }
+        for (int address = ram[0]; address <= ram[1]; address++) {
+            System.out.printf("RAM[%d]=%d%n", address, cpu.peek(address));
+        }
+        if (screen != null) {
+            framebuffer.update();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Path.of(screen)))) {
+                if (screen.endsWith(".png")) {
+                    framebuffer.writePng(out);
+                } else {
+                    framebuffer.writeRaw(out);
+                }
+            } catch (IOException e) {
+                System.out.println("Problem writing screen " + screen);
+                System.exit(128);
+            }
+        }
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (IOException e) {
+                System.out.println("Problem writing trace " + commandLine.getOptionValue("trace"));
+                System.exit(128);
+            }
+            System.out.printf("Traced %d instructions in %d bytes (%.2f bytes per instruction)%n",
+                              trace.records(),
+                              trace.bytes(),
+                              (double) trace.bytes() / Math.max(1, trace.records()));
+        }
+        if (commandLine.hasOption("record")) {
+            try {
+                keyboard.writeLog(Path.of(commandLine.getOptionValue("record")));
+            } catch (IOException e) {
+                System.out.println("Problem writing keyboard log " + commandLine.getOptionValue("record"));
+                System.exit(128);
+            }
+        }
+        if (commandLine.hasOption("save")) {
+            try {
+                Snapshot.save(cpu, Path.of(commandLine.getOptionValue("save")));
+            } catch (IOException e) {
+                System.out.println("Problem writing snapshot " + commandLine.getOptionValue("save"));
+                System.exit(128);
+            }
+        }
+        if (profile != null) {
+            if (sourceMap.isEmpty()) {
+                System.out.println("No source map for " + file + ", reporting addresses");
+            }
+            ProfileReport.of(profile, sourceMap, grouping).writeTo(System.out, top);
+        }
+        if (!cpu.isHalted()) {
+            System.exit(1);
+        }
+    }
+
+    static Options options()
+    {
+        Options options = new Options();
+        options.addOption(Option.builder("cycles")
+                                  .hasArg()
+                                  .desc("Stop after this many instructions, defaults to " + DEFAULT_CYCLES)
+                                  .build());
+        options.addOption(Option.builder("ram")
+                                  .hasArg()
+                                  .desc("RAM addresses to print, e.g. 0-15 or 256, defaults to 0-15")
+                                  .build());
+        options.addOption("jit", "Compile hot basic blocks to JVM bytecode");
+        options.addOption(Option.builder("profile")
+                                  .hasArg()
+                                  .desc("Count the executions of every address and report them by address, "
+                                        + "label or function")
+                                  .build());
+        options.addOption(Option.builder("save")
+                                  .hasArg()
+                                  .desc("Save the state after the run to a snapshot file, "
+                                        + "which can be run instead of a hack file")
+                                  .build());
+        options.addOption(Option.builder("top")
+                                  .hasArg()
+                                  .desc("Number of hot spots in the profile, defaults to 20")
+                                  .build());
+        options.addOption(Option.builder("set")
+                                  .hasArg()
+                                  .desc("Set a RAM word before the run, e.g. -set 0=3, may be repeated")
+                                  .build());
+        options.addOption(Option.builder("screen")
+                                  .hasArg()
+                                  .desc("Write the screen after the run to a file, "
+                                        + "as PNG if it ends with .png, else as raw 512x256 bits")
+                                  .build());
+        options.addOption(Option.builder("frames")
+                                  .hasArg()
+                                  .desc("Write the screen to this directory whenever it changed, "
+                                        + "checked every -interval instructions")
+                                  .build());
+        options.addOption(Option.builder("interval")
+                                  .hasArg()
+                                  .desc("Instructions between two frames, defaults to " + DEFAULT_FRAME_CYCLES)
+                                  .build());
+        options.addOption("raw", "Write the frames as raw 512x256 bits instead of PNG");
+        options.addOption(Option.builder("keys")
+                                  .hasArg()
+                                  .desc("Press keys from a script of '<cycle> <key>' lines")
+                                  .build());
+        options.addOption(Option.builder("replay")
+                                  .hasArg()
+                                  .desc("Press the keys of a log written with -record")
+                                  .build());
+        options.addOption("type", "Press the keys typed on stdin while the program runs");
+        options.addOption(Option.builder("hold")
+                                  .hasArg()
+                                  .desc("Instructions a typed key is held, defaults to " + DEFAULT_HOLD_CYCLES)
+                                  .build());
+        options.addOption(Option.builder("trace")
+                                  .hasArg()
+                                  .desc("Write every executed instruction to a trace file, "
+                                        + "see " + TraceReader.class.getSimpleName())
+                                  .build());
+        options.addOption(Option.builder("record")
+                                  .hasArg()
+                                  .desc("Write the pressed keys to a log for -replay")
+                                  .build());
+        return options;
+    }
+
+    /**
+     * Types the characters of stdin on the keyboard, a line separator as NEWLINE.
+     */
+    private static void typeFromStdin(Keyboard keyboard)
+    {
+        Thread reader = new Thread(() -> {
+            try {
+                int c;
+                while ((c = System.in.read()) != -1) {
+                    if (c != '\r') {
+                        keyboard.type(c == '\n' ? NEWLINE : c);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Problem reading stdin: " + e.getMessage());
+            }
+        }, "stdin-keyboard");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Runs the CPU in slices of frameCycles and writes a numbered frame
+     * after every slice that changed the screen.
+     *
+     * @return the number of frames written
+     */
+    private static int runFrames(HackCpu cpu,
+                                 Framebuffer framebuffer,
+                                 long maxCycles,
+                                 long frameCycles,
+                                 Path directory,
+                                 boolean raw)
+            throws IOException
+    {
+        Files.createDirectories(directory);
+        int written = 0;
+        long remaining = maxCycles;
+        while (remaining > 0 && !cpu.isHalted()) {
+            remaining -= cpu.run(Math.min(frameCycles, remaining));
+            if (framebuffer.update() == 0) {
+                continue;
+            }
+            written++;
+            Path frame = directory.resolve(String.format("frame-%05d.%s", written, raw ? "raw" : "png"));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(frame))) {
+                if (raw) {
+                    framebuffer.writeRaw(out);
+                } else {
+                    framebuffer.writePng(out);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Parses "from-to" or a single address into {from, to}.
+     */
+    private static int[] range(String text)
+    {
+        int dash = text.indexOf('-');
+        int from = Integer.parseInt(dash == -1 ? text : text.substring(0, dash));
+        int to = dash == -1 ? from : Integer.parseInt(text.substring(dash + 1));
+        if (from < 0 || to >= HackCpu.RAM_SIZE || from > to) {
+            throw new IllegalArgumentException("Invalid RAM range " + text);
+        }
+        return new int[]{from, to};
+    }
+}
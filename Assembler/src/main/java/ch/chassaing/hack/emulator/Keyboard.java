@@ -0,0 +1,282 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.SymbolTableImpl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Key presses for the KBD register of a {@link HackCpu}, as events of a
+ * cycle and the key code from then on, 0 for no key. The CPU runs up to the
+ * cycle of the next event and then stores its key, see
+ * {@link HackCpu#setKeyboard(Keyboard)}, so the reads of KBD cost nothing.
+ * <p>
+ * The events come from a script, from a log or are typed while the program
+ * runs. Every applied event is kept, {@link #writeLog(Path)} records them
+ * so that the run can be replayed exactly.
+ * <p>
+ * NOT threadsafe, except {@link #type(int)}
+ */
+public final class Keyboard
+{
+    public static final int ADDRESS = SymbolTableImpl.KEYBOARD_ADDRESS;
+    public static final String LOG_EXTENSION = ".hackkeys";
+
+    /** the key codes of the Hack computer that are not characters */
+    private static final Map<String, Integer> NAMES = Map.ofEntries(
+            Map.entry("NONE", 0),
+            Map.entry("NEWLINE", 128),
+            Map.entry("BACKSPACE", 129),
+            Map.entry("LEFT", 130),
+            Map.entry("UP", 131),
+            Map.entry("RIGHT", 132),
+            Map.entry("DOWN", 133),
+            Map.entry("HOME", 134),
+            Map.entry("END", 135),
+            Map.entry("PAGEUP", 136),
+            Map.entry("PAGEDOWN", 137),
+            Map.entry("INSERT", 138),
+            Map.entry("DELETE", 139),
+            Map.entry("ESC", 140));
+    private static final int MAGIC = 'H' << 24 | 'K' << 16 | 'L' << 8 | '1';
+
+    private long[] cycles;
+    private short[] keys;
+    private int size;
+    /** the next event to apply */
+    private int cursor = 0;
+    /** null if no keys are typed */
+    private final Queue<Integer> typed;
+    /** how long a typed key is held */
+    private final long holdCycles;
+
+    private Keyboard(long[] cycles, short[] keys, int size, boolean live, long holdCycles)
+    {
+        this.cycles = cycles;
+        this.keys = keys;
+        this.size = size;
+        typed = live ? new ConcurrentLinkedQueue<>() : null;
+        this.holdCycles = holdCycles;
+    }
+
+    /**
+     * A keyboard for keys typed while the program runs, each is held for holdCycles.
+     */
+    public static Keyboard live(long holdCycles)
+    {
+        if (holdCycles < 1) {
+            throw new IllegalArgumentException("Keys must be held at least 1 cycle");
+        }
+        return new Keyboard(new long[16], new short[16], 0, true, holdCycles);
+    }
+
+    /**
+     * Reads a script with one event per line, blank lines and lines starting
+     * with # are ignored:
+     * <pre>
+     * &lt;cycle&gt; &lt;key&gt;
+     * </pre>
+     * The key is a key code, a character in single quotes like {@code 'a'} or
+     * a name like NEWLINE, LEFT or NONE. The cycles must not decrease.
+     */
+    public static Keyboard script(Path file)
+            throws IOException
+    {
+        Keyboard keyboard = new Keyboard(new long[16], new short[16], 0, false, 0);
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            String text = line.strip();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            String[] words = text.split("\\s+", 2);
+            if (words.length != 2) {
+                throw new IllegalArgumentException(file + " line " + lineNumber + ": cycle and key expected");
+            }
+            try {
+                keyboard.add(Long.parseLong(words[0]), key(words[1].strip()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(file + " line " + lineNumber + ": " + e.getMessage(), e);
+            }
+        }
+        return keyboard;
+    }
+
+    private static int key(String key)
+    {
+        if (key.length() == 3 && key.charAt(0) == '\'' && key.charAt(2) == '\'') {
+            return key.charAt(1);
+        }
+        Integer named = NAMES.get(key.toUpperCase());
+        if (named != null) {
+            return named;
+        }
+        if (key.length() >= 2 && key.charAt(0) == 'F' && Character.isDigit(key.charAt(1))) {
+            int function = Integer.parseInt(key.substring(1));
+            if (function >= 1 && function <= 12) {
+                return 140 + function;
+            }
+        }
+        return Integer.parseInt(key);
+    }
+
+    /**
+     * Reads a log written by {@link #writeLog(Path)}.
+     */
+    public static Keyboard replay(Path log)
+            throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(log)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(log + " is not a keyboard log");
+            }
+            long size = readVarLong(in);
+            if (size < 0 || size > Integer.MAX_VALUE - 8) {
+                throw new IOException(log + " has an invalid number of events: " + size);
+            }
+            // the arrays grow with the events actually read, the count is not trusted
+            Keyboard keyboard = new Keyboard(new long[16], new short[16], 0, false, 0);
+            long cycle = 0;
+            for (long i = 0; i < size; i++) {
+                cycle += readVarLong(in);
+                keyboard.add(cycle, (int) readVarLong(in));
+            }
+            return keyboard;
+        } catch (EOFException e) {
+            throw new IOException(log + " is truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(log + " is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the applied events, each as the varint delta of its cycle and the varint key.
+     */
+    public void writeLog(Path log)
+            throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(log)))) {
+            out.writeInt(MAGIC);
+            writeVarLong(out, cursor);
+            long cycle = 0;
+            for (int i = 0; i < cursor; i++) {
+                writeVarLong(out, cycles[i] - cycle);
+                writeVarLong(out, keys[i] & 0xFFFF);
+                cycle = cycles[i];
+            }
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value)
+            throws IOException
+    {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in)
+            throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint");
+    }
+
+    private void add(long cycle, int key)
+    {
+        if (cycle < 0 || (size > 0 && cycle < cycles[size - 1])) {
+            throw new IllegalArgumentException("Cycle " + cycle + " is before the previous event");
+        }
+        if (key < 0 || key > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid key " + key);
+        }
+        if (size == cycles.length) {
+            cycles = Arrays.copyOf(cycles, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        cycles[size] = cycle;
+        keys[size] = (short) key;
+        size++;
+    }
+
+    /**
+     * Types a key, it is pressed at the next check of a live keyboard.
+     * Can be called from any thread.
+     */
+    public void type(int key)
+    {
+        if (typed == null) {
+            throw new IllegalStateException("Keys can only be typed on a live keyboard");
+        }
+        typed.add(key);
+    }
+
+    /**
+     * Stores the keys of the events up to the current cycle of the CPU
+     * into KBD. A typed key is pressed now, when no key is held.
+     */
+    void apply(HackCpu cpu)
+    {
+        long now = cpu.cycles();
+        if (typed != null && cursor == size && !typed.isEmpty()) {
+            add(now, typed.poll());
+            add(now + holdCycles, 0);
+        }
+        while (cursor < size && cycles[cursor] <= now) {
+            cpu.poke(ADDRESS, keys[cursor]);
+            cursor++;
+        }
+    }
+
+    /**
+     * The cycle of the next event after now, a live keyboard is checked
+     * every holdCycles for typed keys.
+     */
+    long next(long now)
+    {
+        long next = cursor < size ? cycles[cursor] : Long.MAX_VALUE;
+        return typed == null ? next : Math.min(next, now + holdCycles);
+    }
+
+    /**
+     * Starts again with the first event, for a CPU that was reset.
+     */
+    public void rewind()
+    {
+        cursor = 0;
+    }
+
+    /**
+     * The number of events applied so far.
+     */
+    public int applied()
+    {
+        return cursor;
+    }
+}
@@ -0,0 +1,206 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.expression.Computation;
+import ch.chassaing.hack.expression.Destination;
+import ch.chassaing.hack.expression.Jump;
+
+import java.util.Arrays;
+
+/**
+ * The ROM decoded into parallel arrays, one entry per address: the
+ * operation, the d bits, the j bits and the value of an A-instruction.
+ * The {@link HackCpu} dispatches on the operation and never looks at the
+ * instruction bits while it runs.
+ * <p>
+ * An A-instruction that is followed by one of the {@link Fusion} pairs gets
+ * the operation of the pair. The following C-instruction keeps its own
+ * operation, so jumps to it work as before.
+ * <p>
+ * NOT threadsafe
+ */
+final class MicroOps
+{
+    // one operation per computation, see opOf(Computation)
+    static final int ZERO = 0;
+    static final int ONE = 1;
+    static final int MINUS_ONE = 2;
+    static final int D = 3;
+    static final int A = 4;
+    static final int M = 5;
+    static final int NOT_D = 6;
+    static final int NOT_A = 7;
+    static final int NOT_M = 8;
+    static final int MINUS_D = 9;
+    static final int MINUS_A = 10;
+    static final int MINUS_M = 11;
+    static final int D_PLUS_ONE = 12;
+    static final int A_PLUS_ONE = 13;
+    static final int M_PLUS_ONE = 14;
+    static final int D_MINUS_ONE = 15;
+    static final int A_MINUS_ONE = 16;
+    static final int M_MINUS_ONE = 17;
+    static final int D_PLUS_A = 18;
+    static final int D_PLUS_M = 19;
+    static final int D_MINUS_A = 20;
+    static final int D_MINUS_M = 21;
+    static final int A_MINUS_D = 22;
+    static final int M_MINUS_D = 23;
+    static final int D_AND_A = 24;
+    static final int D_AND_M = 25;
+    static final int D_OR_A = 26;
+    static final int D_OR_M = 27;
+    /** a combination of c bits without mnemonic, the immediate holds the a and c bits */
+    static final int ALU = 28;
+    /** A-instruction */
+    static final int LOAD = 29;
+    /** past the last instruction of the program */
+    static final int END = 30;
+    /** the operations from here on execute two instructions */
+    static final int PAIR = 31;
+    /** {@code (X) @X / 0;JMP}, the program halts */
+    static final int LOOP = 31;
+    static final int LOAD_D_M = 32;
+    static final int LOAD_D_A = 33;
+    static final int LOAD_M_D = 34;
+    static final int LOAD_A_M = 35;
+    static final int POP = 36;
+    static final int INCREMENT = 37;
+    static final int JUMP = 38;
+    static final int JUMP_D = 39;
+
+    static final int STORE_A = Destination.A.code >>> 3;
+    static final int STORE_D = Destination.D.code >>> 3;
+    static final int STORE_M = Destination.M.code >>> 3;
+    static final int JLT = Jump.JLT.code;
+    static final int JEQ = Jump.JEQ.code;
+    static final int JGT = Jump.JGT.code;
+    /**
+     * Added to the j bits of a jump without destination which directly follows
+     * the load of the address of that load. Such a jump loops forever once it is taken.
+     */
+    static final int SELF_LOOP = 1 << 3;
+
+    private static final int C_INSTRUCTION = 1 << 15;
+    private static final int COMP_SHIFT = Integer.numberOfTrailingZeros(Computation.ONE.code);
+    private static final int COMP_MASK = (Computation.ONE.code | Computation.M.code) >>> COMP_SHIFT;
+    private static final int DEST_SHIFT = Integer.numberOfTrailingZeros(Destination.M.code);
+    private static final int DEST_MASK = Destination.AMD.code >>> DEST_SHIFT;
+    private static final int JUMP_MASK = Jump.JMP.code;
+
+    /** the operations of the mnemonic computations by their a and c bits, ALU for the others */
+    private static final byte[] OPERATIONS = new byte[COMP_MASK + 1];
+
+    static {
+        Arrays.fill(OPERATIONS, (byte) ALU);
+        for (Computation comp : Computation.values()) {
+            OPERATIONS[comp.code >>> COMP_SHIFT] = (byte) opOf(comp);
+        }
+    }
+
+    final byte[] ops;
+    final byte[] dests;
+    final byte[] jumps;
+    final short[] immediates;
+
+    MicroOps(int size)
+    {
+        ops = new byte[size];
+        dests = new byte[size];
+        jumps = new byte[size];
+        immediates = new short[size];
+    }
+
+    /**
+     * Decodes the first programSize words of the ROM, the rest of the
+     * addresses get {@link #END}. The pairs are only fused if fuse is true.
+     */
+    void decode(short[] rom, int programSize, boolean fuse)
+    {
+        Arrays.fill(ops, programSize, ops.length, (byte) END);
+        Arrays.fill(dests, (byte) 0);
+        Arrays.fill(jumps, (byte) 0);
+        Arrays.fill(immediates, (short) 0);
+        for (int address = 0; address < programSize; address++) {
+            int instruction = rom[address];
+            if ((instruction & C_INSTRUCTION) == 0) {
+                ops[address] = (byte) LOAD;
+                immediates[address] = (short) instruction;
+                continue;
+            }
+            int comp = (instruction >>> COMP_SHIFT) & COMP_MASK;
+            int dest = (instruction >>> DEST_SHIFT) & DEST_MASK;
+            int jump = instruction & JUMP_MASK;
+            ops[address] = OPERATIONS[comp];
+            immediates[address] = (short) comp;
+            dests[address] = (byte) dest;
+            boolean selfLoop = address > 0 && rom[address - 1] == address - 1 && dest == 0 && jump != 0;
+            jumps[address] = (byte) (selfLoop ? jump | SELF_LOOP : jump);
+        }
+
+        for (int address = 0; fuse && address + 1 < programSize; address++) {
+            int next = rom[address + 1];
+            if (ops[address] != LOAD || (next & C_INSTRUCTION) == 0) {
+                continue;
+            }
+            if (rom[address] == address && dests[address + 1] == 0 && (next & JUMP_MASK) == JUMP_MASK) {
+                ops[address] = (byte) LOOP;
+                continue;
+            }
+            for (Fusion fusion : Fusion.values()) {
+                if (fusion.matches(next)) {
+                    ops[address] = (byte) opOf(fusion);
+                    jumps[address] = (byte) (next & JUMP_MASK);
+                    break;
+                }
+            }
+        }
+    }
+
+    static int opOf(Fusion fusion)
+    {
+        return switch (fusion) {
+            case LOAD_D_M -> LOAD_D_M;
+            case LOAD_D_A -> LOAD_D_A;
+            case LOAD_M_D -> LOAD_M_D;
+            case LOAD_A_M -> LOAD_A_M;
+            case POP -> POP;
+            case INCREMENT -> INCREMENT;
+            case JUMP -> JUMP;
+            case JUMP_D -> JUMP_D;
+        };
+    }
+
+    private static int opOf(Computation comp)
+    {
+        return switch (comp) {
+            case ZERO -> ZERO;
+            case ONE -> ONE;
+            case MINUS_ONE -> MINUS_ONE;
+            case D -> D;
+            case A -> A;
+            case M -> M;
+            case NOT_D -> NOT_D;
+            case NOT_A -> NOT_A;
+            case NOT_M -> NOT_M;
+            case MINUS_D -> MINUS_D;
+            case MINUS_A -> MINUS_A;
+            case MINUS_M -> MINUS_M;
+            case D_PLUS_ONE -> D_PLUS_ONE;
+            case A_PLUS_ONE -> A_PLUS_ONE;
+            case M_PLUS_ONE -> M_PLUS_ONE;
+            case D_MINUS_ONE -> D_MINUS_ONE;
+            case A_MINUS_ONE -> A_MINUS_ONE;
+            case M_MINUS_ONE -> M_MINUS_ONE;
+            case D_PLUS_A -> D_PLUS_A;
+            case D_PLUS_M -> D_PLUS_M;
+            case D_MINUS_A -> D_MINUS_A;
+            case D_MINUS_M -> D_MINUS_M;
+            case A_MINUS_D -> A_MINUS_D;
+            case M_MINUS_D -> M_MINUS_D;
+            case D_AND_A -> D_AND_A;
+            case D_AND_M -> D_AND_M;
+            case D_OR_A -> D_OR_A;
+            case D_OR_M -> D_OR_M;
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package ch.chassaing.hack.emulator;
+
+import java.util.Arrays;
+
+/**
+ * How often every ROM address was executed and, for the jump instructions,
+ * how often the jump was taken and not taken. Filled by the {@link HackCpu},
+ * see {@link HackCpu#setProfile(Profile)}.
+ * <p>
+ * NOT threadsafe
+ */
+public final class Profile
+{
+    final long[] executions = new long[HackCpu.ROM_SIZE];
+    final long[] taken = new long[HackCpu.ROM_SIZE];
+    final long[] notTaken = new long[HackCpu.ROM_SIZE];
+
+    public long executions(int address)
+    {
+        return executions[address];
+    }
+
+    public long taken(int address)
+    {
+        return taken[address];
+    }
+
+    public long notTaken(int address)
+    {
+        return notTaken[address];
+    }
+
+    /**
+     * The number of executed instructions, i.e. cycles.
+     */
+    public long total()
+    {
+        long total = 0;
+        for (long count : executions) {
+            total += count;
+        }
+        return total;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(executions, 0);
+        Arrays.fill(taken, 0);
+        Arrays.fill(notTaken, 0);
+    }
+}
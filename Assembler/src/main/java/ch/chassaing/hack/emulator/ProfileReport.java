@@ -0,0 +1,122 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.SourceMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The counts of a {@link Profile} summed up per address, label or VM
+ * function and sorted by cycles, the hottest first. The labels come from
+ * the source map of the program, without one every grouping reports
+ * single addresses.
+ */
+public final class ProfileReport
+{
+    public enum Grouping
+    {
+        /** every address on its own */
+        ADDRESS,
+        /** the addresses from one label to the next */
+        LABEL,
+        /**
+         * the labels up to the first '$', i.e. a function with its internal
+         * labels and return addresses as written by the VM translator
+         */
+        FUNCTION
+    }
+
+    /**
+     * The counts of one address, label or function.
+     *
+     * @param cycles the executed instructions
+     * @param taken the taken jumps
+     * @param notTaken the jumps that were not taken
+     */
+    public record Entry(String name, long cycles, long taken, long notTaken) {}
+
+    public final Grouping grouping;
+    /** all executed instructions */
+    public final long total;
+    /** the hottest first, without the entries that were never executed */
+    public final Seq<Entry> entries;
+
+    private ProfileReport(Grouping grouping, long total, Seq<Entry> entries)
+    {
+        this.grouping = requireNonNull(grouping);
+        this.total = total;
+        this.entries = requireNonNull(entries);
+    }
+
+    public static ProfileReport of(Profile profile,
+                                   Option<SourceMap> sourceMap,
+                                   Grouping grouping)
+    {
+        Map<String, long[]> counts = new LinkedHashMap<>();
+        long total = 0;
+        for (int address = 0; address < HackCpu.ROM_SIZE; address++) {
+            long executions = profile.executions(address);
+            if (executions == 0) {
+                continue;
+            }
+            total += executions;
+            long[] sums = counts.computeIfAbsent(name(address, sourceMap, grouping), name -> new long[3]);
+            sums[0] += executions;
+            sums[1] += profile.taken(address);
+            sums[2] += profile.notTaken(address);
+        }
+        Seq<Entry> entries = List.ofAll(counts.entrySet())
+                                 .map(e -> new Entry(e.getKey(), e.getValue()[0], e.getValue()[1], e.getValue()[2]))
+                                 .sortBy(entry -> -entry.cycles());
+        return new ProfileReport(grouping, total, entries);
+    }
+
+    private static String name(int address,
+                               Option<SourceMap> sourceMap,
+                               Grouping grouping)
+    {
+        if (sourceMap.isEmpty() || address >= sourceMap.get().size()) {
+            return Integer.toString(address);
+        }
+        SourceMap map = sourceMap.get();
+        int label = map.labelIndex(address);
+        String labelName = label == -1 ? "(start)" : map.labelName(label);
+        return switch (grouping) {
+            case ADDRESS -> address + " " + labelName
+                            + "+" + (address - (label == -1 ? 0 : map.labelAddress(label)))
+                            + " line " + map.lineNumber(address);
+            case LABEL -> labelName;
+            case FUNCTION -> labelName.indexOf('$') == -1
+                             ? labelName
+                             : labelName.substring(0, labelName.indexOf('$'));
+        };
+    }
+
+    /**
+     * The share of the entry in all cycles, in percent.
+     */
+    public double share(Entry entry)
+    {
+        return total == 0 ? 0 : 100.0 * entry.cycles() / total;
+    }
+
+    public void writeTo(PrintStream out, int top)
+    {
+        out.printf("%d cycles, the top %d by %s:%n", total, top, grouping.name().toLowerCase());
+        out.printf("%14s %7s %12s %12s  %s%n", "cycles", "share", "taken", "not taken", "name");
+        for (Entry entry : entries.take(top)) {
+            out.printf("%14d %6.2f%% %12d %12d  %s%n",
+                       entry.cycles(),
+                       share(entry),
+                       entry.taken(),
+                       entry.notTaken(),
+                       entry.name());
+        }
+    }
+}
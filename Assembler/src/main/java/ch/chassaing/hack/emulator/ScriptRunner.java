@@ -0,0 +1,162 @@
+package ch.chassaing.hack.emulator;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Runs the .tst scripts of the CPU and Computer chips, see {@link TestScript},
+ * on the emulator instead of the hardware simulator of the course. The
+ * arguments are scripts or directories, the scripts of a directory are all
+ * its .tst files. The scripts run concurrently on a work-stealing pool.
+ */
+public final class ScriptRunner
+{
+    private static final String EXTENSION = ".tst";
+
+    /**
+     * @param failure the first difference to the compare-to file or the error, empty if the script passed
+     */
+    public record Result(Path script, int lines, long nanos, io.vavr.control.Option<String> failure)
+    {
+        public boolean passed()
+        {
+            return failure.isEmpty();
+        }
+    }
+
+    private ScriptRunner() { /* dont instantiate */ }
+
+    public static void main(String[] args)
+    {
+        Options options = new Options();
+        options.addOption(Option.builder("jobs")
+                                  .hasArg()
+                                  .desc("Number of scripts run at the same time, " +
+                                        "defaults to the number of processors")
+                                  .build());
+        options.addOption("out", "Write the output-file of the scripts");
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Problem parsing command line");
+            throw new RuntimeException(e);
+        }
+        if (commandLine.getArgList().isEmpty()) {
+            new HelpFormatter().printHelp("Usage: java -cp asm.jar " + ScriptRunner.class.getName()
+                                          + " <tst file or directory>...", options);
+            System.exit(64);
+        }
+
+        Seq<Path> scripts;
+        int jobs;
+        try {
+            scripts = scripts(List.ofAll(commandLine.getArgList()).map(Path::of));
+            jobs = Integer.parseInt(commandLine.getOptionValue(
+                    "jobs", Integer.toString(Runtime.getRuntime().availableProcessors())));
+            if (jobs < 1) {
+                throw new IllegalArgumentException("jobs must be positive");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Seq<Result> results = run(scripts, jobs, commandLine.hasOption("out"));
+        report(results, System.nanoTime() - start, System.out);
+        if (results.exists(result -> !result.passed())) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * The scripts, with the .tst files of the directories in their place.
+     */
+    public static Seq<Path> scripts(Seq<Path> paths)
+            throws IOException
+    {
+        Seq<Path> scripts = List.empty();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    scripts = scripts.appendAll(List.ofAll(files.filter(file -> file.toString().endsWith(EXTENSION)))
+                                                    .sorted());
+                }
+            } else {
+                scripts = scripts.append(path);
+            }
+        }
+        return scripts;
+    }
+
+    /**
+     * Runs the scripts on jobs threads.
+     *
+     * @return the results in the order of the scripts
+     */
+    public static Seq<Result> run(Seq<Path> scripts,
+                                  int jobs,
+                                  boolean writeOutput)
+    {
+        ExecutorService executor = Executors.newWorkStealingPool(jobs);
+        try {
+            Seq<Future<Result>> futures = scripts.map(script -> executor.submit(() -> run(script, writeOutput)));
+            return futures.map(ScriptRunner::await);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Result run(Path script, boolean writeOutput)
+    {
+        long start = System.nanoTime();
+        try {
+            TestScript.Result result = TestScript.run(script, writeOutput);
+            return new Result(script, result.lines(), System.nanoTime() - start, result.failure());
+        } catch (IOException e) {
+            return new Result(script, 0, System.nanoTime() - start,
+                              io.vavr.control.Option.of("Problem reading " + script + ": " + e));
+        }
+    }
+
+    private static Result await(Future<Result> future)
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static void report(Seq<Result> results,
+                              long wallNanos,
+                              PrintStream out)
+    {
+        for (Result result : results) {
+            out.printf("%s %-40s %6d lines %10.3f ms%n",
+                       result.passed() ? "PASS" : "FAIL",
+                       result.script(),
+                       result.lines(),
+                       result.nanos() / 1e6);
+            result.failure().forEach(failure -> out.println("     " + failure));
+        }
+        int failed = results.count(result -> !result.passed());
+        out.printf("%d passed, %d failed in %.3f ms%n", results.size() - failed, failed, wallNanos / 1e6);
+    }
+}
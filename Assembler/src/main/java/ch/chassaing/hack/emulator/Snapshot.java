@@ -0,0 +1,84 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the whole state of a {@link HackCpu} to a file and restores it, so
+ * that a program can be started again from a point after its initialization.
+ * The file is memory-mapped, ROM and RAM are copied in one bulk operation each.
+ * <p>
+ * File layout, all numbers in {@link RomImage#BYTE_ORDER}:
+ * <pre>
+ * int     magic "HSS1", programSize, A, D, PC, halted (0 or 1)
+ * long    cycles
+ * short   rom[ROM_SIZE], ram[RAM_SIZE]
+ * </pre>
+ */
+public final class Snapshot
+{
+    public static final String EXTENSION = ".hacksnap";
+
+    private static final int MAGIC = 'H' | 'S' << 8 | 'S' << 16 | '1' << 24;
+    private static final int HEADER_BYTES = 6 * Integer.BYTES + Long.BYTES;
+    private static final int SIZE = HEADER_BYTES + (HackCpu.ROM_SIZE + HackCpu.RAM_SIZE) * Short.BYTES;
+
+    private Snapshot() { /* dont instantiate */ }
+
+    public static void save(HackCpu cpu, Path file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+            buffer.order(RomImage.BYTE_ORDER)
+                  .putInt(MAGIC)
+                  .putInt(cpu.programSize())
+                  .putInt(cpu.a())
+                  .putInt(cpu.d())
+                  .putInt(cpu.pc())
+                  .putInt(cpu.isHalted() ? 1 : 0)
+                  .putLong(cpu.cycles());
+            buffer.asShortBuffer().put(cpu.rom()).put(cpu.ram());
+            buffer.force();
+        }
+    }
+
+    /**
+     * Replaces the ROM, the RAM and the registers of the CPU with the saved
+     * ones. The ROM is decoded again, compiled blocks are dropped.
+     */
+    public static void restore(HackCpu cpu, Path file)
+            throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != SIZE) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE).order(RomImage.BYTE_ORDER);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            int programSize = buffer.getInt();
+            if (programSize < 0 || programSize > HackCpu.ROM_SIZE) {
+                throw new IOException(file + " has an invalid program size " + programSize);
+            }
+            int a = buffer.getInt();
+            int d = buffer.getInt();
+            int pc = buffer.getInt();
+            boolean halted = buffer.getInt() != 0;
+            long cycles = buffer.getLong();
+            buffer.asShortBuffer().get(cpu.rom()).get(cpu.ram());
+            cpu.restore(programSize, a, d, pc, cycles, halted);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package ch.chassaing.hack.emulator;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Executes a .tst script of the course on a {@link CpuChip} or a {@link ComputerChip}.
+ * The supported commands are load, output-file, compare-to, output-list,
+ * set, tick, tock, eval, output, echo, repeat with a count and the load of
+ * a part like {@code ROM32K load Max.hack}.
+ * <p>
+ * Every output line is compared with the next line of the compare-to file as
+ * soon as it is produced, a '*' in the compare-to file matches every
+ * character. The script stops at the first difference, like the tools of the
+ * course. The output is only written to the output-file if requested.
+ * <p>
+ * NOT threadsafe
+ */
+final class TestScript
+{
+    private record Token(String text, int line) {}
+
+    /**
+     * An entry of the output-list, e.g. {@code RAM16K[0]%D1.7.1}: the value
+     * as decimal, 7 characters wide, with 1 space to the left and the right.
+     */
+    private record Column(String variable, char format, int left, int length, int right)
+    {
+        int width()
+        {
+            return left + length + right;
+        }
+    }
+
+    private final Path directory;
+    private final java.util.List<Token> tokens;
+    private Chip chip = null;
+    private Seq<Column> columns = List.empty();
+    private Path outputFile = null;
+    private BufferedWriter output = null;
+    private BufferedReader comparison = null;
+    private int lines = 0;
+    private String failure = null;
+    private int time = 0;
+    private boolean ticked = false;
+
+    private TestScript(Path directory, java.util.List<Token> tokens)
+    {
+        this.directory = requireNonNull(directory);
+        this.tokens = requireNonNull(tokens);
+    }
+
+    /**
+     * The outcome of a script.
+     *
+     * @param lines the output lines, including the header
+     * @param failure the first difference to the compare-to file or the error
+     */
+    record Result(int lines, Option<String> failure) {}
+
+    /**
+     * Runs the script, the paths in it are relative to its directory.
+     *
+     * @param writeOutput whether the output-file is written
+     */
+    static Result run(Path script, boolean writeOutput)
+            throws IOException
+    {
+        TestScript testScript = new TestScript(script.toAbsolutePath().getParent(),
+                                               tokenize(Files.readString(script, StandardCharsets.UTF_8)));
+        try {
+            testScript.execute(0, testScript.tokens.size(), writeOutput);
+            testScript.finish();
+        } catch (IllegalArgumentException e) {
+            testScript.failure = e.getMessage();
+        } finally {
+            testScript.close();
+        }
+        return new Result(testScript.lines, Option.of(testScript.failure));
+    }
+
+    private static java.util.List<Token> tokenize(String script)
+    {
+        java.util.List<Token> tokens = new ArrayList<>();
+        int line = 1;
+        int i = 0;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (c == '\n') {
+                line++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (script.startsWith("//", i)) {
+                while (i < script.length() && script.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (script.startsWith("/*", i)) {
+                int end = script.indexOf("*/", i + 2);
+                end = end == -1 ? script.length() : end + 2;
+                line += (int) script.substring(i, end).chars().filter(ch -> ch == '\n').count();
+                i = end;
+            } else if (c == ',' || c == ';' || c == '{' || c == '}') {
+                tokens.add(new Token(String.valueOf(c), line));
+                i++;
+            } else if (c == '"') {
+                int end = script.indexOf('"', i + 1);
+                end = end == -1 ? script.length() : end + 1;
+                tokens.add(new Token(script.substring(i, end), line));
+                i = end;
+            } else {
+                int start = i;
+                while (i < script.length() && !isSeparator(script.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(script.substring(start, i), line));
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isSeparator(char c)
+    {
+        return Character.isWhitespace(c) || c == ',' || c == ';' || c == '{' || c == '}' || c == '"';
+    }
+
+    /**
+     * Executes the tokens from start to end, stops at the first failure.
+     */
+    private void execute(int start, int end, boolean writeOutput)
+            throws IOException
+    {
+        int i = start;
+        while (i < end && failure == null) {
+            Token token = tokens.get(i);
+            if (token.text().equals(",") || token.text().equals(";")) {
+                i++;
+            } else if (token.text().equals("repeat")) {
+                if (i + 2 >= end || !tokens.get(i + 2).text().equals("{")) {
+                    throw error(token, "repeat needs a count and a block");
+                }
+                int count = number(tokens.get(i + 1));
+                int close = closingBrace(i + 2, end);
+                for (int n = 0; n < count && failure == null; n++) {
+                    execute(i + 3, close, writeOutput);
+                }
+                i = close + 1;
+            } else {
+                java.util.List<Token> words = new ArrayList<>();
+                while (i < end && !isEndOfCommand(tokens.get(i).text())) {
+                    words.add(tokens.get(i));
+                    i++;
+                }
+                if (words.isEmpty()) {
+                    throw error(token, "Unexpected " + token.text());
+                }
+                command(words, writeOutput);
+            }
+        }
+    }
+
+    private static boolean isEndOfCommand(String token)
+    {
+        return token.equals(",") || token.equals(";") || token.equals("{") || token.equals("}");
+    }
+
+    private int closingBrace(int open, int end)
+    {
+        int depth = 0;
+        for (int i = open; i < end; i++) {
+            String text = tokens.get(i).text();
+            if (text.equals("{")) {
+                depth++;
+            } else if (text.equals("}") && --depth == 0) {
+                return i;
+            }
+        }
+        throw error(tokens.get(open), "{ is not closed");
+    }
+
+    private void command(java.util.List<Token> words, boolean writeOutput)
+            throws IOException
+    {
+        Token command = words.get(0);
+        switch (command.text()) {
+            case "load" -> chip = newChip(argument(words, 1));
+            case "output-file" -> outputFile = writeOutput ? path(argument(words, 1)) : null;
+            case "compare-to" -> comparison = Files.newBufferedReader(path(argument(words, 1)), StandardCharsets.UTF_8);
+            case "output-list" -> {
+                columns = List.ofAll(words.subList(1, words.size())).map(TestScript::column);
+                print(columns.map(TestScript::header).mkString("|", "|", "|"));
+            }
+            case "set" -> chip(command).set(argument(words, 1).text(), value(argument(words, 2)));
+            case "tick" -> {
+                chip(command).tick();
+                ticked = true;
+            }
+            case "tock" -> {
+                chip(command).tock();
+                ticked = false;
+                time++;
+            }
+            case "eval", "echo", "clear-echo" -> {
+                // the state is always evaluated, there is no GUI to echo to
+            }
+            case "output" -> {
+                Chip chip = chip(command);
+                print(columns.map(column -> format(column, chip)).mkString("|", "|", "|"));
+            }
+            default -> {
+                if (words.size() == 3 && words.get(1).text().equals("load")) {
+                    chip(command).load(command.text(), path(words.get(2)));
+                } else {
+                    throw error(command, "Unknown command " + command.text());
+                }
+            }
+        }
+    }
+
+    private static Chip newChip(Token chip)
+    {
+        return switch (chip.text()) {
+            case "CPU.hdl", "CPU" -> new CpuChip();
+            case "Computer.hdl", "Computer" -> new ComputerChip();
+            default -> throw error(chip, "The chip " + chip.text() + " is not supported");
+        };
+    }
+
+    /**
+     * The loaded chip, the command needs one.
+     */
+    private Chip chip(Token command)
+    {
+        if (chip == null) {
+            throw error(command, command.text() + " before load");
+        }
+        return chip;
+    }
+
+    private static Token argument(java.util.List<Token> words, int index)
+    {
+        if (index >= words.size()) {
+            throw error(words.get(0), words.get(0).text() + " needs " + index + " argument(s)");
+        }
+        return words.get(index);
+    }
+
+    private Path path(Token file)
+    {
+        return directory.resolve(file.text());
+    }
+
+    private static int number(Token token)
+    {
+        try {
+            return Integer.parseInt(token.text());
+        } catch (NumberFormatException e) {
+            throw error(token, "Number expected instead of " + token.text());
+        }
+    }
+
+    /**
+     * A value like 123, -1, %D123, %B0101 or %X7FFF.
+     */
+    private static int value(Token token)
+    {
+        String text = token.text();
+        try {
+            if (text.length() > 2 && text.charAt(0) == '%') {
+                return switch (text.charAt(1)) {
+                    case 'B' -> Integer.parseInt(text.substring(2), 2);
+                    case 'X' -> Integer.parseInt(text.substring(2), 16);
+                    case 'D' -> Integer.parseInt(text.substring(2));
+                    default -> throw error(token, "Unknown format in " + text);
+                };
+            }
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw error(token, "Value expected instead of " + text);
+        }
+    }
+
+    private static Column column(Token token)
+    {
+        String text = token.text();
+        int percent = text.indexOf('%');
+        String[] widths = percent == -1 ? new String[0] : text.substring(percent + 2).split("\\.");
+        if (widths.length != 3 || "BDSX".indexOf(text.charAt(percent + 1)) == -1) {
+            throw error(token, "Column like name%D1.6.1 expected instead of " + text);
+        }
+        try {
+            return new Column(text.substring(0, percent),
+                              text.charAt(percent + 1),
+                              Integer.parseInt(widths[0]),
+                              Integer.parseInt(widths[1]),
+                              Integer.parseInt(widths[2]));
+        } catch (NumberFormatException e) {
+            throw error(token, "Invalid widths in " + text);
+        }
+    }
+
+    /**
+     * The name of the variable centered, cut at the width of the column.
+     */
+    private static String header(Column column)
+    {
+        int width = column.width();
+        String name = column.variable();
+        if (name.length() >= width) {
+            return name.substring(0, width);
+        }
+        int left = (width - name.length()) / 2;
+        return " ".repeat(left) + name + " ".repeat(width - name.length() - left);
+    }
+
+    private String format(Column column, Chip chip)
+    {
+        String text;
+        if (column.variable().equals("time")) {
+            text = time + (ticked ? "+" : "");
+        } else {
+            int value = chip.get(column.variable());
+            text = switch (column.format()) {
+                case 'B' -> digits(Integer.toBinaryString(value & 0xFFFF), 16, column.length());
+                case 'X' -> digits(Integer.toHexString(value & 0xFFFF).toUpperCase(), 4, column.length());
+                default -> Integer.toString((short) value);
+            };
+        }
+        if (text.length() > column.length()) {
+            text = text.substring(text.length() - column.length());
+        }
+        String padding = " ".repeat(column.length() - text.length());
+        return " ".repeat(column.left())
+               + (column.format() == 'S' ? text + padding : padding + text)
+               + " ".repeat(column.right());
+    }
+
+    /**
+     * The lowest length digits, with leading zeros up to the word size.
+     */
+    private static String digits(String digits, int wordSize, int length)
+    {
+        String word = "0".repeat(Math.max(0, wordSize - digits.length())) + digits;
+        return word.length() > length ? word.substring(word.length() - length) : word;
+    }
+
+    private void print(String line)
+            throws IOException
+    {
+        lines++;
+        if (outputFile != null) {
+            if (output == null) {
+                output = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8);
+            }
+            output.write(line);
+            output.newLine();
+        }
+        if (comparison != null) {
+            String expected = comparison.readLine();
+            if (expected == null) {
+                failure = "Line " + lines + " is not in the compare-to file: " + line;
+            } else if (!matches(expected.stripTrailing(), line.stripTrailing())) {
+                failure = "Comparison failure at line " + lines + ":\n  expected " + expected + "\n  actual   " + line;
+            }
+        }
+    }
+
+    private static boolean matches(String expected, String actual)
+    {
+        if (expected.length() != actual.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (expected.charAt(i) != '*' && expected.charAt(i) != actual.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void finish()
+            throws IOException
+    {
+        if (failure == null && comparison != null) {
+            String rest = comparison.readLine();
+            if (rest != null) {
+                failure = "The output ends at line " + lines + ", the compare-to file goes on with " + rest;
+            }
+        }
+    }
+
+    private void close()
+            throws IOException
+    {
+        try {
+            if (output != null) {
+                output.close();
+            }
+        } finally {
+            if (comparison != null) {
+                comparison.close();
+            }
+        }
+    }
+
+    private static IllegalArgumentException error(Token token, String message)
+    {
+        return new IllegalArgumentException("Line " + token.line() + ": " + message);
+    }
+}
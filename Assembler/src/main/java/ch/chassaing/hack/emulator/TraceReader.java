@@ -0,0 +1,314 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import org.apache.commons.cli.*;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static ch.chassaing.hack.emulator.TraceWriter.*;
+
+/**
+ * Streams the records of a trace written by {@link TraceWriter}, one
+ * instruction after the other. {@link #seek(long)} starts at the checkpoint
+ * before the cycle and skips the records up to it.
+ * <p>
+ * NOT threadsafe
+ */
+public final class TraceReader
+        implements Closeable
+{
+    private final FileChannel channel;
+    private final long firstCycle;
+    private final long records;
+    private final long[] checkpointCycles;
+    private final long[] checkpointOffsets;
+    private final int[] checkpointRegisters;
+    private InputStream in;
+    /** the cycle of the next record */
+    private long next;
+    private long cycle;
+    private int pc;
+    private int a;
+    private int d;
+    private boolean written;
+    private int address;
+    private int value;
+
+    private TraceReader(FileChannel channel,
+                        long firstCycle,
+                        long records,
+                        long[] checkpointCycles,
+                        long[] checkpointOffsets,
+                        int[] checkpointRegisters)
+    {
+        this.channel = channel;
+        this.firstCycle = firstCycle;
+        this.records = records;
+        this.checkpointCycles = checkpointCycles;
+        this.checkpointOffsets = checkpointOffsets;
+        this.checkpointRegisters = checkpointRegisters;
+    }
+
+    public static TraceReader open(Path file)
+            throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES + FOOTER_BYTES) {
+                throw new IOException(file + " is not a trace");
+            }
+            ByteBuffer header = read(channel, 0, HEADER_BYTES);
+            ByteBuffer footer = read(channel, size - FOOTER_BYTES, FOOTER_BYTES);
+            if (header.getInt() != MAGIC || footer.getInt(FOOTER_BYTES - Integer.BYTES) != MAGIC) {
+                throw new IOException(file + " is not a complete trace");
+            }
+            header.getInt();
+            long firstCycle = header.getLong();
+            long indexOffset = footer.getLong();
+            int checkpoints = footer.getInt();
+            long records = footer.getLong();
+            if (indexOffset + (long) checkpoints * CHECKPOINT_BYTES + FOOTER_BYTES != size) {
+                throw new IOException(file + " has an invalid index");
+            }
+            ByteBuffer index = read(channel, indexOffset, checkpoints * CHECKPOINT_BYTES);
+            long[] cycles = new long[checkpoints];
+            long[] offsets = new long[checkpoints];
+            int[] registers = new int[checkpoints * 3];
+            for (int i = 0; i < checkpoints; i++) {
+                cycles[i] = index.getLong();
+                offsets[i] = index.getLong();
+                registers[i * 3] = index.getInt();
+                registers[i * 3 + 1] = index.getInt();
+                registers[i * 3 + 2] = index.getInt();
+            }
+            TraceReader reader = new TraceReader(channel, firstCycle, records, cycles, offsets, registers);
+            reader.seek(firstCycle);
+            return reader;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length)
+            throws IOException
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(RomImage.BYTE_ORDER);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * The next {@link #next()} reads the record of the cycle.
+     */
+    public void seek(long cycle)
+            throws IOException
+    {
+        if (cycle < firstCycle || cycle > lastCycle() + 1) {
+            throw new IllegalArgumentException("Cycle " + cycle + " is not in the trace, it has "
+                                               + firstCycle + " to " + lastCycle());
+        }
+        if (checkpointCycles.length == 0) {
+            // an empty trace
+            next = firstCycle;
+            return;
+        }
+        int checkpoint = 0;
+        for (int low = 0, high = checkpointCycles.length - 1; low <= high; ) {
+            int middle = (low + high) >>> 1;
+            if (checkpointCycles[middle] <= cycle) {
+                checkpoint = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        channel.position(checkpointOffsets[checkpoint]);
+        in = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+        next = checkpointCycles[checkpoint];
+        pc = checkpointRegisters[checkpoint * 3] - 1;
+        a = checkpointRegisters[checkpoint * 3 + 1];
+        d = checkpointRegisters[checkpoint * 3 + 2];
+        while (next < cycle) {
+            next();
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return false at the end of the trace
+     */
+    public boolean next()
+            throws IOException
+    {
+        if (next >= firstCycle + records) {
+            return false;
+        }
+        int flags = in.read();
+        if (flags == -1) {
+            throw new EOFException();
+        }
+        cycle = next++;
+        address = a & HackCpu.ADDRESS_MASK;
+        pc = (flags & JUMPED) != 0 ? pc + 1 + readZigzag() : pc + 1;
+        if ((flags & A_CHANGED) != 0) {
+            a += readZigzag();
+        }
+        if ((flags & D_CHANGED) != 0) {
+            d += readZigzag();
+        }
+        written = (flags & WRITTEN) != 0;
+        value = written ? readZigzag() : 0;
+        return true;
+    }
+
+    private int readZigzag()
+            throws IOException
+    {
+        int zigzag = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException();
+            }
+            zigzag |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        throw new IOException("Invalid varint in the trace");
+    }
+
+    public long firstCycle()
+    {
+        return firstCycle;
+    }
+
+    public long lastCycle()
+    {
+        return firstCycle + records - 1;
+    }
+
+    /**
+     * The cycle of the current record, i.e. the number of instructions executed before it.
+     */
+    public long cycle()
+    {
+        return cycle;
+    }
+
+    /**
+     * The address of the executed instruction.
+     */
+    public int pc()
+    {
+        return pc;
+    }
+
+    /**
+     * A after the instruction.
+     */
+    public int a()
+    {
+        return a;
+    }
+
+    /**
+     * D after the instruction.
+     */
+    public int d()
+    {
+        return d;
+    }
+
+    public boolean isWritten()
+    {
+        return written;
+    }
+
+    /**
+     * The RAM address written to, if {@link #isWritten()}.
+     */
+    public int address()
+    {
+        return address;
+    }
+
+    /**
+     * The value written to the RAM, if {@link #isWritten()}.
+     */
+    public int value()
+    {
+        return value;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Prints the records of a trace as text.
+     */
+    public static void main(String[] args)
+    {
+        Options options = new Options();
+        options.addOption(Option.builder("from")
+                                  .hasArg()
+                                  .desc("The first cycle to print, defaults to the start of the trace")
+                                  .build());
+        options.addOption(Option.builder("count")
+                                  .hasArg()
+                                  .desc("The number of records to print, defaults to 100")
+                                  .build());
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Problem parsing command line");
+            throw new RuntimeException(e);
+        }
+        if (commandLine.getArgList().size() != 1) {
+            new HelpFormatter().printHelp("Usage: java -cp asm.jar " + TraceReader.class.getName()
+                                          + " <" + TraceWriter.EXTENSION + " file>", options);
+            System.exit(64);
+        }
+
+        try (TraceReader reader = open(Path.of(commandLine.getArgList().get(0)))) {
+            if (commandLine.hasOption("from")) {
+                reader.seek(Long.parseLong(commandLine.getOptionValue("from")));
+            }
+            long count = Long.parseLong(commandLine.getOptionValue("count", "100"));
+            for (long i = 0; i < count && reader.next(); i++) {
+                System.out.printf("%12d %5d A=%-6d D=%-6d%s%n",
+                                  reader.cycle(),
+                                  reader.pc(),
+                                  reader.a(),
+                                  reader.d(),
+                                  reader.isWritten()
+                                  ? " RAM[" + reader.address() + "]=" + reader.value()
+                                  : "");
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(64);
+        }
+    }
+}
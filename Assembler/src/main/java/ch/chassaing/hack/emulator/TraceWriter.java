@@ -0,0 +1,291 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes every instruction a {@link HackCpu} executes to a trace file, see
+ * {@link HackCpu#setTrace(TraceWriter)}. A record only holds what changed,
+ * as deltas in varints, so most instructions take one or two bytes. The
+ * records are collected in one of two buffers while a background thread
+ * writes the other one, the CPU only waits if the disk falls behind.
+ * <p>
+ * File layout, the fixed size numbers in {@link RomImage#BYTE_ORDER}:
+ * <pre>
+ * header      int magic "HTR1", int checkpoint interval, long first cycle, int PC, A, D
+ * records     byte flags (JUMPED, A_CHANGED, D_CHANGED, WRITTEN),
+ *             varint zigzag deltas of PC to PC + 1, of A and of D, varint zigzag M if written
+ * checkpoints long cycle, long offset of its record, int PC + 1 of the record before, A, D
+ * footer      long offset of the checkpoints, int checkpoints, long records, int magic
+ * </pre>
+ * M is written to the address in A before the instruction. There is a
+ * checkpoint every interval records, so {@link TraceReader} can seek.
+ * <p>
+ * NOT threadsafe
+ */
+public final class TraceWriter
+        implements Closeable
+{
+    public static final String EXTENSION = ".hacktrace";
+    public static final int DEFAULT_INTERVAL = 1 << 16;
+
+    static final int MAGIC = 'H' << 24 | 'T' << 16 | 'R' << 8 | '1';
+    static final int JUMPED = 1;
+    static final int A_CHANGED = 1 << 1;
+    static final int D_CHANGED = 1 << 2;
+    static final int WRITTEN = 1 << 3;
+    static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES + 3 * Integer.BYTES;
+    static final int CHECKPOINT_BYTES = 2 * Long.BYTES + 3 * Integer.BYTES;
+    static final int FOOTER_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    /** flags and four varints of up to 5 bytes */
+    private static final int MAX_RECORD_BYTES = 1 + 4 * 5;
+    /** tells the background thread to stop */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final FileChannel channel;
+    private final int interval;
+    private final long firstCycle;
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(3);
+    private final Thread writer;
+    private volatile IOException failure = null;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position = HEADER_BYTES;
+    private long records = 0;
+    private int pc;
+    private int a;
+    private int d;
+    private long[] checkpointCycles = new long[16];
+    private long[] checkpointOffsets = new long[16];
+    private int[] checkpointRegisters = new int[16 * 3];
+    private int checkpoints = 0;
+
+    private TraceWriter(FileChannel channel, int interval, HackCpu cpu)
+    {
+        this.channel = channel;
+        this.interval = interval;
+        firstCycle = cpu.cycles();
+        pc = cpu.pc() - 1;
+        a = cpu.a();
+        d = cpu.d();
+        free.add(ByteBuffer.allocate(BUFFER_SIZE));
+        writer = new Thread(this::write, "trace-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts a trace at the current state of the CPU, it must be attached
+     * with {@link HackCpu#setTrace(TraceWriter)} before the CPU runs on.
+     *
+     * @param interval the number of records between two checkpoints
+     */
+    public static TraceWriter open(Path file, HackCpu cpu, int interval)
+            throws IOException
+    {
+        if (interval < 1) {
+            throw new IllegalArgumentException("The checkpoint interval must be positive");
+        }
+        FileChannel channel = FileChannel.open(file,
+                                               StandardOpenOption.CREATE,
+                                               StandardOpenOption.TRUNCATE_EXISTING,
+                                               StandardOpenOption.WRITE);
+        TraceWriter trace = new TraceWriter(channel, interval, cpu);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(RomImage.BYTE_ORDER)
+                                      .putInt(MAGIC)
+                                      .putInt(interval)
+                                      .putLong(trace.firstCycle)
+                                      .putInt(cpu.pc())
+                                      .putInt(cpu.a())
+                                      .putInt(cpu.d())
+                                      .flip();
+        try {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        trace.writer.start();
+        return trace;
+    }
+
+    /**
+     * Writes the full buffers until the end, after a failure it only hands
+     * them back so that the CPU never waits forever.
+     */
+    private void write()
+    {
+        try {
+            ByteBuffer next;
+            while ((next = full.take()) != END) {
+                try {
+                    if (failure == null) {
+                        next.flip();
+                        while (next.hasRemaining()) {
+                            channel.write(next);
+                        }
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    next.clear();
+                    free.add(next);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records an executed instruction.
+     *
+     * @param address the address of the instruction
+     * @param a A after the instruction
+     * @param d D after the instruction
+     * @param written whether M was written, to the address in A before the instruction
+     * @param value the value written to M
+     */
+    void step(int address, int a, int d, boolean written, int value)
+    {
+        if (records % interval == 0) {
+            checkpoint();
+        }
+        if (buffer.remaining() < MAX_RECORD_BYTES) {
+            swap();
+        }
+        int start = buffer.position();
+        int flags = (address != pc + 1 ? JUMPED : 0)
+                    | (a != this.a ? A_CHANGED : 0)
+                    | (d != this.d ? D_CHANGED : 0)
+                    | (written ? WRITTEN : 0);
+        buffer.put((byte) flags);
+        if ((flags & JUMPED) != 0) {
+            putZigzag(address - (pc + 1));
+        }
+        if ((flags & A_CHANGED) != 0) {
+            putZigzag(a - this.a);
+        }
+        if ((flags & D_CHANGED) != 0) {
+            putZigzag(d - this.d);
+        }
+        if (written) {
+            putZigzag((short) value);
+        }
+        position += buffer.position() - start;
+        records++;
+        pc = address;
+        this.a = a;
+        this.d = d;
+    }
+
+    private void putZigzag(int value)
+    {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            buffer.put((byte) (zigzag & 0x7F | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    private void checkpoint()
+    {
+        if (checkpoints == checkpointCycles.length) {
+            checkpointCycles = Arrays.copyOf(checkpointCycles, checkpoints * 2);
+            checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoints * 2);
+            checkpointRegisters = Arrays.copyOf(checkpointRegisters, checkpoints * 2 * 3);
+        }
+        checkpointCycles[checkpoints] = firstCycle + records;
+        checkpointOffsets[checkpoints] = position;
+        checkpointRegisters[checkpoints * 3] = pc + 1;
+        checkpointRegisters[checkpoints * 3 + 1] = a;
+        checkpointRegisters[checkpoints * 3 + 2] = d;
+        checkpoints++;
+    }
+
+    /**
+     * Hands the buffer to the background thread and continues with the other one.
+     */
+    private void swap()
+    {
+        if (failure != null) {
+            throw new UncheckedIOException("Problem writing the trace", failure);
+        }
+        try {
+            full.put(buffer);
+            buffer = free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing the trace", e);
+        }
+    }
+
+    /**
+     * The number of recorded instructions.
+     */
+    public long records()
+    {
+        return records;
+    }
+
+    /**
+     * The size of the file so far, without the checkpoints.
+     */
+    public long bytes()
+    {
+        return position;
+    }
+
+    /**
+     * Writes the last records and the checkpoints, waits for the background thread.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            full.put(buffer);
+            full.put(END);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the trace", e);
+        }
+        try (channel) {
+            if (failure != null) {
+                throw failure;
+            }
+            ByteBuffer index = ByteBuffer.allocate(checkpoints * CHECKPOINT_BYTES + FOOTER_BYTES)
+                                         .order(RomImage.BYTE_ORDER);
+            for (int i = 0; i < checkpoints; i++) {
+                index.putLong(checkpointCycles[i])
+                     .putLong(checkpointOffsets[i])
+                     .putInt(checkpointRegisters[i * 3])
+                     .putInt(checkpointRegisters[i * 3 + 1])
+                     .putInt(checkpointRegisters[i * 3 + 2]);
+            }
+            index.putLong(position)
+                 .putInt(checkpoints)
+                 .putLong(records)
+                 .putInt(MAGIC)
+                 .flip();
+            while (index.hasRemaining()) {
+                channel.write(index);
+            }
+        }
+    }
+}
@@ -18,4 +18,20 @@ public final class Bits {
         }
         return out;
     }
+
+    /**
+     * Converts bits, least significant bit first, into an int and shifts
+     * it to the left by the given amount.
+     */
+    public static int toInt(boolean[] lsbFirst, int shift) {
+
+        requireNonNull(lsbFirst);
+        int value = 0;
+        for (int i = 0; i < lsbFirst.length; i++) {
+            if (lsbFirst[i]) {
+                value |= 1 << i;
+            }
+        }
+        return value << shift;
+    }
 }
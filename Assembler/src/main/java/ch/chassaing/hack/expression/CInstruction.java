@@ -1,15 +1,15 @@
 package ch.chassaing.hack.expression;
 
-import ch.chassaing.hack.MachineInstruction;
 import ch.chassaing.hack.SymbolTable;
 
-import java.util.BitSet;
-
 import static java.util.Objects.requireNonNull;
 
 public final class CInstruction
         extends Instruction
 {
+    /** the three most significant bits which mark a C-instruction */
+    private static final int C_INSTRUCTION = 0b111 << 13;
+
     public final Destination dest;
 
     public final Computation comp;
@@ -28,46 +28,16 @@ public final class CInstruction
         this.jump = requireNonNull(jump);
     }
 
-
     @Override
-    public MachineInstruction toMachineInstruction(SymbolTable unused)
+    public int toWord(SymbolTable unused)
     {
-        BitSet bitSet = calcBitSet();
-
-        byte[] bytes = bitSet.toByteArray(); // BitSet.toByteArray() is little endian
-        return new MachineInstruction(bytes[0], bytes[1]);
-    }
-
-    @Override
-    public String toAsciiInstruction(SymbolTable symbolTable)
-    {
-        BitSet bitSet = calcBitSet();
-
-        StringBuilder sb = new StringBuilder();
-        for (int i = bitSet.length()-1; i>=0; i--) {
-            boolean bit = bitSet.get(i);
-            sb.append(bit ? "1" : 0);
-        }
-        return sb.toString();
+        return encode(dest, comp, jump);
     }
 
-    private BitSet calcBitSet()
+    public static int encode(Destination dest,
+                             Computation comp,
+                             Jump jump)
     {
-        BitSet bitSet = new BitSet(16);
-        int i = 0;
-        for (boolean bit : jump.bits) {
-            bitSet.set(i++, bit);
-        }
-        for (boolean bit : dest.bits) {
-            bitSet.set(i++, bit);
-        }
-        for (boolean bit : comp.cBits) {
-            bitSet.set(i++, bit);
-        }
-        bitSet.set(i++, comp.aBit);
-        bitSet.set(i++, true);
-        bitSet.set(i++, true);
-        bitSet.set(i, true);
-        return bitSet;
+        return C_INSTRUCTION | comp.code | dest.code | jump.code;
     }
 }
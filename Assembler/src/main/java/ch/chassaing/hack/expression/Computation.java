@@ -1,6 +1,7 @@
 package ch.chassaing.hack.expression;
 
 import static ch.chassaing.hack.expression.Bits.flip;
+import static ch.chassaing.hack.expression.Bits.toInt;
 import static java.util.Objects.requireNonNull;
 
 public enum Computation {
@@ -38,10 +39,42 @@ public enum Computation {
     public final String stringRep;
     public final boolean aBit;
     public final boolean[] cBits;
+    /** the a and c bits at their position within the instruction */
+    public final int code;
+
+    private static final Computation[] BY_KEY = new Computation[Mnemonics.TABLE_SIZE];
+
+    static {
+        for (Computation comp : values()) {
+            BY_KEY[Mnemonics.key(comp.stringRep)] = comp;
+        }
+    }
 
     Computation(String stringRep, boolean aBit, boolean[] cBits) {
         this.stringRep = stringRep;
         this.aBit = requireNonNull(aBit);
         this.cBits = flip(requireNonNull(cBits));
+        this.code = (aBit ? 1 << 12 : 0) | toInt(this.cBits, 6);
+    }
+
+    public boolean readsA() {
+        return !aBit && stringRep.indexOf('A') != -1;
+    }
+
+    public boolean readsD() {
+        return stringRep.indexOf('D') != -1;
+    }
+
+    public boolean readsM() {
+        return aBit;
+    }
+
+    /**
+     * Looks up the computation whose mnemonic are the characters from start
+     * (inclusive) to end (exclusive). Returns null if there is none.
+     */
+    public static Computation fromMnemonic(CharSequence chars, int start, int end) {
+        int key = Mnemonics.key(chars, start, end);
+        return key == -1 ? null : BY_KEY[key];
     }
 }
@@ -1,6 +1,5 @@
 package ch.chassaing.hack.expression;
 
-import ch.chassaing.hack.MachineInstruction;
 import ch.chassaing.hack.SymbolTable;
 
 import java.math.BigInteger;
@@ -10,25 +9,32 @@ import static java.util.Objects.requireNonNull;
 public final class Constant
         extends Address
 {
-    private final BigInteger value;
+    /** the largest value that fits into the 15 bits of an A-instruction */
+    public static final int MAX_VALUE = (1 << 15) - 1;
+
+    public final int value;
 
     public Constant(int lineNumber,
                     String line,
-                    BigInteger value)
+                    int value)
     {
         super(lineNumber, line);
-        this.value = requireNonNull(value);
+        if (value < 0 || value > MAX_VALUE) {
+            throw new IllegalArgumentException("Constant out of range: " + value);
+        }
+        this.value = value;
     }
 
-    @Override
-    public MachineInstruction toMachineInstruction(SymbolTable symbolTable)
+    public Constant(int lineNumber,
+                    String line,
+                    BigInteger value)
     {
-        return MachineInstruction.fromBigInteger(value);
+        this(lineNumber, line, requireNonNull(value).intValueExact());
     }
 
     @Override
-    public String toAsciiInstruction(SymbolTable symbolTable)
+    public int toWord(SymbolTable symbolTable)
     {
-        return convertToAscii(value);
+        return value;
     }
 }
@@ -1,37 +1,74 @@
 package ch.chassaing.hack.expression;
 
-import java.util.function.Predicate;
-
 import static ch.chassaing.hack.expression.Bits.flip;
+import static ch.chassaing.hack.expression.Bits.toInt;
 import static java.util.Objects.requireNonNull;
 
 public enum Destination
 {
     // from most significant bit to least significant bit
-    NONE(s -> !s.contains("="), new boolean[]{false, false, false}),
-    M(s -> s.startsWith("M="), new boolean[]{false, false, true}),
-    D(s -> s.startsWith("D="), new boolean[]{false, true, false}),
-    DM(s -> s.startsWith("DM="), new boolean[]{false, true, true}),
-    MD(s -> s.startsWith("MD="), new boolean[]{false, true, true}),
-    A(s -> s.startsWith("A="), new boolean[]{true, false, false}),
-    AM(s -> s.startsWith("AM="), new boolean[]{true, false, true}),
-    MA(s -> s.startsWith("MA="), new boolean[]{true, false, true}),
-    AD(s -> s.startsWith("AD="), new boolean[]{true, true, false}),
-    DA(s -> s.startsWith("DA="), new boolean[]{true, true, false}),
-    DAM(s -> s.startsWith("DAM="), new boolean[]{true, true, true}),
-    AMD(s -> s.startsWith("AMD="), new boolean[]{true, true, true}),
-    MDA(s -> s.startsWith("DMA="), new boolean[]{true, true, true}),
-    ADM(s -> s.startsWith("ADM="), new boolean[]{true, true, true}),
-    DMA(s -> s.startsWith("ADM="), new boolean[]{true, true, true}),
-    MAD(s -> s.startsWith("ADM="), new boolean[]{true, true, true});
-
-    public final Predicate<String> match;
+    NONE(new boolean[]{false, false, false}),
+    M(new boolean[]{false, false, true}),
+    D(new boolean[]{false, true, false}),
+    DM(new boolean[]{false, true, true}),
+    MD(new boolean[]{false, true, true}),
+    A(new boolean[]{true, false, false}),
+    AM(new boolean[]{true, false, true}),
+    MA(new boolean[]{true, false, true}),
+    AD(new boolean[]{true, true, false}),
+    DA(new boolean[]{true, true, false}),
+    DAM(new boolean[]{true, true, true}),
+    AMD(new boolean[]{true, true, true}),
+    MDA(new boolean[]{true, true, true}),
+    ADM(new boolean[]{true, true, true}),
+    DMA(new boolean[]{true, true, true}),
+    MAD(new boolean[]{true, true, true});
+
     public final boolean[] bits;
+    /** the d bits at their position within the instruction */
+    public final int code;
+
+    private static final Destination[] BY_KEY = new Destination[Mnemonics.TABLE_SIZE];
+
+    static {
+        for (Destination dest : values()) {
+            if (dest != NONE) {
+                BY_KEY[Mnemonics.key(dest.name())] = dest;
+            }
+        }
+    }
 
-    Destination(Predicate<String> match,
-                boolean[] bits)
+    Destination(boolean[] bits)
     {
-        this.match = requireNonNull(match);
         this.bits = flip(requireNonNull(bits));
+        this.code = toInt(this.bits, 3);
+    }
+
+    public boolean storesA()
+    {
+        return (code & A.code) != 0;
+    }
+
+    public boolean storesD()
+    {
+        return (code & D.code) != 0;
+    }
+
+    public boolean storesM()
+    {
+        return (code & M.code) != 0;
+    }
+
+    /**
+     * Looks up the destination whose mnemonic (without the =) are the
+     * characters from start (inclusive) to end (exclusive). Returns null
+     * if there is none.
+     */
+    public static Destination fromMnemonic(CharSequence chars,
+                                           int start,
+                                           int end)
+    {
+        int key = Mnemonics.key(chars, start, end);
+        return key == -1 ? null : BY_KEY[key];
     }
 }
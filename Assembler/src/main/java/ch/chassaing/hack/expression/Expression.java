@@ -1,8 +1,5 @@
 package ch.chassaing.hack.expression;
 
-import ch.chassaing.hack.MachineInstruction;
-import ch.chassaing.hack.SymbolTable;
-
 public class Expression
 {
     public final int lineNumber;
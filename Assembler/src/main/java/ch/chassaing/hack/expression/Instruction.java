@@ -1,6 +1,5 @@
 package ch.chassaing.hack.expression;
 
-import ch.chassaing.hack.MachineInstruction;
 import ch.chassaing.hack.SymbolTable;
 
 /**
@@ -15,7 +14,8 @@ public abstract class Instruction
         super(lineNumber, line);
     }
 
-    public abstract MachineInstruction toMachineInstruction(SymbolTable symbolTable);
-
-    public abstract String toAsciiInstruction(SymbolTable symbolTable);
+    /**
+     * The 16 bit machine word of this instruction.
+     */
+    public abstract int toWord(SymbolTable symbolTable);
 }
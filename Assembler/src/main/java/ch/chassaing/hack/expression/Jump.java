@@ -1,26 +1,56 @@
 package ch.chassaing.hack.expression;
 
-import java.util.function.Predicate;
-
 import static ch.chassaing.hack.expression.Bits.flip;
+import static ch.chassaing.hack.expression.Bits.toInt;
 
 public enum Jump
 {
     // msb to lsb, will be flipped in constructor
-    NONE(s -> !s.contains(";"), new boolean[]{false, false, false}),
-    JGT(s -> s.endsWith(";JGT"), new boolean[]{false, false, true}),
-    JEQ(s -> s.endsWith(";JEQ"), new boolean[]{false, true, false}),
-    JGE(s -> s.endsWith(";JGE"), new boolean[]{false, true, true}),
-    JLT(s -> s.endsWith(";JLT"), new boolean[]{true, false, false}),
-    JNE(s -> s.endsWith(";JNE"), new boolean[]{true, false, true}),
-    JLE(s -> s.endsWith(";JLE"), new boolean[]{true, true, false}),
-    JMP(s -> s.endsWith(";JMP"), new boolean[]{true, true, true});
-    public final Predicate<String> matches;
+    NONE(new boolean[]{false, false, false}),
+    JGT(new boolean[]{false, false, true}),
+    JEQ(new boolean[]{false, true, false}),
+    JGE(new boolean[]{false, true, true}),
+    JLT(new boolean[]{true, false, false}),
+    JNE(new boolean[]{true, false, true}),
+    JLE(new boolean[]{true, true, false}),
+    JMP(new boolean[]{true, true, true});
     public final boolean[] bits;
+    /** the j bits at their position within the instruction */
+    public final int code;
+
+    private static final Jump[] BY_KEY = new Jump[Mnemonics.TABLE_SIZE];
 
-    Jump(Predicate<String> matches, boolean[] bits)
+    static {
+        for (Jump jump : values()) {
+            if (jump != NONE) {
+                BY_KEY[Mnemonics.key(jump.name())] = jump;
+            }
+        }
+    }
+
+    Jump(boolean[] bits)
     {
-        this.matches = matches;
         this.bits = flip(bits);
+        this.code = toInt(this.bits, 0);
+    }
+
+    /**
+     * True if the jump is taken for the given result of the computation.
+     */
+    public boolean test(int value)
+    {
+        return (value < 0 && (code & JLT.code) != 0)
+               || (value == 0 && (code & JEQ.code) != 0)
+               || (value > 0 && (code & JGT.code) != 0);
+    }
+
+    /**
+     * Looks up the jump whose mnemonic (without the ;) are the characters
+     * from start (inclusive) to end (exclusive). Returns null if there is none.
+     */
+    public static Jump fromMnemonic(CharSequence chars, int start, int end)
+    {
+        int key = Mnemonics.key(chars, start, end);
+        return key == -1 ? null : BY_KEY[key];
     }
 }
@@ -0,0 +1,62 @@
+package ch.chassaing.hack.expression;
+
+/**
+ * Perfect hash for the mnemonics of the dest, comp and jump parts of a
+ * C-instruction. Every mnemonic is at most three characters long and uses
+ * only a small alphabet, so the characters can be numbered and combined into
+ * a unique key which is used as index into a lookup table.
+ */
+final class Mnemonics
+{
+    private Mnemonics() { /* dont instantiate */ }
+
+    private static final String ALPHABET = "01-DAM!+&|JGTEQLNP";
+
+    private static final int RADIX = ALPHABET.length() + 1;
+
+    static final int MAX_LENGTH = 3;
+
+    /** Size of a table that can hold every possible key */
+    static final int TABLE_SIZE = RADIX * RADIX * RADIX;
+
+    /** 0 for characters that cannot be part of a mnemonic */
+    private static final byte[] CHAR_INDEX = new byte[128];
+
+    static {
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            CHAR_INDEX[ALPHABET.charAt(i)] = (byte) (i + 1);
+        }
+    }
+
+    /**
+     * Calculates the key of the characters from start (inclusive) to end
+     * (exclusive) or -1 if these characters cannot form a mnemonic.
+     */
+    static int key(CharSequence chars,
+                   int start,
+                   int end)
+    {
+        if (end <= start || end - start > MAX_LENGTH) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            int index = c < CHAR_INDEX.length ? CHAR_INDEX[c] : 0;
+            if (index == 0) {
+                return -1;
+            }
+            key = key * RADIX + index;
+        }
+        return key;
+    }
+
+    static int key(String mnemonic)
+    {
+        int key = key(mnemonic, 0, mnemonic.length());
+        if (key == -1) {
+            throw new IllegalArgumentException("Not a valid mnemonic: " + mnemonic);
+        }
+        return key;
+    }
+}
@@ -1,6 +1,5 @@
 package ch.chassaing.hack.expression;
 
-import ch.chassaing.hack.MachineInstruction;
 import ch.chassaing.hack.SymbolTable;
 
 import static java.util.Objects.requireNonNull;
@@ -8,7 +7,7 @@ import static java.util.Objects.requireNonNull;
 public final class Symbol
         extends Address
 {
-    private final String chars;
+    public final String chars;
 
     public Symbol(int lineNumber,
                   String line,
@@ -19,14 +18,8 @@ public final class Symbol
     }
 
     @Override
-    public MachineInstruction toMachineInstruction(SymbolTable symbolTable)
+    public int toWord(SymbolTable symbolTable)
     {
-        return MachineInstruction.fromBigInteger(symbolTable.symbolAddress(chars));
-    }
-
-    @Override
-    public String toAsciiInstruction(SymbolTable symbolTable)
-    {
-        return convertToAscii(symbolTable.symbolAddress(chars));
+        return symbolTable.symbolAddress(chars);
     }
 }
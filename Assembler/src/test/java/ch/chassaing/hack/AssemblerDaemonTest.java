@@ -0,0 +1,117 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AssemblerDaemonTest
+{
+    @Test
+    void assemblesTheRequestedFile(@TempDir Path directory)
+            throws Exception
+    {
+        Path socket = directory.resolve("daemon").resolve("asm.sock");
+        startDaemon(socket);
+        Path program = Files.copy(Samples.program("Max"), directory.resolve("Max.asm"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Option<Integer> exitCode = AssemblerDaemon.request(socket,
+                                                           List.of("-quiet", program.toAbsolutePath().toString()),
+                                                           Duration.ofSeconds(30),
+                                                           new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertEquals(Option.some(0), exitCode);
+        assertEquals("", output.toString(StandardCharsets.UTF_8));
+        assertArrayEquals(Samples.reference(Samples.lines(program), false),
+                          Files.readAllBytes(directory.resolve("Max.hack")));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket.getParent())));
+    }
+
+    @Test
+    void answersWithTheExitCodeOfAFailedRequest(@TempDir Path directory)
+            throws Exception
+    {
+        Path socket = directory.resolve("asm.sock");
+        startDaemon(socket);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Option<Integer> exitCode = AssemblerDaemon.request(socket,
+                                                           List.of("-quiet", directory.resolve("Missing.asm").toString()),
+                                                           Duration.ofSeconds(30),
+                                                           new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertTrue(exitCode.isDefined());
+        assertNotEquals(0, exitCode.get());
+        assertTrue(output.toString(StandardCharsets.UTF_8).contains("Missing.asm"));
+    }
+
+    @Test
+    void noDaemonWithoutSocket(@TempDir Path directory)
+    {
+        assertEquals(Option.none(), AssemblerDaemon.request(directory.resolve("none.sock"), List.of("X.asm")));
+    }
+
+    @Test
+    void givesUpOnADaemonThatDoesNotAnswer(@TempDir Path directory)
+            throws IOException
+    {
+        Path socket = directory.resolve("hung.sock");
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            // accepts the connection but never answers
+            long start = System.nanoTime();
+
+            Option<Integer> exitCode = AssemblerDaemon.request(socket,
+                                                               List.of("X.asm"),
+                                                               Duration.ofMillis(200),
+                                                               System.out);
+
+            assertEquals(Option.none(), exitCode);
+            assertTrue(System.nanoTime() - start < Duration.ofSeconds(10).toNanos());
+        }
+    }
+
+    private static void startDaemon(Path socket)
+            throws InterruptedException
+    {
+        PrintStream quiet = new PrintStream(OutputStream.nullOutputStream());
+        Thread daemon = new Thread(() -> AssemblerDaemon.serve(socket, quiet), "test-daemon");
+        daemon.setDaemon(true);
+        daemon.start();
+        for (int i = 0; i < 500 && !isListening(socket); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(isListening(socket), "daemon did not start");
+    }
+
+    private static boolean isListening(Path socket)
+    {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return channel.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
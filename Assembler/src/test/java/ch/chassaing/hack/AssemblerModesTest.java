@@ -0,0 +1,152 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Every way to assemble a program must produce the same ROM image as the
+ * two-pass {@link HackAssembler} with the original {@link ParserImpl}.
+ */
+class AssemblerModesTest
+{
+    @ParameterizedTest
+    @MethodSource("ch.chassaing.hack.Samples#programs")
+    void scanningParser(Path program)
+    {
+        Seq<String> lines = Samples.lines(program);
+        for (boolean ascii : new boolean[]{false, true}) {
+            assertArrayEquals(Samples.reference(lines, ascii),
+                              Samples.assemble(new HackAssembler(new ScanningParser(), new Samples.CollectingFeedback()),
+                                               lines,
+                                               ascii));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("ch.chassaing.hack.Samples#programs")
+    void streaming(Path program)
+    {
+        Seq<String> lines = Samples.lines(program);
+        for (boolean ascii : new boolean[]{false, true}) {
+            assertArrayEquals(Samples.reference(lines, ascii),
+                              Samples.assemble(new StreamingAssembler(new ScanningParser()), lines, ascii));
+            assertArrayEquals(Samples.reference(lines, ascii),
+                              Samples.assemble(new StreamingAssembler(new ParserImpl()), lines, ascii));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("ch.chassaing.hack.Samples#programs")
+    void mapped(Path program)
+            throws IOException
+    {
+        Seq<String> lines = Samples.lines(program);
+        for (boolean ascii : new boolean[]{false, true}) {
+            Samples.CollectingFeedback feedback = new Samples.CollectingFeedback();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertTrue(new StreamingAssembler(new ScanningParser())
+                               .transform(MappedAsciiInput.map(program), out, feedback, ascii));
+            assertArrayEquals(Samples.reference(lines, ascii), out.toByteArray());
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("ch.chassaing.hack.Samples#programs")
+    void parallel(Path program)
+    {
+        Seq<String> lines = Samples.lines(program);
+        // small chunks, so that labels and variables cross the chunk borders
+        for (int chunkSize : new int[]{1, 7, 64, ParallelAssembler.DEFAULT_CHUNK_SIZE}) {
+            ParallelAssembler assembler = new ParallelAssembler(new ScanningParser(),
+                                                                ForkJoinPool.commonPool(),
+                                                                chunkSize);
+            assertArrayEquals(Samples.reference(lines, false), Samples.assemble(assembler, lines, false),
+                              "chunk size " + chunkSize);
+            assertArrayEquals(Samples.reference(lines, true), Samples.assemble(assembler, lines, true),
+                              "chunk size " + chunkSize);
+        }
+    }
+
+    /**
+     * The command line modes, which read the file and write the ROM image with one bulk write.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = {"", "-stream", "-mapped", "-parallel"})
+    void commandLine(String mode, @TempDir Path directory)
+            throws IOException, ParseException
+    {
+        for (boolean ascii : new boolean[]{false, true}) {
+            java.util.List<String> args = new ArrayList<>(java.util.List.of("-nodaemon", "-jobs", "2"));
+            if (!mode.isEmpty()) {
+                args.add(mode);
+            }
+            if (ascii) {
+                args.add("-ascii");
+            }
+            Path[] copies = Samples.programs().map(program -> copy(program, directory)).toArray(Path[]::new);
+            for (Path copy : copies) {
+                args.add(copy.toString());
+            }
+            CommandLine commandLine = new DefaultParser().parse(HackAssembler.options(),
+                                                                args.toArray(String[]::new));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            int exitCode = HackAssembler.run(commandLine, new PrintStream(output, true, StandardCharsets.UTF_8));
+
+            assertEquals(0, exitCode, output.toString(StandardCharsets.UTF_8));
+            for (Path copy : copies) {
+                Path hack = copy.resolveSibling(copy.getFileName().toString().replace(".asm", ".hack"));
+                assertArrayEquals(Samples.reference(Samples.lines(copy), ascii), Files.readAllBytes(hack),
+                                  copy + " " + mode);
+            }
+        }
+    }
+
+    @Test
+    void errorsAreReportedByAllModes()
+    {
+        Seq<String> lines = List.of("@1", "D=X", "(LOOP)", "(LOOP)", "@LOOP", "0;JMP");
+        for (Assembler assembler : new Assembler[]{
+                new HackAssembler(new ScanningParser(), new Samples.CollectingFeedback()),
+                new StreamingAssembler(new ScanningParser()),
+                new ParallelAssembler(new ScanningParser(), ForkJoinPool.commonPool(), 2)}) {
+            Samples.CollectingFeedback feedback = new Samples.CollectingFeedback();
+            try {
+                assertFalse(assembler.transform(lines, new ByteArrayOutputStream(), feedback, false));
+            } catch (IOException e) {
+                fail(e);
+            }
+            assertEquals(2, feedback.errors().size(), assembler.getClass() + ": " + feedback.errors());
+        }
+    }
+
+    private static Path copy(Path program, Path directory)
+    {
+        try {
+            return Files.copy(program, directory.resolve(program.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.Seq;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsFeedbackTest
+{
+    private static final java.util.List<String> PHASES = java.util.List.of("read", "parse", "first pass",
+                                                                           "second pass", "write");
+
+    /**
+     * Assembles the file with -summary and returns the parsed JSON of it.
+     */
+    private static Map<String, Object> summary(Path program, int expectedExitCode, String... options)
+            throws IOException, ParseException
+    {
+        Path summary = program.resolveSibling("summary.json");
+        java.util.List<String> args = new ArrayList<>(java.util.List.of("-nodaemon", "-quiet",
+                                                                        "-summary", summary.toString()));
+        args.addAll(java.util.List.of(options));
+        args.add(program.toString());
+        CommandLine commandLine = new DefaultParser().parse(HackAssembler.options(), args.toArray(String[]::new));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        int exitCode = HackAssembler.run(commandLine, new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertEquals(expectedExitCode, exitCode, output.toString(StandardCharsets.UTF_8));
+        java.util.List<String> lines = Files.readAllLines(summary, StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        Map<String, Object> json = new Json(lines.get(0)).object();
+        assertEquals(program.toString(), json.get("file"));
+        assertEquals((long) exitCode, json.get("exitCode"));
+        assertTrue((Long) json.get("totalNanos") > 0);
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> map(Map<String, Object> json, String key)
+    {
+        return (Map<String, Object>) json.get(key);
+    }
+
+    @Test
+    void countsWhatTheAssemblerDid(@TempDir Path directory)
+            throws IOException, ParseException
+    {
+        Path program = Files.copy(Samples.program("Pong"), directory.resolve("Pong.asm"));
+        Seq<String> lines = Samples.lines(program);
+
+        Map<String, Object> json = summary(program, 0);
+
+        Map<String, Object> counters = map(json, "counters");
+        assertEquals((long) lines.size(), counters.get("linesParsed"));
+        assertEquals((long) Samples.reference(lines, false).length / Short.BYTES, counters.get("instructionsEmitted"));
+        assertEquals(lines.count(line -> line.strip().startsWith("(")), ((Long) counters.get("labelsDefined")).intValue());
+        assertEquals(0L, counters.get("errors"));
+        assertEquals(0L, counters.get("instructionsRemoved"));
+        assertTrue((Long) counters.get("symbolsAllocated") > 0);
+        assertEquals(PHASES, java.util.List.copyOf(map(json, "phaseNanos").keySet()));
+    }
+
+    @Test
+    void optimizePhaseOnlyWhenTheOptimizersRan(@TempDir Path directory)
+            throws IOException, ParseException
+    {
+        Path program = Files.copy(Samples.program("Max"), directory.resolve("Max.asm"));
+
+        Map<String, Object> json = summary(program, 0, "-optimize");
+
+        assertEquals(java.util.List.of("read", "parse", "optimize", "first pass", "second pass", "write"),
+                     java.util.List.copyOf(map(json, "phaseNanos").keySet()));
+    }
+
+    @Test
+    void countsErrorsAndSkipsTheOptimizers(@TempDir Path directory)
+            throws IOException, ParseException
+    {
+        Path program = Files.writeString(directory.resolve("Broken.asm"), """
+                @1
+                D=X
+                (LOOP)
+                (LOOP)
+                @LOOP
+                0;JMP
+                """);
+
+        Map<String, Object> json = summary(program, 32, "-optimize");
+
+        Map<String, Object> counters = map(json, "counters");
+        assertEquals(6L, counters.get("linesParsed"));
+        assertEquals(2L, counters.get("errors"));
+        assertEquals(1L, counters.get("labelsDefined"));
+        assertEquals(0L, counters.get("instructionsEmitted"));
+        assertEquals(java.util.List.of("read", "parse", "first pass"),
+                     java.util.List.copyOf(map(json, "phaseNanos").keySet()));
+    }
+
+    @Test
+    void escapesTheFileName()
+    {
+        MetricsFeedback metrics = new MetricsFeedback(new Samples.CollectingFeedback());
+        metrics.onCount(Feedback.Counter.LINES_PARSED, 3);
+        metrics.onPhase("parse", 5);
+        metrics.onPhase("parse", 7);
+
+        Map<String, Object> json = new Json(metrics.toJson("a \"b\"\\c\td.asm", 0)).object();
+
+        assertEquals("a \"b\"\\c\td.asm", json.get("file"));
+        assertEquals(3L, map(json, "counters").get("linesParsed"));
+        assertEquals(Map.of("parse", 12L), map(json, "phaseNanos"));
+    }
+
+    /**
+     * Just enough of a JSON parser for the summary: objects, strings and integers.
+     */
+    private static final class Json
+    {
+        private final String text;
+        private int position = 0;
+
+        Json(String text)
+        {
+            this.text = text;
+        }
+
+        Map<String, Object> object()
+        {
+            Map<String, Object> object = new LinkedHashMap<>();
+            expect('{');
+            if (text.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+            do {
+                String key = string();
+                expect(':');
+                assertNull(object.put(key, value()), "duplicate key " + key);
+            } while (text.charAt(position++) == ',');
+            assertEquals('}', text.charAt(position - 1), "at " + (position - 1) + " of " + text);
+            return object;
+        }
+
+        private Object value()
+        {
+            char c = text.charAt(position);
+            if (c == '{') {
+                return object();
+            }
+            if (c == '"') {
+                return string();
+            }
+            int start = position;
+            while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '-')) {
+                position++;
+            }
+            return Long.parseLong(text.substring(start, position));
+        }
+
+        private String string()
+        {
+            expect('"');
+            StringBuilder string = new StringBuilder();
+            for (char c = text.charAt(position++); c != '"'; c = text.charAt(position++)) {
+                if (c == '\\') {
+                    c = text.charAt(position++);
+                    if (c == 'u') {
+                        c = (char) Integer.parseInt(text.substring(position, position + 4), 16);
+                        position += 4;
+                    }
+                }
+                string.append(c);
+            }
+            return string.toString();
+        }
+
+        private void expect(char c)
+        {
+            assertEquals(c, text.charAt(position++), "at " + (position - 1) + " of " + text);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.Expression;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.junit.jupiter.api.Test;
+
+import static ch.chassaing.hack.Samples.parse;
+import static ch.chassaing.hack.Samples.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeepholeOptimizerTest
+{
+    private final Samples.CollectingFeedback feedback = new Samples.CollectingFeedback();
+
+    private Seq<String> optimize(String... lines)
+    {
+        return text(new PeepholeOptimizer().optimize(parse(lines), feedback));
+    }
+
+    @Test
+    void redundantLoad()
+    {
+        assertEquals(List.of("@x", "D=M", "M=D+1"),
+                     optimize("@x", "D=M", "@x", "M=D+1"));
+        // A was overwritten in between
+        assertEquals(List.of("@x", "A=M", "@x", "M=0"),
+                     optimize("@x", "A=M", "@x", "M=0"));
+        assertEquals(List.of("@1", "D=A", "@2", "D=D+A"),
+                     optimize("@1", "D=A", "@2", "D=D+A"));
+    }
+
+    @Test
+    void deadLoad()
+    {
+        assertEquals(List.of("@2", "D=A"),
+                     optimize("@1", "@2", "D=A"));
+    }
+
+    @Test
+    void selfAssignment()
+    {
+        assertEquals(List.of("@0", "D=M"),
+                     optimize("@0", "D=D", "A=A", "M=M", "D=M"));
+        // a jump is kept even if the assignment does nothing
+        assertEquals(List.of("@END", "D=D;JGT", "(END)"),
+                     optimize("@END", "D=D;JGT", "(END)"));
+    }
+
+    @Test
+    void duplicate()
+    {
+        assertEquals(List.of("@0", "D=M", "@1", "M=D"),
+                     optimize("@0", "D=M", "D=M", "@1", "M=D"));
+        // reads what it writes, the second one changes D again
+        assertEquals(List.of("D=D+1", "D=D+1"),
+                     optimize("D=D+1", "D=D+1"));
+    }
+
+    @Test
+    void incrementDecrement()
+    {
+        assertEquals(List.of("@0", "D=M"),
+                     optimize("@0", "M=M+1", "M=M-1", "D=M"));
+        assertEquals(List.of("@0", "D=M"),
+                     optimize("@0", "D=D-1", "D=D+1", "D=M"));
+        assertEquals(List.of("@0", "M=M+1", "D=M-1"),
+                     optimize("@0", "M=M+1", "D=M-1"));
+    }
+
+    @Test
+    void rulesStopAtLabelsAndJumps()
+    {
+        assertEquals(List.of("@x", "D=M", "(LOOP)", "@x", "M=D"),
+                     optimize("@x", "D=M", "(LOOP)", "@x", "M=D"));
+        assertEquals(List.of("@x", "D;JGT", "@x", "M=D", "(x)"),
+                     optimize("@x", "D;JGT", "@x", "M=D", "(x)"));
+    }
+
+    @Test
+    void skipsProgramsThatJumpToNumericAddresses()
+    {
+        String[] program = {"@0", "D=D", "@5", "0;JMP"};
+        assertEquals(List.of(program), optimize(program));
+        assertTrue(feedback.infos().exists(info -> info.contains("skipped")));
+    }
+
+    @Test
+    void numericAddressDirectlyBeforeAJump()
+    {
+        assertTrue(ControlFlow.jumpsToNumericAddress(parse("@133", "0;JMP")));
+        assertTrue(ControlFlow.jumpsToNumericAddress(parse("@R0", "D;JEQ")));
+        assertFalse(ControlFlow.jumpsToNumericAddress(parse("@LOOP", "0;JMP", "(LOOP)")));
+    }
+
+    @Test
+    void numericAddressCopiedAndComputedJump()
+    {
+        // a return address stored in R14 and jumped to later
+        Seq<Expression> program = parse("@123", "D=A", "@R14", "M=D",
+                                         "@R14", "A=M", "0;JMP");
+        assertTrue(ControlFlow.jumpsToNumericAddress(program));
+        assertEquals(text(program), text(new PeepholeOptimizer().optimize(program, feedback)));
+        assertEquals(text(program), text(new UnreachableCodeEliminator().optimize(program, feedback)));
+    }
+
+    @Test
+    void numericValuesAreSafeWithoutComputedJumps()
+    {
+        assertFalse(ControlFlow.jumpsToNumericAddress(parse("@123", "D=A", "@R14", "M=D",
+                                                             "@END", "0;JMP", "(END)")));
+    }
+
+    @Test
+    void labelsAreSafeWithComputedJumps()
+    {
+        assertFalse(ControlFlow.jumpsToNumericAddress(parse("@RET", "D=A", "@R14", "M=D",
+                                                             "@R14", "A=M", "0;JMP",
+                                                             "(RET)")));
+    }
+}
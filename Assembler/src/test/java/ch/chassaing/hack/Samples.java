@@ -0,0 +1,166 @@
+package ch.chassaing.hack;
+
+import ch.chassaing.hack.expression.Expression;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The sample programs of chapter 6 and helpers to assemble them in tests.
+ */
+public final class Samples
+{
+    /** the tests run in the module directory */
+    private static final Path CHAPTER_6 = Path.of("..", "06");
+
+    private Samples() { /* dont instantiate */ }
+
+    public static Stream<Path> programs()
+    {
+        return Stream.of(CHAPTER_6.resolve("add/Add.asm"),
+                         CHAPTER_6.resolve("max/Max.asm"),
+                         CHAPTER_6.resolve("max/MaxL.asm"),
+                         CHAPTER_6.resolve("rect/Rect.asm"),
+                         CHAPTER_6.resolve("rect/RectL.asm"),
+                         CHAPTER_6.resolve("pong/Pong.asm"),
+                         CHAPTER_6.resolve("pong/PongL.asm"));
+    }
+
+    public static Path program(String name)
+    {
+        return programs().filter(path -> path.getFileName().toString().equals(name + ".asm"))
+                         .findFirst()
+                         .orElseThrow();
+    }
+
+    public static Seq<String> lines(Path program)
+    {
+        try {
+            return List.ofAll(Files.readAllLines(program, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses the lines, the empty ones are dropped.
+     */
+    public static Seq<Expression> parse(String... lines)
+    {
+        ScanningParser parser = new ScanningParser();
+        return List.of(lines)
+                   .zipWithIndex()
+                   .flatMap(line -> parser.parseLine(line._2 + 1, line._1));
+    }
+
+    /**
+     * The source lines of the expressions, to compare them in assertions.
+     */
+    public static Seq<String> text(Seq<Expression> expressions)
+    {
+        return expressions.map(expression -> expression.line.strip());
+    }
+
+    /**
+     * Assembles the lines with the two-pass assembler and the original parser, the reference for all others.
+     */
+    public static byte[] reference(Seq<String> lines, boolean ascii)
+    {
+        return assemble(new HackAssembler(new ParserImpl(), new CollectingFeedback()), lines, ascii);
+    }
+
+    /**
+     * Assembles the lines into a ROM image for the emulator.
+     */
+    public static RomImage rom(Seq<String> lines)
+    {
+        byte[] bytes = reference(lines, false);
+        short[] words = new short[bytes.length / Short.BYTES];
+        ByteBuffer.wrap(bytes).order(RomImage.BYTE_ORDER).asShortBuffer().get(words);
+        return RomImage.of(words);
+    }
+
+    /**
+     * Assembles the lines and returns their source map.
+     */
+    public static SourceMap sourceMap(Seq<String> lines)
+    {
+        SourceMapFeedback feedback = new SourceMapFeedback(new CollectingFeedback());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            assertTrue(new HackAssembler(new ScanningParser(), feedback).transform(lines, OutputStream.nullOutputStream(),
+                                                                                   feedback, false));
+            feedback.sourceMap().writeTo(out);
+            return new SourceMap(ByteBuffer.wrap(out.toByteArray()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static byte[] assemble(Assembler assembler, Seq<String> lines, boolean ascii)
+    {
+        CollectingFeedback feedback = new CollectingFeedback();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            assertTrue(assembler.transform(lines, out, feedback, ascii), feedback.errors().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        assertEquals(List.empty(), feedback.errors());
+        return out.toByteArray();
+    }
+
+    /**
+     * Keeps the errors, drops all other messages.
+     */
+    public static final class CollectingFeedback
+            implements Feedback
+    {
+        private final java.util.List<String> errors = new ArrayList<>();
+        private final java.util.List<String> infos = new ArrayList<>();
+
+        @Override
+        public void onDebug(String text) {}
+
+        @Override
+        public void onInfo(String text)
+        {
+            infos.add(text);
+        }
+
+        @Override
+        public void onError(String text)
+        {
+            errors.add(text.strip());
+        }
+
+        @Override
+        public boolean isDebugEnabled()
+        {
+            return false;
+        }
+
+        public Seq<String> errors()
+        {
+            return List.ofAll(errors);
+        }
+
+        public Seq<String> infos()
+        {
+            return List.ofAll(infos);
+        }
+    }
+}
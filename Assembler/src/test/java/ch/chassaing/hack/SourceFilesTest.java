@@ -0,0 +1,140 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceFilesTest
+{
+    @TempDir
+    Path directory;
+
+    private Path add;
+    private Path max;
+    private Path rect;
+    private Path pong;
+
+    /**
+     * directory/Add.asm, directory/max/Max.asm, directory/max/notes.txt,
+     * directory/rect/Rect.asm and directory/rect/pong/Pong.asm
+     */
+    @BeforeEach
+    void setUp()
+            throws IOException
+    {
+        add = Files.copy(Samples.program("Add"), directory.resolve("Add.asm"));
+        max = Files.copy(Samples.program("Max"), Files.createDirectory(directory.resolve("max")).resolve("Max.asm"));
+        Files.writeString(directory.resolve("max").resolve("notes.txt"), "not assembly");
+        rect = Files.copy(Samples.program("Rect"), Files.createDirectory(directory.resolve("rect")).resolve("Rect.asm"));
+        pong = Files.copy(Samples.program("Pong"),
+                          Files.createDirectory(directory.resolve("rect").resolve("pong")).resolve("Pong.asm"));
+    }
+
+    private static Seq<Path> expand(Object... args)
+            throws IOException
+    {
+        return SourceFiles.expand(List.of(args).map(Object::toString));
+    }
+
+    @Test
+    void filesAreKeptInTheOrderOfTheArguments()
+            throws IOException
+    {
+        assertEquals(List.of(rect, add, max), expand(rect, add, max, add));
+    }
+
+    @Test
+    void directoriesAreWalkedWithTheirSubdirectories()
+            throws IOException
+    {
+        assertEquals(List.of(add, max, rect, pong), expand(directory));
+        assertEquals(List.of(rect, pong, add), expand(directory.resolve("rect"), add));
+    }
+
+    @Test
+    void globsMatchTheirDepthOrAnyDepth()
+            throws IOException
+    {
+        assertEquals(List.of(add), expand(directory.resolve("*.asm")));
+        assertEquals(List.of(max, rect), expand(directory + "/*/*.asm"));
+        assertEquals(List.of(pong), expand(directory + "/*/*/P?ng.asm"));
+        assertEquals(List.of(max, rect, pong), expand(directory + "/*/**.asm"));
+        assertEquals(List.of(max, rect), expand(directory + "/{max,rect}/*.asm"));
+    }
+
+    @Test
+    void invalidArgumentsAreRejected()
+    {
+        assertThrows(IllegalArgumentException.class, () -> expand(directory.resolve("max").resolve("notes.txt")));
+        assertThrows(IllegalArgumentException.class, () -> expand(directory + "/*/*.hack"));
+        assertThrows(IllegalArgumentException.class, () -> expand(directory + "/missing/*.asm"));
+        assertThrows(IllegalArgumentException.class, () -> expand(Files.createDirectory(directory.resolve("empty"))));
+    }
+
+    @Test
+    void severalFilesAreAssembledConcurrently()
+            throws IOException, ParseException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        int exitCode = run(output, "-jobs", "3", directory.toString());
+
+        assertEquals(0, exitCode, output.toString(StandardCharsets.UTF_8));
+        for (Path program : List.of(add, max, rect, pong)) {
+            assertArrayEquals(Samples.reference(Samples.lines(program), false), Files.readAllBytes(hack(program)));
+        }
+        // the messages of each file come together in the order of the files
+        String text = output.toString(StandardCharsets.UTF_8);
+        int previous = -1;
+        for (Path program : List.of(add, max, rect, pong)) {
+            int header = text.indexOf("==> " + program + " <==");
+            assertTrue(header > previous, text);
+            previous = header;
+        }
+    }
+
+    @Test
+    void exitCodesOfTheFilesAreCombined()
+            throws IOException, ParseException
+    {
+        Path broken = Files.writeString(directory.resolve("Broken.asm"), "D=X\n");
+        Path missing = directory.resolve("Missing.asm");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        int exitCode = run(output, "-jobs", "2", add.toString(), broken.toString(), missing.toString());
+
+        // 32 for the assembly errors, 64 for the file that cannot be read
+        assertEquals(32 | 64, exitCode, output.toString(StandardCharsets.UTF_8));
+        assertTrue(Files.exists(hack(add)));
+        assertEquals(64, run(new ByteArrayOutputStream(), "-jobs", "0", add.toString()));
+        assertEquals(64, run(new ByteArrayOutputStream(), directory.resolve("notes.txt").toString()));
+    }
+
+    private static int run(ByteArrayOutputStream output, String... args)
+            throws ParseException
+    {
+        CommandLine commandLine = new DefaultParser().parse(HackAssembler.options(),
+                                                            List.of("-nodaemon", "-quiet").appendAll(List.of(args))
+                                                                .toJavaArray(String[]::new));
+        return HackAssembler.run(commandLine, new PrintStream(output, true, StandardCharsets.UTF_8));
+    }
+
+    private static Path hack(Path program)
+    {
+        return program.resolveSibling(program.getFileName().toString().replace(".asm", ".hack"));
+    }
+}
@@ -0,0 +1,155 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceMapTest
+{
+    /**
+     * What the source map should contain, taken directly from the source lines.
+     */
+    private record Expected(int[] lineNumbers, java.util.List<String> labels, java.util.List<Integer> labelAddresses)
+    {
+        static Expected of(Seq<String> lines)
+        {
+            java.util.List<Integer> lineNumbers = new ArrayList<>();
+            java.util.List<String> labels = new ArrayList<>();
+            java.util.List<Integer> labelAddresses = new ArrayList<>();
+            for (int lineNumber = 0; lineNumber < lines.size(); lineNumber++) {
+                String line = lines.get(lineNumber);
+                int comment = line.indexOf("//");
+                line = (comment == -1 ? line : line.substring(0, comment)).strip();
+                if (line.startsWith("(")) {
+                    labels.add(line.substring(1, line.length() - 1));
+                    labelAddresses.add(lineNumbers.size());
+                } else if (!line.isEmpty()) {
+                    lineNumbers.add(lineNumber);
+                }
+            }
+            return new Expected(lineNumbers.stream().mapToInt(Integer::intValue).toArray(), labels, labelAddresses);
+        }
+
+        int labelIndex(int address)
+        {
+            int index = -1;
+            while (index + 1 < labelAddresses.size() && labelAddresses.get(index + 1) <= address) {
+                index++;
+            }
+            return index;
+        }
+    }
+
+    private static void assertMap(Expected expected, SourceMap map)
+    {
+        assertEquals(expected.lineNumbers().length, map.size());
+        assertEquals(expected.labels().size(), map.labelCount());
+        for (int index = 0; index < map.labelCount(); index++) {
+            assertEquals(expected.labels().get(index), map.labelName(index));
+            assertEquals(expected.labelAddresses().get(index), map.labelAddress(index));
+        }
+        for (int address = 0; address < map.size(); address++) {
+            assertEquals(expected.lineNumbers()[address], map.lineNumber(address), "line of " + address);
+            int labelIndex = expected.labelIndex(address);
+            assertEquals(labelIndex, map.labelIndex(address), "label of " + address);
+            assertEquals(labelIndex == -1 ? Option.none() : Option.some(expected.labels().get(labelIndex)),
+                         map.label(address));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> map.lineNumber(map.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> map.labelIndex(-1));
+    }
+
+    static java.util.stream.Stream<Path> programs()
+    {
+        return Samples.programs();
+    }
+
+    @ParameterizedTest
+    @MethodSource("programs")
+    void roundTripOfTheSamples(Path program)
+            throws IOException
+    {
+        Seq<String> lines = Samples.lines(program);
+        SourceMapFeedback feedback = new SourceMapFeedback(new Samples.CollectingFeedback());
+        assertTrue(new HackAssembler(new ScanningParser(), feedback)
+                           .transform(lines, new ByteArrayOutputStream(), feedback, false));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        feedback.sourceMap().writeTo(out);
+
+        assertMap(Expected.of(lines), new SourceMap(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    void smallerBlocksForLargeDeltas()
+            throws IOException
+    {
+        // line numbers grow faster than 16 bit deltas allow within a block of several addresses
+        int size = 1000;
+        int[] lineNumbers = new int[size];
+        SourceMap.Builder builder = new SourceMap.Builder();
+        for (int address = 0; address < size; address++) {
+            lineNumbers[address] = address * 40_000 + (address % 3);
+            builder.instruction(address, lineNumbers[address]);
+        }
+        builder.label("START", 0);
+        builder.label("MIDDLE", 500);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeTo(out);
+
+        assertMap(new Expected(lineNumbers, java.util.List.of("START", "MIDDLE"), java.util.List.of(0, 500)),
+                  new SourceMap(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    @Test
+    void writtenNextToTheHackFile(@TempDir Path directory)
+            throws IOException, ParseException
+    {
+        Path program = Files.copy(Samples.program("Pong"), directory.resolve("Pong.asm"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        int exitCode = HackAssembler.run(new DefaultParser().parse(HackAssembler.options(),
+                                                                   new String[]{"-nodaemon", "-quiet", "-sourcemap",
+                                                                                program.toString()}),
+                                         new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertEquals(0, exitCode, output.toString(StandardCharsets.UTF_8));
+        Option<SourceMap> map = SourceMap.forHackFile(directory.resolve("Pong.hack"));
+        assertTrue(map.isDefined());
+        assertMap(Expected.of(Samples.lines(program)), map.get());
+        assertEquals(Option.none(), SourceMap.forHackFile(directory.resolve("Other.hack")));
+    }
+
+    @Test
+    void invalidMapsAreRejected()
+            throws IOException
+    {
+        SourceMap.Builder builder = new SourceMap.Builder();
+        builder.instruction(0, 3);
+        builder.label("LOOP", 0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.writeTo(out);
+        byte[] valid = out.toByteArray();
+
+        assertThrows(IOException.class, () -> new SourceMap(ByteBuffer.wrap(new byte[8])));
+        assertThrows(IOException.class, () -> new SourceMap(ByteBuffer.wrap("not a map".getBytes(StandardCharsets.US_ASCII))));
+        assertThrows(IOException.class, () -> new SourceMap(ByteBuffer.wrap(Arrays.copyOf(valid, valid.length - 1))));
+        assertEquals(3, new SourceMap(ByteBuffer.wrap(valid)).lineNumber(0));
+    }
+}
@@ -0,0 +1,114 @@
+package ch.chassaing.hack;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static ch.chassaing.hack.Samples.parse;
+import static ch.chassaing.hack.Samples.text;
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnreachableCodeEliminatorTest
+{
+    private final Samples.CollectingFeedback feedback = new Samples.CollectingFeedback();
+
+    private Seq<String> optimize(String... lines)
+    {
+        return text(new UnreachableCodeEliminator().optimize(parse(lines), feedback));
+    }
+
+    @Test
+    void removesCodeAfterAnUnconditionalJump()
+    {
+        assertEquals(List.of("@END", "0;JMP", "(END)", "@END", "0;JMP"),
+                     optimize("@END", "0;JMP", "@1", "D=A", "(DEAD)", "D=0", "(END)", "@END", "0;JMP"));
+    }
+
+    @Test
+    void keepsTheFallThroughOfAConditionalJump()
+    {
+        String[] program = {"@0", "D=M", "@POSITIVE", "D;JGT", "D=-1", "(POSITIVE)", "@POSITIVE", "0;JMP"};
+        assertEquals(List.of(program), optimize(program));
+    }
+
+    @Test
+    void neverTakenJumpStillTakesTheAddressOfItsTarget()
+    {
+        // A still holds DEAD after the jump, so its block is kept
+        String[] program = {"@DEAD", "0;JGT", "(END)", "@END", "0;JMP", "(DEAD)", "D=0"};
+        assertEquals(List.of(program), optimize(program));
+        assertEquals(List.of("@END", "0;JMP", "(END)", "@END", "0;JMP"),
+                     optimize("@END", "0;JMP", "@DEAD", "0;JGT", "(END)", "@END", "0;JMP", "(DEAD)", "D=0"));
+    }
+
+    @Test
+    void keepsTheTargetOfAComputedJumpWhoseAddressIsTaken()
+    {
+        assertEquals(List.of("@RET", "D=A", "@R14", "M=D", "@FUNC", "0;JMP",
+                             "(FUNC)", "@R14", "A=M", "0;JMP",
+                             "(RET)", "@RET", "0;JMP"),
+                     optimize("@RET", "D=A", "@R14", "M=D", "@FUNC", "0;JMP",
+                              "(DEAD)", "D=0",
+                              "(FUNC)", "@R14", "A=M", "0;JMP",
+                              "(RET)", "@RET", "0;JMP"));
+    }
+
+    @Test
+    void keepsALabelLoadedDirectlyBeforeAnotherLabel()
+    {
+        // @LOOP is not jumped to, its use must keep the block of LOOP
+        String[] program = {"@LOOP", "(OTHER)", "D=A", "@R0", "M=D", "@END", "0;JMP",
+                            "(LOOP)", "D=1",
+                            "(END)", "@END", "0;JMP"};
+        assertEquals(List.of(program), optimize(program));
+    }
+
+    @Test
+    void leavesJumpTablesUnchanged()
+    {
+        // the entries after the first are only reached as TABLE + 2 * i
+        String[] program = {"@TABLE", "D=A", "@i", "A=D+M", "0;JMP",
+                            "(TABLE)", "@CASE0", "0;JMP", "@CASE1", "0;JMP", "@CASE2", "0;JMP",
+                            "(CASE0)", "D=0", "@END", "0;JMP",
+                            "(CASE1)", "D=1", "@END", "0;JMP",
+                            "(CASE2)", "D=-1",
+                            "(END)", "@END", "0;JMP"};
+        assertEquals(List.of(program), optimize(program));
+        assertTrue(feedback.infos().exists(info -> info.contains("computed addresses")), feedback.infos().toString());
+    }
+
+    @Test
+    void computedAddressesWithoutAJumpAreNoJumpTable()
+    {
+        assertEquals(List.of("@ARG", "A=M+1", "D=M", "@END", "0;JMP", "(END)", "@END", "0;JMP"),
+                     optimize("@ARG", "A=M+1", "D=M", "@END", "0;JMP",
+                              "(DEAD)", "D=0",
+                              "(END)", "@END", "0;JMP"));
+    }
+
+    @Test
+    void reportsDuplicateLabelsInRemovedCode()
+            throws IOException
+    {
+        HackAssembler assembler = new HackAssembler(new ScanningParser(),
+                                                    feedback,
+                                                    List.of(new UnreachableCodeEliminator(),
+                                                            new PeepholeOptimizer()));
+        boolean success = assembler.transform(List.of("@END", "0;JMP", "(X)", "D=0", "(X)", "(END)", "@END", "0;JMP"),
+                                              new ByteArrayOutputStream(),
+                                              feedback,
+                                              false);
+        assertFalse(success);
+        assertTrue(feedback.errors().exists(error -> error.contains("Duplicate label")), feedback.errors().toString());
+    }
+
+    @Test
+    void leavesProgramsThatJumpToNumericAddressesUnchanged()
+    {
+        Seq<String> pong = Samples.lines(Samples.program("Pong"));
+        assertEquals(text(parse(pong.toJavaArray(String[]::new))), optimize(pong.toJavaArray(String[]::new)));
+    }
+}
@@ -0,0 +1,114 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.Samples;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest
+{
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    void setUp()
+            throws IOException
+    {
+        Files.write(directory.resolve("Max.hack"), Samples.reference(Samples.lines(Samples.program("Max")), false));
+        Files.write(directory.resolve("Rect.hack"), Samples.reference(Samples.lines(Samples.program("Rect")), true));
+    }
+
+    private Path batch(String text)
+            throws IOException
+    {
+        return Files.writeString(directory.resolve("tasks.txt"), text);
+    }
+
+    @Test
+    void parsesInputsAndExpectations()
+            throws IOException
+    {
+        Seq<BatchRunner.Task> tasks = BatchRunner.parse(batch("""
+                # max of two numbers
+
+                  Max.hack 100 0:=3 1:=-7 2=3
+                   # indented comment
+                Rect.hack\t5000 0:=4 16384=-1 32767=0
+                """));
+
+        assertEquals(List.of(new BatchRunner.Task(directory.resolve("Max.hack"), 100,
+                                                  List.of(new BatchRunner.Assignment(0, 3),
+                                                          new BatchRunner.Assignment(1, -7)),
+                                                  List.of(new BatchRunner.Assignment(2, 3))),
+                             new BatchRunner.Task(directory.resolve("Rect.hack"), 5000,
+                                                  List.of(new BatchRunner.Assignment(0, 4)),
+                                                  List.of(new BatchRunner.Assignment(16384, -1),
+                                                          new BatchRunner.Assignment(32767, 0)))),
+                     tasks);
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+            "Max.hack                | Line 3: file and cycles expected",
+            "Max.hack many           | Line 3: For input string: \"many\"",
+            "Max.hack 100 =3         | Line 3: invalid assignment =3",
+            "Max.hack 100 0:3        | Line 3: invalid assignment 0:3",
+            "Max.hack 100 x:=3       | Line 3: For input string: \"x\"",
+            "Max.hack 100 40000=1    | Line 3: address 40000 is outside the RAM",
+            "Max.hack 100 32768:=1   | Line 3: address 32768 is outside the RAM",
+            "Max.hack 100 -1=0       | Line 3: address -1 is outside the RAM"})
+    void reportsInvalidLinesWithTheirNumber(String line, String message)
+            throws IOException
+    {
+        Path batch = batch("# first\nMax.hack 10\n" + line + "\n");
+
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> BatchRunner.parse(batch));
+        assertEquals(message, e.getMessage());
+    }
+
+    @Test
+    void reportsThePassedAndFailedPrograms()
+            throws IOException
+    {
+        Seq<BatchRunner.Task> tasks = BatchRunner.parse(batch("""
+                Max.hack 100 0:=3 1:=7 2=7
+                Max.hack 100 0:=9 1:=7 2=9
+                Max.hack 100 0:=3 1:=7 2=3 0=4
+                Rect.hack 100000 0:=4 16384=-1 16416=-1 16480=-1 16512=0
+                Rect.hack 10 0:=4 16384=-1
+                Missing.hack 100 0=0
+                """));
+
+        for (boolean compileHotBlocks : new boolean[]{false, true}) {
+            Seq<BatchRunner.Result> results = BatchRunner.run(tasks, 3, compileHotBlocks);
+
+            assertEquals(tasks, results.map(BatchRunner.Result::task));
+            assertEquals(List.of(true, true, false, true, false, false), results.map(BatchRunner.Result::passed));
+            assertEquals(List.of("RAM[2] is 7, expected 3", "RAM[0] is 3, expected 4"), results.get(2).failures());
+            assertTrue(results.get(0).halted());
+            assertFalse(results.get(4).halted());
+            assertEquals(10, results.get(4).cycles());
+            assertEquals(List.of("RAM[16384] is 0, expected -1"), results.get(4).failures());
+            assertTrue(results.get(5).failures().head().startsWith("Problem reading " + directory.resolve("Missing.hack")));
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            BatchRunner.report(results, 1_000_000, new PrintStream(output, true, StandardCharsets.UTF_8));
+            String[] lines = output.toString(StandardCharsets.UTF_8).split("\\R");
+            assertTrue(lines[0].startsWith("PASS Max.hack"), lines[0]);
+            assertTrue(lines[lines.length - 1].startsWith("3 passed, 3 failed"), lines[lines.length - 1]);
+        }
+    }
+}
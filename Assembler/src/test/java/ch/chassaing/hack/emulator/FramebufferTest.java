@@ -0,0 +1,134 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.Samples;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FramebufferTest
+{
+    private static final int ROW_BYTES = Framebuffer.WIDTH / Byte.SIZE;
+
+    private final HackCpu cpu = new HackCpu();
+    private Framebuffer framebuffer;
+
+    @BeforeEach
+    void setUp()
+    {
+        framebuffer = new Framebuffer(cpu);
+    }
+
+    private byte[] raw()
+            throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        framebuffer.writeRaw(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    void startsWhiteWithNothingToUpdate()
+            throws IOException
+    {
+        assertEquals(0, framebuffer.update());
+        assertArrayEquals(new byte[Framebuffer.RAW_BYTES], raw());
+        assertFalse(framebuffer.isBlack(0, 0));
+        assertFalse(framebuffer.isBlack(Framebuffer.WIDTH - 1, Framebuffer.HEIGHT - 1));
+    }
+
+    @Test
+    void lowestBitOfAWordIsTheLeftmostPixel()
+            throws IOException
+    {
+        cpu.poke(Framebuffer.SCREEN, 0x0001);                // x 0
+        cpu.poke(Framebuffer.SCREEN + 1, 0x8000);            // x 31
+        cpu.poke(Framebuffer.SCREEN + 32 + 31, -1);          // y 1, x 496 to 511
+        cpu.poke(Framebuffer.SCREEN + Framebuffer.WORDS - 1, 0x00F0); // y 255, x 500 to 503
+
+        assertEquals(4, framebuffer.update());
+
+        byte[] expected = new byte[Framebuffer.RAW_BYTES];
+        expected[0] = (byte) 0x80;
+        expected[3] = 0x01;
+        expected[ROW_BYTES + 62] = (byte) 0xFF;
+        expected[ROW_BYTES + 63] = (byte) 0xFF;
+        expected[255 * ROW_BYTES + 62] = 0x0F;
+        assertArrayEquals(expected, raw());
+
+        assertTrue(framebuffer.isBlack(0, 0));
+        assertFalse(framebuffer.isBlack(1, 0));
+        assertFalse(framebuffer.isBlack(15, 0));
+        assertFalse(framebuffer.isBlack(16, 0));
+        assertTrue(framebuffer.isBlack(31, 0));
+        assertFalse(framebuffer.isBlack(495, 1));
+        assertTrue(framebuffer.isBlack(496, 1));
+        assertTrue(framebuffer.isBlack(511, 1));
+        assertFalse(framebuffer.isBlack(499, 255));
+        assertTrue(framebuffer.isBlack(500, 255));
+        assertTrue(framebuffer.isBlack(503, 255));
+        assertFalse(framebuffer.isBlack(504, 255));
+    }
+
+    @Test
+    void onlyWrittenWordsAreConverted()
+    {
+        cpu.poke(Framebuffer.SCREEN + 5, 1);
+        cpu.poke(Framebuffer.SCREEN + 5, 3);
+        cpu.poke(0, 1);
+        cpu.poke(Framebuffer.SCREEN + Framebuffer.WORDS, 1); // KBD
+        // written behind the back of the CPU, not marked
+        cpu.ram()[Framebuffer.SCREEN + 6] = -1;
+
+        assertEquals(1, framebuffer.update());
+        assertTrue(framebuffer.isBlack(81, 0));
+        assertFalse(framebuffer.isBlack(96, 0));
+        assertEquals(0, framebuffer.update());
+
+        cpu.poke(Framebuffer.SCREEN + 5, 0);
+        assertEquals(1, framebuffer.update());
+        assertFalse(framebuffer.isBlack(80, 0));
+    }
+
+    @Test
+    void wordsWrittenByTheProgramAreConverted()
+    {
+        cpu.load(Samples.rom(Samples.lines(Samples.program("Rect"))));
+        cpu.poke(0, 4);
+        framebuffer = new Framebuffer(cpu);
+        cpu.run(10_000);
+
+        // four rows of 16 pixels
+        assertEquals(4, framebuffer.update());
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 17; x++) {
+                assertEquals(y < 4 && x < 16, framebuffer.isBlack(x, y), x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void pngHasTheSamePixels()
+            throws IOException
+    {
+        cpu.poke(Framebuffer.SCREEN, 0x0005);
+        framebuffer.update();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        framebuffer.writePng(out);
+
+        BufferedImage png = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Framebuffer.WIDTH, png.getWidth());
+        assertEquals(Framebuffer.HEIGHT, png.getHeight());
+        for (int x = 0; x < 4; x++) {
+            assertEquals(framebuffer.isBlack(x, 0) ? 0x000000 : 0xFFFFFF, png.getRGB(x, 0) & 0xFFFFFF, "x " + x);
+        }
+        assertTrue(framebuffer.isBlack(2, 0));
+    }
+}
@@ -0,0 +1,151 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.Samples;
+import ch.chassaing.hack.expression.CInstruction;
+import ch.chassaing.hack.expression.Computation;
+import ch.chassaing.hack.expression.Destination;
+import ch.chassaing.hack.expression.Jump;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The interpreter, the fused micro-ops and the compiled blocks must leave
+ * the CPU in the same state after every run.
+ */
+class HackCpuTest
+{
+    private enum Mode
+    {
+        /** a profile turns off fusion and compilation */
+        INTERPRETED,
+        FUSED,
+        COMPILED
+    }
+
+    /** the run lengths, in turns, so that runs also end inside fused pairs and blocks */
+    private static final long[] CHUNKS = {1, 3, 17, 1000, 50_000};
+
+    private static HackCpu cpu(Mode mode, RomImage program, int... ram)
+    {
+        HackCpu cpu = new HackCpu();
+        cpu.load(program);
+        switch (mode) {
+            case INTERPRETED -> cpu.setProfile(new Profile());
+            case FUSED -> {}
+            case COMPILED -> cpu.setCompileHotBlocks(true);
+        }
+        for (int address = 0; address < ram.length; address++) {
+            cpu.poke(address, ram[address]);
+        }
+        return cpu;
+    }
+
+    /**
+     * Runs the program in every mode and compares the state after every chunk.
+     *
+     * @return the CPU that compiled blocks
+     */
+    private static HackCpu assertSameState(RomImage program, long cycles, int... ram)
+    {
+        HackCpu interpreted = cpu(Mode.INTERPRETED, program, ram);
+        HackCpu fused = cpu(Mode.FUSED, program, ram);
+        HackCpu compiled = cpu(Mode.COMPILED, program, ram);
+        for (int chunk = 0; interpreted.cycles() < cycles && !interpreted.isHalted(); chunk++) {
+            long length = CHUNKS[chunk % CHUNKS.length];
+            long executed = interpreted.run(length);
+            assertEquals(executed, fused.run(length), "fused, chunk " + chunk);
+            assertEquals(executed, compiled.run(length), "compiled, chunk " + chunk);
+            assertSameState(interpreted, fused, "fused, chunk " + chunk);
+            assertSameState(interpreted, compiled, "compiled, chunk " + chunk);
+        }
+        return compiled;
+    }
+
+    private static void assertSameState(HackCpu expected, HackCpu actual, String message)
+    {
+        assertEquals(expected.cycles(), actual.cycles(), message);
+        assertEquals(expected.pc(), actual.pc(), message);
+        assertEquals(expected.a(), actual.a(), message);
+        assertEquals(expected.d(), actual.d(), message);
+        assertEquals(expected.isHalted(), actual.isHalted(), message);
+        if (!Arrays.equals(expected.ram(), actual.ram())) {
+            fail(message + ": RAM differs at " + Arrays.mismatch(expected.ram(), actual.ram()));
+        }
+        assertArrayEquals(expected.dirty(), actual.dirty(), message + ": written screen words");
+    }
+
+    @ParameterizedTest
+    @CsvSource({"Add, 100", "Max, 100", "MaxL, 100", "Rect, 100000", "RectL, 100000"})
+    void samplesAgree(String name, long cycles)
+    {
+        RomImage program = Samples.rom(Samples.lines(Samples.program(name)));
+        assertSameState(program, cycles, 17, 33);
+        assertSameState(program, cycles, 40, -5);
+    }
+
+    @Test
+    void pongAgrees()
+    {
+        HackCpu compiled = assertSameState(Samples.rom(Samples.lines(Samples.program("Pong"))), 2_000_000);
+        assertTrue(compiled.compiledBlocks() > 0, "no block was compiled");
+    }
+
+    @Test
+    void multAgrees()
+    {
+        RomImage program = Samples.rom(Samples.lines(Path.of("..", "04", "mult", "Mult.asm")));
+        HackCpu compiled = assertSameState(program, 200_000, 123, 5000);
+        assertTrue(compiled.compiledBlocks() > 0, "no block was compiled");
+        assertEquals((short) (123 * 5000), compiled.peek(2));
+
+        HackCpu fused = cpu(Mode.FUSED, program, 123, 5000);
+        fused.run(100_000);
+        assertTrue(Arrays.stream(Fusion.values()).mapToLong(fused::hits).sum() > 0, "no pair was fused");
+    }
+
+    /**
+     * Random instructions with every computation, destination and jump, the
+     * loads stay in the program or go to the screen.
+     */
+    @Test
+    void randomProgramsAgree()
+    {
+        Random random = new Random(4711);
+        Computation[] computations = Computation.values();
+        Destination[] destinations = Destination.values();
+        Jump[] jumps = Jump.values();
+        int compiledBlocks = 0;
+        for (int n = 0; n < 300; n++) {
+            int size = 8 + random.nextInt(64);
+            short[] words = new short[size];
+            for (int i = 0; i < size; i++) {
+                if (random.nextInt(3) == 0) {
+                    int address = random.nextInt(8) == 0
+                                  ? Framebuffer.SCREEN + random.nextInt(Framebuffer.WORDS)
+                                  : random.nextInt(size + 2);
+                    words[i] = (short) address;
+                } else {
+                    Jump jump = random.nextInt(3) == 0 ? jumps[random.nextInt(jumps.length)] : Jump.NONE;
+                    words[i] = (short) CInstruction.encode(destinations[random.nextInt(destinations.length)],
+                                                           computations[random.nextInt(computations.length)],
+                                                           jump);
+                }
+            }
+            int[] ram = random.ints(size + 2, -100, 100).toArray();
+            try {
+                compiledBlocks += assertSameState(RomImage.of(words), 30_000, ram).compiledBlocks();
+            } catch (AssertionError e) {
+                throw new AssertionError("program " + n + ": " + Arrays.toString(words), e);
+            }
+        }
+        assertTrue(compiledBlocks > 0, "no block was compiled");
+    }
+}
@@ -0,0 +1,138 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.Samples;
+import io.vavr.collection.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyboardTest
+{
+    /** polls KBD forever, a bare (LOOP) @LOOP 0;JMP would halt */
+    private static final RomImage LOOP = Samples.rom(List.of("(LOOP)", "@KBD", "D=M", "@LOOP", "0;JMP"));
+
+    /**
+     * Runs the CPU in steps of 10 cycles and returns KBD after every step.
+     */
+    private static int[] keys(Keyboard keyboard, int steps)
+    {
+        HackCpu cpu = new HackCpu();
+        cpu.load(LOOP);
+        cpu.setKeyboard(keyboard);
+        int[] keys = new int[steps];
+        for (int i = 0; i < steps; i++) {
+            cpu.run(10);
+            keys[i] = cpu.peek(Keyboard.ADDRESS);
+        }
+        return keys;
+    }
+
+    @Test
+    void scriptPressesTheKeysAtTheirCycles(@TempDir Path directory)
+            throws IOException
+    {
+        Path script = Files.writeString(directory.resolve("keys.txt"), """
+                # cycle key
+                15 'a'
+                30 NONE
+
+                40 newline
+                50 F1
+                60 65
+                """);
+
+        int[] keys = keys(Keyboard.script(script), 8);
+
+        assertArrayEquals(new int[]{0, 'a', 'a', 0, 128, 141, 65, 65}, keys);
+    }
+
+    @Test
+    void invalidScriptLinesAreReported(@TempDir Path directory)
+            throws IOException
+    {
+        Path decreasing = Files.writeString(directory.resolve("decreasing.txt"), "20 'a'\n10 'b'\n");
+        Path unknown = Files.writeString(directory.resolve("unknown.txt"), "10 SPACEBAR\n");
+
+        assertThrows(IllegalArgumentException.class, () -> Keyboard.script(decreasing));
+        assertThrows(IllegalArgumentException.class, () -> Keyboard.script(unknown));
+    }
+
+    @Test
+    void replayOfTheLogPressesTheSameKeys(@TempDir Path directory)
+            throws IOException
+    {
+        Path script = Files.writeString(directory.resolve("keys.txt"), "5 'x'\n25 NONE\n1000 UP\n1000000 DOWN\n");
+        Keyboard scripted = Keyboard.script(script);
+        int[] expected = keys(scripted, 200);
+        // only the events up to cycle 2000 were applied
+        assertEquals(3, scripted.applied());
+        Path log = directory.resolve("keys" + Keyboard.LOG_EXTENSION);
+        scripted.writeLog(log);
+
+        Keyboard replayed = Keyboard.replay(log);
+
+        assertArrayEquals(expected, keys(replayed, 200));
+        assertEquals(3, replayed.applied());
+    }
+
+    @Test
+    void typedKeysAreLoggedAtTheCycleTheyWerePressed(@TempDir Path directory)
+            throws IOException
+    {
+        Keyboard live = Keyboard.live(30);
+        live.type('q');
+        int[] expected = keys(live, 10);
+        assertEquals('q', expected[0]);
+        Path log = directory.resolve("live" + Keyboard.LOG_EXTENSION);
+        live.writeLog(log);
+
+        assertArrayEquals(expected, keys(Keyboard.replay(log), 10));
+        assertThrows(IllegalStateException.class, () -> Keyboard.replay(log).type('a'));
+    }
+
+    @Test
+    void corruptLogsAreRejected(@TempDir Path directory)
+            throws IOException
+    {
+        Path log = directory.resolve("keys" + Keyboard.LOG_EXTENSION);
+        Keyboard.script(Files.writeString(directory.resolve("keys.txt"), "5 'x'\n")).writeLog(log);
+        byte[] valid = Files.readAllBytes(log);
+
+        // a plausible count far larger than the file, and one beyond any array
+        Path large = write(directory.resolve("large"), valid, 0xC0, 0x84, 0x3D);
+        Path huge = write(directory.resolve("huge"), valid, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F);
+        // a count that wraps to a negative long
+        Path negative = write(directory.resolve("negative"), valid,
+                              0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0x01);
+        Path truncated = Files.write(directory.resolve("truncated"), Arrays.copyOf(valid, valid.length - 1));
+        Path notALog = Files.writeString(directory.resolve("text"), "5 'x'\n");
+
+        for (Path corrupt : new Path[]{large, huge, negative, truncated, notALog}) {
+            assertThrows(IOException.class, () -> Keyboard.replay(corrupt), corrupt.toString());
+        }
+    }
+
+    /**
+     * The magic of the valid log followed by the given count.
+     */
+    private static Path write(Path file, byte[] valid, int... count)
+            throws IOException
+    {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.write(valid, 0, Integer.BYTES);
+            for (int b : count) {
+                out.write(b);
+            }
+            out.write(new byte[]{5, 'x'});
+        }
+        return file;
+    }
+}
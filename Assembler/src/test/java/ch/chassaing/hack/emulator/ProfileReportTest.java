@@ -0,0 +1,113 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.SourceMap;
+import ch.chassaing.hack.Samples;
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import io.vavr.control.Option;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileReportTest
+{
+    /** counts D from 3 down to 0, the labels are named like those of the VM translator */
+    private static final Seq<String> PROGRAM = List.of(
+            "@3",                   // 0, line 0
+            "D=A",                  // 1
+            "(Main.loop)",
+            "@Main.loop$end",       // 2, line 3
+            "D;JEQ",                // 3
+            "D=D-1",                // 4
+            "@Main.loop",           // 5
+            "0;JMP",                // 6
+            "(Main.loop$end)",
+            "@Main.loop$end",       // 7
+            "0;JMP");               // 8
+
+    private final Profile profile = new Profile();
+    private Option<SourceMap> sourceMap;
+
+    @BeforeEach
+    void setUp()
+    {
+        HackCpu cpu = new HackCpu();
+        cpu.load(Samples.rom(PROGRAM));
+        cpu.setProfile(profile);
+        cpu.run(1000);
+        assertTrue(cpu.isHalted());
+        sourceMap = Option.some(Samples.sourceMap(PROGRAM));
+    }
+
+    @Test
+    void countsEveryAddress()
+    {
+        ProfileReport report = ProfileReport.of(profile, sourceMap, ProfileReport.Grouping.ADDRESS);
+
+        assertEquals(21, report.total);
+        assertEquals(profile.total(), report.total);
+        assertEquals(9, report.entries.size());
+        // the loop head first, then the loop body
+        assertEquals(new ProfileReport.Entry("2 Main.loop+0 line 3", 4, 0, 0), report.entries.get(0));
+        assertEquals(new ProfileReport.Entry("3 Main.loop+1 line 4", 4, 1, 3), report.entries.get(1));
+        assertTrue(report.entries.contains(new ProfileReport.Entry("6 Main.loop+4 line 7", 3, 3, 0)));
+        assertTrue(report.entries.contains(new ProfileReport.Entry("0 (start)+0 line 0", 1, 0, 0)));
+        assertTrue(report.entries.contains(new ProfileReport.Entry("8 Main.loop$end+1 line 10", 1, 1, 0)));
+    }
+
+    @Test
+    void sumsUpPerLabel()
+    {
+        ProfileReport report = ProfileReport.of(profile, sourceMap, ProfileReport.Grouping.LABEL);
+
+        assertEquals(List.of(new ProfileReport.Entry("Main.loop", 17, 4, 3),
+                             new ProfileReport.Entry("(start)", 2, 0, 0),
+                             new ProfileReport.Entry("Main.loop$end", 2, 1, 0)),
+                     report.entries);
+        assertEquals(100.0 * 17 / 21, report.share(report.entries.head()), 1e-9);
+    }
+
+    @Test
+    void sumsUpPerFunction()
+    {
+        ProfileReport report = ProfileReport.of(profile, sourceMap, ProfileReport.Grouping.FUNCTION);
+
+        assertEquals(List.of(new ProfileReport.Entry("Main.loop", 19, 5, 3),
+                             new ProfileReport.Entry("(start)", 2, 0, 0)),
+                     report.entries);
+        assertEquals(100.0, report.entries.map(report::share).sum().doubleValue(), 1e-9);
+    }
+
+    @Test
+    void withoutSourceMapEveryGroupingReportsAddresses()
+    {
+        for (ProfileReport.Grouping grouping : ProfileReport.Grouping.values()) {
+            ProfileReport report = ProfileReport.of(profile, Option.none(), grouping);
+
+            assertEquals(List.of("0", "1", "2", "3", "4", "5", "6", "7", "8"),
+                         report.entries.map(ProfileReport.Entry::name).sorted());
+            assertEquals(new ProfileReport.Entry("3", 4, 1, 3),
+                         report.entries.find(entry -> entry.name().equals("3")).get());
+        }
+    }
+
+    @Test
+    void writesTheTopEntries()
+    {
+        ProfileReport report = ProfileReport.of(profile, sourceMap, ProfileReport.Grouping.LABEL);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        report.writeTo(new PrintStream(output, true, StandardCharsets.UTF_8), 2);
+
+        String[] lines = output.toString(StandardCharsets.UTF_8).split("\\R");
+        assertEquals(4, lines.length);
+        assertEquals("21 cycles, the top 2 by label:", lines[0]);
+        assertTrue(lines[2].matches(" +17 +80[.,]95% +4 +3  Main\\.loop"), lines[2]);
+        assertTrue(lines[3].endsWith("  (start)"), lines[3]);
+    }
+}
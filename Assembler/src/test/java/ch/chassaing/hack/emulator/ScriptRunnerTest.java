@@ -0,0 +1,115 @@
+package ch.chassaing.hack.emulator;
+
+import io.vavr.collection.List;
+import io.vavr.collection.Seq;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScriptRunnerTest
+{
+    /** the tests run in the module directory */
+    private static final Path CHAPTER_5 = Path.of("..", "05");
+
+    /**
+     * Copies the CPU script into the directory, with the compare-to file changed by the given lines.
+     */
+    private static Path cpuScript(Path directory, UnaryOperator<java.util.List<String>> change)
+            throws IOException
+    {
+        Path script = Files.copy(CHAPTER_5.resolve("CPU.tst"), directory.resolve("CPU.tst"));
+        java.util.List<String> cmp = Files.readAllLines(CHAPTER_5.resolve("CPU.cmp"), StandardCharsets.UTF_8);
+        Files.write(directory.resolve("CPU.cmp"), change.apply(new ArrayList<>(cmp)), StandardCharsets.UTF_8);
+        return script;
+    }
+
+    private static ScriptRunner.Result run(Path script)
+    {
+        return ScriptRunner.run(List.of(script), 1, false).head();
+    }
+
+    @Test
+    void cpuAndComputerScriptsPass()
+            throws IOException
+    {
+        Seq<Path> scripts = ScriptRunner.scripts(List.of(CHAPTER_5))
+                                        .filter(script -> script.getFileName().toString().startsWith("C"));
+        assertEquals(8, scripts.size());
+
+        Seq<ScriptRunner.Result> results = ScriptRunner.run(scripts, 4, false);
+
+        assertEquals(scripts, results.map(ScriptRunner.Result::script));
+        for (ScriptRunner.Result result : results) {
+            assertTrue(result.passed(), result.script() + ": " + result.failure());
+            assertTrue(result.lines() > 1, result.script().toString());
+        }
+    }
+
+    @Test
+    void reportsTheFirstDifference(@TempDir Path directory)
+            throws IOException
+    {
+        // line 4 is |1+  |     0|1110110000010000|  0  |*******|   0   |12345|    1|  12345 |
+        Path script = cpuScript(directory, cmp -> {
+            cmp.set(3, cmp.get(3).replace("12345 |", "12346 |"));
+            cmp.set(5, "not even compared");
+            return cmp;
+        });
+
+        ScriptRunner.Result result = run(script);
+
+        assertFalse(result.passed());
+        assertEquals(4, result.lines());
+        assertTrue(result.failure().get().startsWith("Comparison failure at line 4:"), result.failure().get());
+        assertTrue(result.failure().get().contains("expected |1+  |     0|1110110000010000|  0  |*******|   0   |12345|    1|  12346 |"),
+                   result.failure().get());
+    }
+
+    @Test
+    void starsMatchEveryCharacter(@TempDir Path directory)
+            throws IOException
+    {
+        // the digits of pc replaced by stars still match, a star in the output does not match a digit
+        Path script = cpuScript(directory, cmp -> {
+            for (int i = 1; i < cmp.size(); i++) {
+                cmp.set(i, cmp.get(i).substring(0, 60).replaceAll("[0-9]", "*") + cmp.get(i).substring(60));
+            }
+            return cmp;
+        });
+        assertTrue(run(script).passed(), run(script).failure().toString());
+
+        Path changed = cpuScript(Files.createDirectory(directory.resolve("changed")), cmp -> {
+            // the wildcard outM of line 2 is no wildcard anymore
+            cmp.set(1, cmp.get(1).replace("*******", "  -4711"));
+            return cmp;
+        });
+        ScriptRunner.Result result = run(changed);
+        assertFalse(result.passed());
+        assertTrue(result.failure().get().startsWith("Comparison failure at line 2:"), result.failure().get());
+    }
+
+    @Test
+    void outputAndCompareToFileMustEndTogether(@TempDir Path directory)
+            throws IOException
+    {
+        Path longer = cpuScript(directory, cmp -> {
+            cmp.add("|99  |     0|0000000000000000|  0  |*******|   0   |    0|    0|      0 |");
+            return cmp;
+        });
+        assertTrue(run(longer).failure().get().startsWith("The output ends at line "), run(longer).failure().get());
+
+        Path shorter = cpuScript(Files.createDirectory(directory.resolve("shorter")), cmp -> {
+            cmp.remove(cmp.size() - 1);
+            return cmp;
+        });
+        assertTrue(run(shorter).failure().get().contains("is not in the compare-to file"), run(shorter).failure().get());
+    }
+}
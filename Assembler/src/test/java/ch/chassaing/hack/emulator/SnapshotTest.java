@@ -0,0 +1,114 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.Samples;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest
+{
+    private static void assertSameState(HackCpu expected, HackCpu actual)
+    {
+        assertEquals(expected.cycles(), actual.cycles());
+        assertEquals(expected.pc(), actual.pc());
+        assertEquals(expected.a(), actual.a());
+        assertEquals(expected.d(), actual.d());
+        assertEquals(expected.isHalted(), actual.isHalted());
+        assertEquals(expected.programSize(), actual.programSize());
+        assertArrayEquals(expected.rom(), actual.rom());
+        if (!Arrays.equals(expected.ram(), actual.ram())) {
+            fail("RAM differs at " + Arrays.mismatch(expected.ram(), actual.ram()));
+        }
+    }
+
+    @Test
+    void restoredRunContinuesLikeAStraightRun(@TempDir Path directory)
+            throws IOException
+    {
+        RomImage pong = Samples.rom(Samples.lines(Samples.program("Pong")));
+        HackCpu straight = new HackCpu();
+        straight.load(pong);
+        straight.run(3_000_000);
+
+        HackCpu saved = new HackCpu();
+        saved.load(pong);
+        saved.run(2_000_000);
+        Path snapshot = directory.resolve("pong" + Snapshot.EXTENSION);
+        Snapshot.save(saved, snapshot);
+
+        // into a CPU with another program and hot blocks compiled, both are replaced
+        HackCpu restored = new HackCpu();
+        restored.load(Samples.rom(Samples.lines(Samples.program("Rect"))));
+        restored.setCompileHotBlocks(true);
+        restored.poke(100, 4711);
+        restored.run(50_000);
+        Snapshot.restore(restored, snapshot);
+        assertSameState(saved, restored);
+        restored.run(1_000_000);
+
+        assertSameState(straight, restored);
+    }
+
+    @Test
+    void haltedStateIsRestored(@TempDir Path directory)
+            throws IOException
+    {
+        HackCpu halted = new HackCpu();
+        halted.load(Samples.rom(Samples.lines(Samples.program("Max"))));
+        halted.poke(0, 3);
+        halted.poke(1, 7);
+        halted.run(1000);
+        assertTrue(halted.isHalted());
+        Path snapshot = directory.resolve("max" + Snapshot.EXTENSION);
+        Snapshot.save(halted, snapshot);
+
+        HackCpu restored = new HackCpu();
+        Snapshot.restore(restored, snapshot);
+
+        assertSameState(halted, restored);
+        assertEquals(7, restored.peek(2));
+        assertEquals(0, restored.run(10));
+    }
+
+    @Test
+    void invalidSnapshotsAreRejected(@TempDir Path directory)
+            throws IOException
+    {
+        HackCpu cpu = new HackCpu();
+        cpu.load(Samples.rom(Samples.lines(Samples.program("Add"))));
+        Path snapshot = directory.resolve("add" + Snapshot.EXTENSION);
+        Snapshot.save(cpu, snapshot);
+        byte[] valid = Files.readAllBytes(snapshot);
+
+        Path truncated = Files.write(directory.resolve("truncated"), Arrays.copyOf(valid, valid.length - 1));
+        Path longer = Files.write(directory.resolve("longer"), Arrays.copyOf(valid, valid.length + 1));
+        byte[] bytes = valid.clone();
+        bytes[0] ^= 1;
+        Path magic = Files.write(directory.resolve("magic"), bytes);
+        Path negative = Files.write(directory.resolve("negative"), withProgramSize(valid, -1));
+        Path tooLarge = Files.write(directory.resolve("tooLarge"), withProgramSize(valid, HackCpu.ROM_SIZE + 1));
+
+        HackCpu target = new HackCpu();
+        for (Path invalid : new Path[]{truncated, longer, magic, negative, tooLarge}) {
+            assertThrows(IOException.class, () -> Snapshot.restore(target, invalid), invalid.toString());
+        }
+        assertEquals(0, target.cycles());
+        Snapshot.restore(target, snapshot);
+        assertSameState(cpu, target);
+    }
+
+    private static byte[] withProgramSize(byte[] snapshot, int programSize)
+    {
+        byte[] bytes = snapshot.clone();
+        ByteBuffer.wrap(bytes).order(RomImage.BYTE_ORDER).putInt(Integer.BYTES, programSize);
+        return bytes;
+    }
+}
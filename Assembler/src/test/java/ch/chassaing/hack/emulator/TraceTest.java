@@ -0,0 +1,160 @@
+package ch.chassaing.hack.emulator;
+
+import ch.chassaing.hack.RomImage;
+import ch.chassaing.hack.Samples;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TraceTest
+{
+    private static final int INTERVAL = 16;
+
+    /**
+     * What a CPU stepped one instruction at a time did, index 0 is the
+     * first cycle of the trace.
+     */
+    private record Reference(long firstCycle, int[] pc, int[] a, int[] d, int[] address, int[] before, int[] after)
+    {
+        int size()
+        {
+            return pc.length;
+        }
+    }
+
+    private static HackCpu cpu(RomImage program, int... ram)
+    {
+        HackCpu cpu = new HackCpu();
+        cpu.load(program);
+        for (int address = 0; address < ram.length; address++) {
+            cpu.poke(address, ram[address]);
+        }
+        return cpu;
+    }
+
+    private static Reference reference(HackCpu cpu, int cycles)
+    {
+        Reference reference = new Reference(cpu.cycles(), new int[cycles], new int[cycles], new int[cycles],
+                                            new int[cycles], new int[cycles], new int[cycles]);
+        for (int i = 0; i < cycles; i++) {
+            int address = cpu.a() & HackCpu.ADDRESS_MASK;
+            reference.pc[i] = cpu.pc();
+            reference.address[i] = address;
+            reference.before[i] = cpu.peek(address);
+            assertEquals(1, cpu.run(1), "the program must not halt");
+            reference.a[i] = cpu.a();
+            reference.d[i] = cpu.d();
+            reference.after[i] = cpu.peek(address);
+        }
+        return reference;
+    }
+
+    /**
+     * Traces the program from the given cycle on, in chunks so that the
+     * buffers are handed to the writer thread in between.
+     */
+    private static TraceReader trace(Path file, RomImage program, long from, int cycles, int... ram)
+            throws IOException
+    {
+        HackCpu cpu = cpu(program, ram);
+        cpu.run(from);
+        TraceWriter trace = TraceWriter.open(file, cpu, INTERVAL);
+        cpu.setTrace(trace);
+        for (int executed = 0; executed < cycles; ) {
+            executed += (int) cpu.run(Math.min(cycles - executed, 777));
+        }
+        trace.close();
+        assertEquals(cycles, trace.records());
+        return TraceReader.open(file);
+    }
+
+    private static void assertRecord(Reference reference, int i, TraceReader trace)
+    {
+        String message = "cycle " + (reference.firstCycle + i);
+        assertEquals(reference.firstCycle + i, trace.cycle(), message);
+        assertEquals(reference.pc[i], trace.pc(), message);
+        assertEquals(reference.a[i], trace.a(), message);
+        assertEquals(reference.d[i], trace.d(), message);
+        if (trace.isWritten()) {
+            assertEquals(reference.address[i], trace.address(), message);
+            assertEquals(reference.after[i], trace.value(), message);
+        } else {
+            assertEquals(reference.before[i], reference.after[i], message + " changed the RAM without a record");
+        }
+    }
+
+    @Test
+    void recordsMatchTheExecutedInstructions(@TempDir Path directory)
+            throws IOException
+    {
+        RomImage program = Samples.rom(Samples.lines(Path.of("..", "04", "mult", "Mult.asm")));
+        int cycles = 10_000;
+        Reference reference = reference(cpu(program, 123, 2000), cycles);
+
+        try (TraceReader trace = trace(directory.resolve("mult" + TraceWriter.EXTENSION), program, 0, cycles, 123, 2000)) {
+            assertEquals(0, trace.firstCycle());
+            assertEquals(cycles - 1, trace.lastCycle());
+            for (int i = 0; i < cycles; i++) {
+                assertTrue(trace.next());
+                assertRecord(reference, i, trace);
+            }
+            assertFalse(trace.next());
+        }
+    }
+
+    @Test
+    void seekStartsAtAnyCycle(@TempDir Path directory)
+            throws IOException
+    {
+        RomImage program = Samples.rom(Samples.lines(Samples.program("Pong")));
+        long from = 12_345;
+        int cycles = 5_000;
+        HackCpu cpu = cpu(program);
+        cpu.run(from);
+        Reference reference = reference(cpu, cycles);
+
+        try (TraceReader trace = trace(directory.resolve("pong" + TraceWriter.EXTENSION), program, from, cycles)) {
+            assertEquals(from, trace.firstCycle());
+            assertEquals(from + cycles - 1, trace.lastCycle());
+            Random random = new Random(4711);
+            // the checkpoints, the records around them and the ends, then anywhere
+            int[] seeks = new int[40];
+            int[] fixed = {0, 1, INTERVAL - 1, INTERVAL, INTERVAL + 1, 5 * INTERVAL, cycles - 1, 2};
+            System.arraycopy(fixed, 0, seeks, 0, fixed.length);
+            for (int i = fixed.length; i < seeks.length; i++) {
+                seeks[i] = random.nextInt(cycles);
+            }
+            for (int i : seeks) {
+                trace.seek(from + i);
+                // a few records on, across the next checkpoint
+                for (int j = i; j < Math.min(cycles, i + INTERVAL + 2); j++) {
+                    assertTrue(trace.next());
+                    assertRecord(reference, j, trace);
+                }
+            }
+            trace.seek(from + cycles);
+            assertFalse(trace.next());
+            assertThrows(IllegalArgumentException.class, () -> trace.seek(from - 1));
+            assertThrows(IllegalArgumentException.class, () -> trace.seek(from + cycles + 1));
+        }
+    }
+
+    @Test
+    void emptyTrace(@TempDir Path directory)
+            throws IOException
+    {
+        RomImage program = Samples.rom(Samples.lines(Samples.program("Pong")));
+
+        try (TraceReader trace = trace(directory.resolve("empty" + TraceWriter.EXTENSION), program, 100, 0)) {
+            assertEquals(100, trace.firstCycle());
+            assertFalse(trace.next());
+            trace.seek(100);
+            assertFalse(trace.next());
+        }
+    }
+}
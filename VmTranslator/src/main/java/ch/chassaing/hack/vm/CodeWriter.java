@@ -6,6 +6,17 @@ import java.util.List;
 
 public interface CodeWriter
 {
+    /**
+     * Translates the command as soon as the commands after it are known
+     * and hands its instructions to the output.
+     */
+    void write(Command command);
+
+    /**
+     * Translates the commands still waiting for the commands after them.
+     */
+    void finish();
+
     /**
      * Will output all instructions added to it plus the necessary bootstrap code.
      */
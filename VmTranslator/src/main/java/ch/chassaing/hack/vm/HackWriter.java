@@ -3,6 +3,7 @@ package ch.chassaing.hack.vm;
 import ch.chassaing.hack.vm.command.*;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 public final class HackWriter
         implements CodeWriter
@@ -12,20 +13,50 @@ public final class HackWriter
                    Segment.LOCAL, "@LCL",
                    Segment.THIS, "@THIS",
                    Segment.THAT, "@THAT");
+    /** the most commands known before the first of them is translated */
+    private static final int LOOKAHEAD = 3;
 
     private String functionName = "global";
     private int retCounter = 0;
     private int compCounter = 0;
     private int contCounter = 0;
 
-    private final List<String> instructions = new LinkedList<>();
+    private final Consumer<String> output;
+    /** null if the instructions are not collected */
+    private final List<String> instructions;
+    /** ring buffer of the commands waiting for their lookahead */
+    private final Command[] pending = new Command[LOOKAHEAD];
+    private int first = 0;
+    private int size = 0;
 
     /**
-     * Startet einen neuen HackWriter und fügt den Bootstrap code ein,
-     * falls es sich um ein volles Program (mit Sys Modul) handelt.
+     * Startet einen neuen HackWriter, der die Instruktionen sammelt,
+     * siehe {@link #getInstructions(List)}.
      */
     public HackWriter(boolean isComplete)
     {
+        this(isComplete, new ArrayList<>());
+    }
+
+    private HackWriter(boolean isComplete, List<String> instructions)
+    {
+        this(isComplete, instructions::add, instructions);
+    }
+
+    /**
+     * Startet einen neuen HackWriter, der jede Instruktion sofort an output
+     * übergibt und fügt den Bootstrap code ein, falls es sich um ein volles
+     * Program (mit Sys Modul) handelt.
+     */
+    public HackWriter(boolean isComplete, Consumer<String> output)
+    {
+        this(isComplete, output, null);
+    }
+
+    private HackWriter(boolean isComplete, Consumer<String> output, List<String> instructions)
+    {
+        this.output = Objects.requireNonNull(output);
+        this.instructions = instructions;
         if (isComplete) {
             // SP auf 256 setzen
             add("@256", "D=A", "@SP", "M=D");
@@ -37,47 +68,90 @@ public final class HackWriter
     @Override
     public List<String> getInstructions(List<Command> commands)
     {
-        // wir benutzen cmdIdx damit wir lookahead machen können, wenn nötig
-        int cmdIdx = -1;
-        while (cmdIdx + 1 < commands.size()) {
-            Command command = commands.get(++cmdIdx);
-            if (command instanceof Push push) {
-                generatePush(push);
-            } else if (command instanceof PushS pushS) {
-                add("@" + pushS.value(), "D=M");
-                toStack("D");
-            } else if (command instanceof Pop pop) {
-                generatePop(pop);
-            } else if (command instanceof PopS popS) {
-                stackToD();
-                add("@" + popS.value(), "M=D");
-            } else if (command instanceof Binary binary) {
-                generateBinary(binary.op());
-            } else if (command instanceof Comparison comparison) {
-                generateCompare(comparison.jumpInstruction());
-            } else if (command instanceof Unary unary) {
-                generateUnary(unary);
-            } else if (command instanceof Function function) {
-                generateFunction(function);
-            } else if (command instanceof Return) {
-                generateReturn();
-            } else if (command instanceof Call call) {
-                generateCall(call);
-            } else if (command instanceof Label label) {
-                add("(" + label.label() + ")");
-            } else if (command instanceof Goto aGoto) {
-                add("@" + aGoto.label(),
-                    "0;JEQ");
-            } else if (command instanceof IfGoto ifGoto) {
-                generateIfGoto(ifGoto);
-            } else {
-                throw new UnsupportedOperationException("Unknown command: " + command);
-            }
+        if (instructions == null) {
+            throw new IllegalStateException("The instructions are not collected");
         }
-
+        commands.forEach(this::write);
+        finish();
         return instructions;
     }
 
+    @Override
+    public void write(Command command)
+    {
+        pending[(first + size) % LOOKAHEAD] = command;
+        if (++size == LOOKAHEAD) {
+            translateFirst();
+        }
+    }
+
+    @Override
+    public void finish()
+    {
+        while (size > 0) {
+            translateFirst();
+        }
+    }
+
+    /**
+     * @return the waiting command at the index, 0 is the next one to translate, null if not read yet
+     */
+    private Command peek(int index)
+    {
+        return index < size ? pending[(first + index) % LOOKAHEAD] : null;
+    }
+
+    private void translateFirst()
+    {
+        int translated = translate(peek(0));
+        for (int i = 0; i < translated; i++) {
+            pending[first] = null;
+            first = (first + 1) % LOOKAHEAD;
+        }
+        size -= translated;
+    }
+
+    /**
+     * @return the number of commands translated, more than one if a rule
+     * translates the command together with the ones after it
+     */
+    private int translate(Command command)
+    {
+        if (command instanceof Push push) {
+            generatePush(push);
+        } else if (command instanceof PushS pushS) {
+            add("@" + pushS.value(), "D=M");
+            toStack("D");
+        } else if (command instanceof Pop pop) {
+            generatePop(pop);
+        } else if (command instanceof PopS popS) {
+            stackToD();
+            add("@" + popS.value(), "M=D");
+        } else if (command instanceof Binary binary) {
+            generateBinary(binary.op());
+        } else if (command instanceof Comparison comparison) {
+            generateCompare(comparison.jumpInstruction());
+        } else if (command instanceof Unary unary) {
+            generateUnary(unary);
+        } else if (command instanceof Function function) {
+            generateFunction(function);
+        } else if (command instanceof Return) {
+            generateReturn();
+        } else if (command instanceof Call call) {
+            generateCall(call);
+        } else if (command instanceof Label label) {
+            add("(" + label.label() + ")");
+        } else if (command instanceof Goto aGoto) {
+            add("@" + aGoto.label(),
+                "0;JEQ");
+        } else if (command instanceof IfGoto ifGoto) {
+            generateIfGoto(ifGoto);
+        } else {
+            throw new UnsupportedOperationException("Unknown command: " + command);
+        }
+        return 1;
+    }
+
     private void generatePush(Push push)
     {
         if (push.segment() == Segment.CONSTANT) {
@@ -320,7 +394,9 @@ public final class HackWriter
 
     private void add(String... someInstructions)
     {
-        Collections.addAll(instructions, someInstructions);
+        for (String instruction : someInstructions) {
+            output.accept(instruction);
+        }
     }
 
     private void enterFunction(String functionName)
@@ -4,18 +4,31 @@ import ch.chassaing.hack.vm.command.Command;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 public class Main
 {
+    private static final String DEBUG = "-debug";
+
+    /**
+     * Translates the VM file or all VM files of a folder. Every command is
+     * translated as soon as it is parsed and written to the assembler file,
+     * with -debug the instructions are also printed to the console.
+     */
     public static void main(String[] args)
     {
+        boolean debug = args.length == 2 && DEBUG.equals(args[0]);
+        if (debug) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if (args.length != 1) {
-            System.out.println("Need exactly one argument (VM file or folder)");
+            System.out.println("Usage: [" + DEBUG + "] <VM file or folder>");
             System.exit(1);
             return;
         }
@@ -23,7 +36,7 @@ public class Main
         File inFile = Paths.get(args[0]).toFile();
 
         Path outPath;
-        List<File> inPaths = new LinkedList<>();
+        List<File> inPaths = new ArrayList<>();
         if (inFile.isDirectory()) {
             // code for directories
             outPath = Path.of(args[0], StringUtils.removeEnd(args[0], "/") + ".asm");
@@ -48,40 +61,46 @@ public class Main
             return;
         }
 
-        List<Command> commands = new LinkedList<>();
-        CodeWriter codeWriter = new HackWriter(inFile.isDirectory());
-
-        try (OutputStreamWriter writer = openForWriting(outPath)) {
-            int iCount = 0;
+        try (Writer writer = Files.newBufferedWriter(outPath, StandardCharsets.UTF_8)) {
+            int[] iCount = {0};
+            CodeWriter codeWriter = new HackWriter(inFile.isDirectory(), instruction -> {
+                instruction = StringUtils.trim(instruction);
+                if (debug) {
+                    System.out.printf("%5d: %s%n", iCount[0]++, instruction);
+                }
+                writeLine(writer, instruction);
+            });
             for (File vmFilePath : inPaths) {
-                Parser parser = new SlurpingParser(vmFilePath);
-                int line;
-                while ((line = parser.advance()) > 0) {
-                    try {
-                        commands.add(parser.command());
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        System.out.printf("%s - %d: %s%n", vmFilePath, line, e.getMessage());
-                        System.exit(3);
+                try (StreamingParser parser = new StreamingParser(vmFilePath)) {
+                    int line;
+                    while ((line = parser.advance()) > 0) {
+                        Command command = null;
+                        try {
+                            command = parser.command();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            System.out.printf("%s - %d: %s%n", vmFilePath, line, e.getMessage());
+                            System.exit(3);
+                        }
+                        codeWriter.write(command);
                     }
                 }
             }
-            Iterable<String> instructions = codeWriter.getInstructions(commands);
-            for (String instruction : instructions) {
-                instruction = StringUtils.trim(instruction);
-                System.out.printf("%5d: %s\n", iCount++, instruction);
-                writer.write(instruction);
-                writer.write(System.lineSeparator());
-            }
-        } catch (IOException e) {
-            System.err.println("Problem writing to file " + outPath);
+            codeWriter.finish();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Problem reading the VM files or writing to file " + outPath);
             e.printStackTrace();
             System.exit(2);
         }
     }
 
-    private static OutputStreamWriter openForWriting(Path asmFile) throws FileNotFoundException
+    private static void writeLine(Writer writer, String instruction)
     {
-        return new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(asmFile.toFile())));
+        try {
+            writer.write(instruction);
+            writer.write(System.lineSeparator());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
-}
\ No newline at end of file
+}
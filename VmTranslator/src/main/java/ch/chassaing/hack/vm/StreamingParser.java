@@ -1,49 +1,50 @@
 package ch.chassaing.hack.vm;
 
 import ch.chassaing.hack.vm.command.*;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.file.Files;
 
-public final class SlurpingParser
-        implements Parser
+/**
+ * Reads a VM file line by line, only the current line is kept in memory.
+ */
+public final class StreamingParser
+        implements Parser, Closeable
 {
-    private final ArrayList<String> lines;
+    private final BufferedReader reader;
     private final String filenameStub;
     private int currentLine = 0;
     private String[] fields;
 
-    public SlurpingParser(File file)
+    public StreamingParser(File file)
+            throws IOException
     {
-        String filename = file.getName();
-        filenameStub = filename.replace(".vm", "");
-        lines = new ArrayList<>();
-        try (InputStream is = IOUtils.toBufferedInputStream(new FileInputStream(file))) {
-            lines.addAll(IOUtils.readLines(is, StandardCharsets.UTF_8));
-        }
-        catch (IOException e) {
-            System.err.println("Problem reading file " + filename);
-            e.printStackTrace();
-            System.exit(2);
-        }
+        filenameStub = file.getName().replace(".vm", "");
+        reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
     }
 
     @Override
     public int advance()
     {
-        while (currentLine++ < lines.size()) {
-            String nextLine = StringUtils.trim(lines.get(currentLine - 1)); // lines[] ist 0-basiert
-            if (nextLine.startsWith("//") || StringUtils.isBlank(nextLine)) {
-                continue;
+        try {
+            String nextLine;
+            while ((nextLine = reader.readLine()) != null) {
+                currentLine++;
+                nextLine = StringUtils.trim(nextLine);
+                if (nextLine.startsWith("//") || StringUtils.isBlank(nextLine)) {
+                    continue;
+                }
+                fields = StringUtils.split(nextLine);
+                return currentLine;
             }
-            fields = StringUtils.split(nextLine);
-            return currentLine;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return -1;
     }
@@ -102,4 +103,11 @@ public final class SlurpingParser
             default -> throw new UnsupportedOperationException("Unknown command " + fields[0]);
         };
     }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        reader.close();
+    }
 }
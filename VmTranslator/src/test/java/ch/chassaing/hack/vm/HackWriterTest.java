@@ -1,10 +1,8 @@
 package ch.chassaing.hack.vm;
 
-import ch.chassaing.hack.vm.command.Command;
-import ch.chassaing.hack.vm.command.Function;
-import ch.chassaing.hack.vm.command.Pop;
-import ch.chassaing.hack.vm.command.Push;
+import ch.chassaing.hack.vm.command.*;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -30,4 +28,34 @@ class HackWriterTest {
         instructions.forEach(System.out::println);
         assertFalse(instructions.isEmpty());
     }
-}
\ No newline at end of file
+
+    @org.junit.jupiter.api.Test
+    void streamingWritesTheSameInstructionsAsCollecting()
+    {
+        int line = 1;
+        List<Command> commands = List.of(
+                new Function(line++, "Main.loop", 1),
+                new Label(line++, "LOOP"),
+                new Push(line++, Segment.LOCAL, 0),
+                new Push(line++, Segment.CONSTANT, 10),
+                new Lt(line++),
+                new Not(line++),
+                new IfGoto(line++, "END"),
+                new Push(line++, Segment.LOCAL, 0),
+                new Push(line++, Segment.CONSTANT, 1),
+                new Add(line++),
+                new Pop(line++, Segment.LOCAL, 0),
+                new Goto(line++, "LOOP"),
+                new Label(line++, "END"),
+                new Push(line++, Segment.LOCAL, 0),
+                new Return(line));
+
+        List<String> streamed = new ArrayList<>();
+        CodeWriter streaming = new HackWriter(true, streamed::add);
+        commands.forEach(streaming::write);
+        streaming.finish();
+
+        assertEquals(new HackWriter(true).getInstructions(commands), streamed);
+        assertTrue(streamed.contains("(Main.loop$comp.0)"));
+    }
+}